@@ -0,0 +1,27 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Builds the JMH suite, then for every scale generates and loads a dataset
+# and runs the benchmarks at every concurrency level.  Results are written
+# as JSON to results/jmh-scale<S>-t<T>.json for regression tracking.
+# Example: SCALES="0.1 1" THREADS="1 8" source ./bench.sh
+SCALES=${SCALES:-"1"}
+THREADS=${THREADS:-"1 8 32"}
+
+mvn -q -B install -DskipTests && (cd benchmarks && mvn -q -B package) || return 1 2>/dev/null || exit 1
+mkdir -p results
+
+for S in $SCALES; do
+	DATA=/tmp/$USER/bench-data-$S
+	java -cp lib/*:bin/ DataGenerator $DATA --scale $S
+	java -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER $DATA --truncate
+	psql -h localhost -p $PORT $DBNAME < ../sql/indexes.sql
+	for T in $THREADS; do
+		java -Dbench.db=$DBNAME -Dbench.port=$PORT -Dbench.user=$USER -Ddb.pool.maxSize=$T \
+			-jar benchmarks/target/benchmarks.jar -p scale=$S -t $T \
+			-jvmArgsAppend "-Dbench.db=$DBNAME -Dbench.port=$PORT -Dbench.user=$USER -Ddb.pool.maxSize=$T" \
+			-rf json -rff results/jmh-scale$S-t$T.json
+	done
+done
@@ -0,0 +1,228 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the DBproject data paths against a running PostgreSQL
+ * loaded with a dataset of the given scale (see ../bench.sh, which
+ * generates and loads each scale before running this suite).
+ *
+ * DBproject lives in the default package, which Java code in a named
+ * package can not import, so it is reached through method handles that
+ * are resolved once per trial; the handle call itself is a few
+ * nanoseconds against round trips of tens of microseconds.
+ *
+ * Connection settings come from system properties: bench.db (default
+ * $USER_DB), bench.port (default $PGPORT or 5432) and bench.user
+ * (default $USER).  Concurrency is the JMH thread count (-t), and the
+ * scale parameter labels the results and is checked against the number
+ * of appointments actually loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DBprojectBenchmark{
+	//scale factor of the loaded dataset, as passed to DataGenerator
+	@Param({"1"})
+	public double scale;
+
+	private Object esql;
+	private MethodHandle executeUpdate;
+	private MethodHandle executeQueryAndReturnResult;
+	private MethodHandle cleanup;
+
+	private String insertAppointment;
+	private String option5, option6, option7, option8;
+	private Object[] option5Params, option6Params, option8Params;
+
+	static final String DB = System.getProperty("bench.db", System.getenv("USER") + "_DB");
+	static final String PORT = System.getProperty("bench.port", System.getenv().getOrDefault("PGPORT", "5432"));
+	static final String USER = System.getProperty("bench.user", System.getenv("USER"));
+
+	//plain JDBC connection for sampling parameters and cleaning up
+	private Connection raw;
+	private final AtomicInteger nextAppointment = new AtomicInteger();
+	private int firstInserted;
+
+	@Setup(Level.Trial)
+	public void setup() throws Throwable {
+		Class<?> dbproject = Class.forName("DBproject");
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		this.esql = dbproject.getConstructor(String.class, String.class, String.class, String.class)
+			.newInstance(DB, PORT, USER, "");
+		this.executeUpdate = lookup.findVirtual(dbproject, "executeUpdate",
+			MethodType.methodType(int.class, String.class, Object[].class))
+			.asType(MethodType.methodType(int.class, Object.class, String.class, Object[].class));
+		this.executeQueryAndReturnResult = lookup.findVirtual(dbproject, "executeQueryAndReturnResult",
+			MethodType.methodType(List.class, String.class, Object[].class))
+			.asType(MethodType.methodType(List.class, Object.class, String.class, Object[].class));
+		this.cleanup = lookup.findVirtual(dbproject, "cleanup", MethodType.methodType(void.class))
+			.asType(MethodType.methodType(void.class, Object.class));
+
+		this.insertAppointment = constant(dbproject, "INSERT_APPOINTMENT");
+		this.option5 = constant(dbproject, "LIST_DOCTOR_APPOINTMENTS");
+		this.option6 = constant(dbproject, "LIST_AVAILABLE_APPOINTMENTS");
+		this.option7 = constant(dbproject, "COUNT_STATUS_PER_DOCTOR");
+		this.option8 = constant(dbproject, "COUNT_PATIENTS_PER_DOCTOR");
+
+		this.raw = connect();
+		String[] busy = sample(
+			"SELECT H.doctor_id, min(A.adate), max(A.adate)\n" +
+			"FROM has_appointment H, Appointment A WHERE H.appt_id = A.appnt_ID\n" +
+			"GROUP BY H.doctor_id ORDER BY count(*) DESC LIMIT 1");
+		String[] available = sample(
+			"SELECT D.name, A.adate\n" +
+			"FROM Appointment A, has_appointment H, Doctor Dr, Department D\n" +
+			"WHERE A.appnt_ID = H.appt_id AND H.doctor_id = Dr.doctor_ID AND Dr.did = D.dept_ID AND A.status = 'AV' LIMIT 1");
+		String[] counts = sample("SELECT count(*), COALESCE(max(appnt_ID), 0) FROM Appointment");
+		this.option5Params = new Object[]{ Integer.valueOf(busy[0]), LocalDate.parse(busy[1]), LocalDate.parse(busy[2]) };
+		this.option6Params = new Object[]{ available[0], LocalDate.parse(available[1]) };
+		this.option8Params = new Object[]{ "AC" };
+
+		long loaded = Long.parseLong(counts[0]);
+		long expected = Math.round(1000000 * this.scale);
+		if(Math.abs(loaded - expected) > expected / 10){
+			System.err.println("WARNING: scale " + this.scale + " expects ~" + expected + " appointments but " + loaded + " are loaded");
+		}
+		this.firstInserted = Integer.parseInt(counts[1]) + 1;
+		this.nextAppointment.set(this.firstInserted);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Statement stmt = this.raw.createStatement();
+		stmt.executeUpdate("DELETE FROM Appointment WHERE appnt_ID >= " + this.firstInserted);
+		stmt.close();
+		this.raw.close();
+		this.cleanup.invokeExact(this.esql);
+	}
+
+	/**
+	 * The executeUpdate insert path of option 3.
+	 */
+	@Benchmark
+	public int insertAppointment() throws Throwable {
+		return (int) this.executeUpdate.invokeExact(this.esql, this.insertAppointment,
+			new Object[]{ this.nextAppointment.getAndIncrement(), LocalDate.of(2022, 6, 1), "8:00-10:00", "AV" });
+	}
+
+	@Benchmark
+	public List<?> option5AppointmentsOfDoctor() throws Throwable {
+		return (List<?>) this.executeQueryAndReturnResult.invokeExact(this.esql, this.option5, this.option5Params);
+	}
+
+	@Benchmark
+	public List<?> option6AvailableOfDepartment() throws Throwable {
+		return (List<?>) this.executeQueryAndReturnResult.invokeExact(this.esql, this.option6, this.option6Params);
+	}
+
+	@Benchmark
+	public List<?> option7StatusPerDoctor() throws Throwable {
+		return (List<?>) this.executeQueryAndReturnResult.invokeExact(this.esql, this.option7, new Object[0]);
+	}
+
+	@Benchmark
+	public List<?> option8PatientsPerDoctor() throws Throwable {
+		return (List<?>) this.executeQueryAndReturnResult.invokeExact(this.esql, this.option8, this.option8Params);
+	}
+
+	/**
+	 * Baseline for the result conversion overhead of option 5: the same
+	 * query over a plain JDBC connection per benchmark thread, reading typed
+	 * columns instead of building List<List<String>>.  Compare with
+	 * option5AppointmentsOfDoctor.
+	 */
+	@Benchmark
+	public void option5TypedBaseline(RawConnection c, Blackhole bh) throws SQLException {
+		PreparedStatement ps = c.option5;
+		ps.setInt(1, (Integer) this.option5Params[0]);
+		ps.setDate(2, java.sql.Date.valueOf((LocalDate) this.option5Params[1]));
+		ps.setDate(3, java.sql.Date.valueOf((LocalDate) this.option5Params[2]));
+		ResultSet rs = ps.executeQuery();
+		while(rs.next()){
+			bh.consume(rs.getInt(1));
+			bh.consume(rs.getString(2));
+			bh.consume(rs.getDate(3));
+			bh.consume(rs.getString(4));
+		}
+		rs.close();
+	}
+
+	/**
+	 * A plain JDBC connection owned by one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class RawConnection{
+		Connection conn;
+		PreparedStatement option5;
+
+		@Setup(Level.Trial)
+		public void open(DBprojectBenchmark b) throws Throwable {
+			this.conn = connect();
+			this.option5 = this.conn.prepareStatement(b.option5);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws SQLException {
+			this.option5.close();
+			this.conn.close();
+		}
+	}
+
+	static Connection connect() throws SQLException {
+		return DriverManager.getConnection(
+			"jdbc:postgresql://" + System.getProperty("db.host", "localhost") + ":" + PORT + "/" + DB, USER, "");
+	}
+
+	private static String constant(Class<?> type, String name) throws ReflectiveOperationException {
+		Field f = type.getDeclaredField(name);
+		f.setAccessible(true);
+		return (String) f.get(null);
+	}
+
+	private String[] sample(String sql) throws SQLException {
+		Statement stmt = this.raw.createStatement();
+		try{
+			ResultSet rs = stmt.executeQuery(sql);
+			if(!rs.next()){
+				throw new SQLException("No sample data for: " + sql);
+			}
+			String[] row = new String[rs.getMetaData().getColumnCount()];
+			for(int i = 0; i < row.length; i++) row[i] = rs.getString(i + 1);
+			return row;
+		}finally{
+			stmt.close();
+		}
+	}
+}
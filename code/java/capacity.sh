@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Compares the booked load of every staff member's time slot with the
+# capacity requested in request_maintenance over a range of dates.
+# Example: source ./capacity.sh 1/1/2020 12/31/2021
+java $JAVA_OPTS -cp lib/*:bin/ CapacityAnalyzer $DBNAME $PORT $USER "$@"
@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Checks that the in-memory store (java -Ddb.store=memory DBproject) gives
+# the same reports as the database, which must hold the data of ../data.
+# Example: source ./conformance.sh
+java $JAVA_OPTS -cp lib/*:bin/ StoreConformance $DBNAME $PORT $USER "$@"
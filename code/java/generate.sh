@@ -0,0 +1,5 @@
+#! /bin/bash
+# Generates a scaled dataset in the layout of ../data/*.csv.
+# Scale 1 = 1M appointments, 100k patients; scale 10 = 10M and 1M.
+# Example: source ./generate.sh /tmp/$USER/data --scale 10
+java $JAVA_OPTS -cp lib/*:bin/ DataGenerator "$@"
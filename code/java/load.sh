@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Streams ../data/*.csv into the tables created by ../sql/create.sql.
+# Set -Ddb.host=<host> in JAVA_OPTS to load a remote server.
+# Example: source ./load.sh
+java $JAVA_OPTS -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER ../data --truncate
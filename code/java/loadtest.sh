@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Simulates concurrent patients, staff and admins against the database and
+# reports latency percentiles and throughput per operation.  Booking changes
+# the data, so point it at a scratch copy.
+# Example: source ./loadtest.sh --patients 5000 --duration 120 --output results/load.hgrm
+java $JAVA_OPTS -Ddb.pool.maxSize=${POOL_SIZE:-32} -cp lib/*:bin/ LoadDriver $DBNAME $PORT $USER "$@"
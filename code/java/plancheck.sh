@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Runs EXPLAIN (ANALYZE, BUFFERS) for every DBproject query and fails on
+# sequential scans of large tables or queries over the latency budget.
+# Example: source ./plancheck.sh
+java $JAVA_OPTS -cp lib/*:bin/ PlanHarness $DBNAME $PORT $USER "$@"
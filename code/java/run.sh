@@ -4,4 +4,6 @@ PORT=$PGPORT
 USER=$USER
 
 # Example: source ./run.sh
-java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
+# Reports as CSV in a file: JAVA_OPTS="-Ddb.report.format=csv -Ddb.report.file=report.csv" source ./run.sh
+# Without a database, on the CSV files of ../data: JAVA_OPTS=-Ddb.store=memory source ./run.sh
+java $JAVA_OPTS -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
@@ -0,0 +1,43 @@
+/**
+ * The values of the _STATUS domain used by Appointment.status.
+ */
+public enum AppointmentStatus{
+	PA("Past"),
+	AC("Active"),
+	AV("Available"),
+	WL("Waitlisted");
+
+	private final String _description;
+
+	AppointmentStatus(String description){
+		this._description = description;
+	}
+
+	public String getDescription() {
+		return this._description;
+	}
+
+	/**
+	 * Method to map a database status code to its enum value.
+	 *
+	 * @param code the two letter status code, may be null
+	 * @return the matching status, or null when code is null
+	 * @throws IllegalArgumentException when code is not a valid status
+	 */
+	public static AppointmentStatus fromCode(String code) {
+		if(code == null) return null;
+		return AppointmentStatus.valueOf(code.trim());
+	}
+
+	/**
+	 * @param code a user supplied status code
+	 * @return true when code is one of PA, AC, AV or WL
+	 */
+	public static boolean isValid(String code) {
+		if(code == null) return false;
+		for(AppointmentStatus s : values()){
+			if(s.name().equals(code)) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,165 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs the statements of the asynchronous DBproject API on a
+ * fixed set of worker threads, each of which borrows its own pooled
+ * connection, so independent queries overlap.
+ *
+ * At most maxPending calls are queued or running at a time; submit()
+ * blocks the caller until one finishes, which keeps a fast producer from
+ * piling up work.  A call that runs longer than its timeout, or whose
+ * future is cancelled, has its JDBC statement cancelled on the server.
+ *
+ *   db.async.threads      worker threads (default the pool size, db.pool.maxSize)
+ *   db.async.maxPending   calls queued or running at once (default twice the threads)
+ *   db.async.timeoutMs    default timeout of a call (default 30000, 0 for none)
+ */
+public class AsyncExecutor{
+
+	/**
+	 * The future of one call.  The running statement is recorded so that
+	 * cancelling the future or a timeout can cancel it.
+	 */
+	public static class Call<T> extends CompletableFuture<T>{
+		private Statement _statement = null;
+
+		/**
+		 * Method to record the statement the call is running, or null once
+		 * it is done.  A call cancelled before its statement started has it
+		 * cancelled at once.
+		 */
+		synchronized void setStatement(Statement stmt) {
+			this._statement = stmt;
+			if(stmt != null && isDone()) cancelStatement();
+		}
+
+		// runs under the lock so the statement is never cancelled after
+		// setStatement(null) has handed its connection back to the pool
+		private synchronized void cancelStatement() {
+			if(this._statement == null) return;
+			try{
+				this._statement.cancel();
+			}catch(SQLException e){
+				// the statement finished meanwhile
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if(cancelled) cancelStatement();
+			return cancelled;
+		}
+
+		void timeout(long timeoutMs) {
+			if(completeExceptionally(new TimeoutException("Query did not finish within " + timeoutMs + " ms"))){
+				cancelStatement();
+			}
+		}
+	}//end Call
+
+	/**
+	 * The work of one call.  Implementations pass the call to the
+	 * statement code, which records its statement with setStatement.
+	 */
+	public interface Task<T>{
+		T run(Call<T> call) throws SQLException;
+	}
+
+	private final ThreadPoolExecutor _workers;
+	private final ScheduledThreadPoolExecutor _timer;
+	private final Semaphore _pending;
+	private final long _timeoutMs;
+
+	public AsyncExecutor(int defaultThreads) {
+		int threads = Math.max(1, Integer.getInteger("db.async.threads", defaultThreads));
+		int maxPending = Math.max(threads, Integer.getInteger("db.async.maxPending", 2 * threads));
+		this._timeoutMs = Long.getLong("db.async.timeoutMs", 30000L);
+		this._pending = new Semaphore(maxPending);
+		final AtomicInteger n = new AtomicInteger();
+		this._workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), r -> {
+				Thread t = new Thread(r, "db-async-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		this._workers.allowCoreThreadTimeOut(true);
+		this._timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "db-async-timer");
+			t.setDaemon(true);
+			return t;
+		});
+		this._timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * @return the timeout used when a call does not give one, in ms
+	 */
+	public long getDefaultTimeoutMs() {
+		return this._timeoutMs;
+	}
+
+	/**
+	 * Method to run a task on a worker thread, blocking while maxPending
+	 * calls are already queued or running.
+	 *
+	 * @param task the work, run on a worker with a connection of its own
+	 * @param timeoutMs time after which the call fails with a
+	 *        TimeoutException and its statement is cancelled; 0 for none
+	 * @return the future of the call
+	 */
+	public <T> CompletableFuture<T> submit(final Task<T> task, final long timeoutMs) {
+		final Call<T> call = new Call<T>();
+		try{
+			this._pending.acquire();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			call.completeExceptionally(e);
+			return call;
+		}
+		try{
+			this._workers.execute(() -> {
+				try{
+					if(!call.isDone()) call.complete(task.run(call));
+				}catch(Throwable t){
+					call.completeExceptionally(t);
+				}finally{
+					this._pending.release();
+				}
+			});
+		}catch(RejectedExecutionException e){
+			this._pending.release();
+			call.completeExceptionally(e);
+			return call;
+		}
+		if(timeoutMs > 0){
+			final ScheduledFuture<?> timer = this._timer.schedule(() -> call.timeout(timeoutMs), timeoutMs, TimeUnit.MILLISECONDS);
+			call.whenComplete((r, e) -> timer.cancel(false));
+		}
+		return call;
+	}//end submit
+
+	/**
+	 * Method to stop accepting calls and wait briefly for running ones.
+	 */
+	public void close() {
+		this._workers.shutdown();
+		this._timer.shutdownNow();
+		try{
+			this._workers.awaitTermination(5, TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}//end close
+}
@@ -0,0 +1,245 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is an in-memory interval index of the appointments of every
+ * doctor on every day of a window of dates, answering availability and
+ * overlap questions such as "available slots of department X overlapping
+ * 9:00-11:00 on date Y" without a database round trip.
+ *
+ * The appointments of one doctor on one day are sorted by start minute
+ * together with the running maximum of their end minutes, so the slots
+ * overlapping a window are found by a binary search for the last slot
+ * starting before the window ends and a backward scan that stops as soon
+ * as no earlier slot can reach into the window.
+ *
+ * The index is a snapshot of db.availabilityIndex.days days (default 31),
+ * refreshed once it is older than db.availabilityIndex.maxAgeMs
+ * milliseconds (default 0, i.e. the index is not used).  Bookings made
+ * through BookingEngine update the status of indexed appointments in
+ * place; changes made by other clients show up at the next refresh.
+ */
+public class AvailabilityIndex{
+	static final String SELECT_SCHEDULE =
+		"SELECT H.doctor_id, Dr.did, A.appnt_ID, A.adate, A.time_slot, A.status\n" +
+		"FROM has_appointment H, Appointment A, Doctor Dr\n" +
+		"WHERE H.appt_id = A.appnt_ID AND H.doctor_id = Dr.doctor_ID AND A.adate BETWEEN ? AND ?;";
+
+	/**
+	 * One appointment of a doctor.  Only the status changes after loading.
+	 */
+	public static class Entry{
+		public final int apptId;
+		public final int doctorId;
+		public final LocalDate date;
+		public final TimeSlot slot;
+		volatile AppointmentStatus status;
+
+		Entry(int apptId, int doctorId, LocalDate date, TimeSlot slot, AppointmentStatus status){
+			this.apptId = apptId;
+			this.doctorId = doctorId;
+			this.date = date;
+			this.slot = slot;
+			this.status = status;
+		}
+
+		public AppointmentStatus getStatus() {
+			return this.status;
+		}
+	}//end Entry
+
+	/**
+	 * The appointments of one doctor on one day, sorted by start minute.
+	 */
+	static class DaySchedule{
+		final Entry[] entries;
+		//maxEnd[i] is the latest end minute among entries[0..i]
+		final int[] maxEnd;
+
+		DaySchedule(List<Entry> list){
+			this.entries = list.toArray(new Entry[0]);
+			Arrays.sort(this.entries, (a, b) -> a.slot.compareTo(b.slot));
+			this.maxEnd = new int[this.entries.length];
+			int max = 0;
+			for(int i = 0; i < this.entries.length; i++){
+				max = Math.max(max, this.entries[i].slot.getEndMinute());
+				this.maxEnd[i] = max;
+			}
+		}
+
+		/*
+		 * Adds to out the entries overlapping window, in start order.
+		 */
+		void overlapping(TimeSlot window, List<Entry> out) {
+			int lo = 0, hi = this.entries.length;
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if(this.entries[mid].slot.getStartMinute() < window.getEndMinute()) lo = mid + 1;
+				else hi = mid;
+			}
+			int first = lo;
+			while(first > 0 && this.maxEnd[first - 1] > window.getStartMinute()) first--;
+			for(int i = first; i < lo; i++){
+				if(this.entries[i].slot.overlaps(window)) out.add(this.entries[i]);
+			}
+		}
+	}//end DaySchedule
+
+	static final TimeSlot WHOLE_DAY = new TimeSlot(0, 24 * 60);
+
+	private final DBproject _esql;
+	private final long _maxAgeMs;
+	private final int _days;
+
+	//snapshot, replaced as a whole by refresh()
+	private volatile Map<Long, DaySchedule> _schedules = Collections.emptyMap();
+	private volatile Map<Integer, int[]> _doctorsOfDepartment = Collections.emptyMap();
+	private volatile Map<Integer, Entry> _byAppointment = Collections.emptyMap();
+	private volatile LocalDate _from = null;
+	private volatile LocalDate _to = null;
+	private volatile long _builtAt = 0;
+
+	public AvailabilityIndex(DBproject esql) {
+		this._esql = esql;
+		this._maxAgeMs = Long.getLong("db.availabilityIndex.maxAgeMs", 0L);
+		this._days = Math.max(1, Integer.getInteger("db.availabilityIndex.days", 31));
+	}
+
+	/**
+	 * @return true when the index is enabled and may be refreshed or used
+	 */
+	public boolean isEnabled() {
+		return this._maxAgeMs > 0;
+	}
+
+	/**
+	 * @return true when a recent enough snapshot includes the date
+	 */
+	public boolean covers(LocalDate date) {
+		return isEnabled() && this._from != null && System.currentTimeMillis() - this._builtAt < this._maxAgeMs
+			&& !date.isBefore(this._from) && !date.isAfter(this._to);
+	}
+
+	/**
+	 * Method to make sure the index covers a date, loading the window of
+	 * dates that starts there when it does not.
+	 *
+	 * @param date the date about to be queried
+	 * @return true when the index can answer for the date
+	 * @throws java.sql.SQLException when the appointments can not be read
+	 */
+	public boolean ensureCovers(LocalDate date) throws SQLException {
+		if(!isEnabled()) return false;
+		if(!covers(date)) refresh(date, date.plusDays(this._days - 1));
+		return true;
+	}
+
+	/**
+	 * Method to load the appointments of every doctor from one date to
+	 * another, inclusive, replacing the current snapshot.
+	 *
+	 * @throws java.sql.SQLException when the appointments can not be read
+	 */
+	public synchronized void refresh(LocalDate from, LocalDate to) throws SQLException {
+		long start = System.nanoTime();
+		final Map<Long, List<Entry>> days = new HashMap<Long, List<Entry>>();
+		final Map<Integer, List<Integer>> departments = new HashMap<Integer, List<Integer>>();
+		final Map<Integer, Entry> byAppointment = new HashMap<Integer, Entry>();
+		long rows = this._esql.executeQueryStreaming(SELECT_SCHEDULE, row -> {
+			TimeSlot slot = TimeSlot.parse(row.getString(5));
+			if(slot == null) return;
+			int doctor = row.getInt(1);
+			Entry e = new Entry(row.getInt(3), doctor, row.getDate(4), slot, row.getStatus(6));
+			days.computeIfAbsent(key(doctor, e.date), k -> new ArrayList<Entry>()).add(e);
+			List<Integer> doctors = departments.computeIfAbsent(row.getInt(2), k -> new ArrayList<Integer>());
+			if(!doctors.contains(doctor)) doctors.add(doctor);
+			byAppointment.put(e.apptId, e);
+		}, from, to);
+
+		Map<Long, DaySchedule> schedules = new HashMap<Long, DaySchedule>(days.size() * 2);
+		for(Map.Entry<Long, List<Entry>> d : days.entrySet()){
+			schedules.put(d.getKey(), new DaySchedule(d.getValue()));
+		}
+		Map<Integer, int[]> doctorsOfDepartment = new HashMap<Integer, int[]>();
+		for(Map.Entry<Integer, List<Integer>> d : departments.entrySet()){
+			int[] ids = new int[d.getValue().size()];
+			for(int i = 0; i < ids.length; i++) ids[i] = d.getValue().get(i);
+			Arrays.sort(ids);
+			doctorsOfDepartment.put(d.getKey(), ids);
+		}
+		this._schedules = schedules;
+		this._doctorsOfDepartment = doctorsOfDepartment;
+		this._byAppointment = byAppointment;
+		this._from = from;
+		this._to = to;
+		this._builtAt = System.currentTimeMillis();
+		System.err.printf("Availability index: %d appointments from %s to %s in %.2f s%n",
+			rows, from, to, (System.nanoTime() - start) / 1e9);
+	}//end refresh
+
+	/**
+	 * @return the appointments of a doctor on a day overlapping window, in
+	 *         start order; window null means the whole day
+	 */
+	public List<Entry> overlapping(int doctorId, LocalDate date, TimeSlot window) {
+		List<Entry> out = new ArrayList<Entry>();
+		DaySchedule day = this._schedules.get(key(doctorId, date));
+		if(day != null) day.overlapping(window == null ? WHOLE_DAY : window, out);
+		return out;
+	}
+
+	/**
+	 * @return true when the doctor has no active (AC) appointment on the
+	 *         day that overlaps slot
+	 */
+	public boolean isFree(int doctorId, LocalDate date, TimeSlot slot) {
+		for(Entry e : overlapping(doctorId, date, slot)){
+			if(e.status == AppointmentStatus.AC) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method to list the available (AV) appointments of the doctors of a
+	 * department on a day that overlap a window.
+	 *
+	 * @param departmentId the department
+	 * @param date the day
+	 * @param window the time window, or null for the whole day
+	 * @return the appointments ordered by start minute, then doctor
+	 */
+	public List<Entry> available(int departmentId, LocalDate date, TimeSlot window) {
+		List<Entry> out = new ArrayList<Entry>();
+		int[] doctors = this._doctorsOfDepartment.get(departmentId);
+		if(doctors == null) return out;
+		for(int doctor : doctors){
+			for(Entry e : overlapping(doctor, date, window)){
+				if(e.status == AppointmentStatus.AV) out.add(e);
+			}
+		}
+		out.sort((a, b) -> {
+			int c = a.slot.compareTo(b.slot);
+			return c != 0 ? c : Integer.compare(a.doctorId, b.doctorId);
+		});
+		return out;
+	}//end available
+
+	/**
+	 * Method to record the new status of an appointment that this process
+	 * changed.  Appointments outside the snapshot are ignored.
+	 */
+	public void update(int apptId, AppointmentStatus status) {
+		Entry e = this._byAppointment.get(apptId);
+		if(e != null) e.status = status;
+	}
+
+	private static long key(int doctorId, LocalDate date) {
+		return ((long) doctorId << 32) | (date.toEpochDay() & 0xffffffffL);
+	}
+}
@@ -0,0 +1,150 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class books an appointment of a doctor for a patient.
+ *
+ * A booking is a single transaction that
+ *   - claims the appointment: AV becomes AC, and an appointment that is
+ *     already AC (or WL) becomes WL, i.e. the patient is waitlisted,
+ *   - links the appointment to the doctor in has_appointment,
+ *   - records the patient in searches under the doctor's hospital, and
+ *   - increments Patient.number_of_appts.
+ *
+ * The doctor's hospital comes from the ReferenceCache, falling back to
+ * the database when the cache does not know the doctor.
+ *
+ * A waitlisted booking is also written to the waitlist table, and joins
+ * the queue of the WaitlistScheduler once committed, when that is enabled.
+ *
+ * Once committed, the booking is recorded in the EventLog: the new status,
+ * the doctor link when it was made, and the searches row.
+ *
+ * The claim is a conditional UPDATE ... RETURNING, so reading and changing
+ * the status is one atomic statement that also takes the row lock; two
+ * concurrent bookers of the same AV appointment can never both see AV.
+ * Rows are always locked in the same order (Appointment, then Patient) so
+ * bookings can not deadlock each other, and serialization failures are
+ * retried by DBproject.executeInTransaction.
+ */
+public class BookingEngine{
+	//doctor's hospital, through the department the doctor belongs to
+	static final String SELECT_DOCTOR_HOSPITAL =
+		"SELECT Dp.hid FROM Doctor D, Department Dp WHERE D.did = Dp.dept_ID AND D.doctor_ID = ?;";
+	static final String SELECT_APPOINTMENT_DOCTOR =
+		"SELECT doctor_id FROM has_appointment WHERE appt_id = ?;";
+	//claims the slot and locks the appointment row until commit
+	static final String CLAIM_APPOINTMENT =
+		"UPDATE Appointment SET status = CASE WHEN status = 'AV' THEN 'AC' ELSE 'WL' END\n" +
+		"WHERE appnt_ID = ? AND status IN ('AV', 'AC', 'WL') RETURNING status;";
+	static final String SELECT_APPOINTMENT_STATUS =
+		"SELECT status FROM Appointment WHERE appnt_ID = ?;";
+	static final String LINK_DOCTOR =
+		"INSERT INTO has_appointment (appt_id, doctor_id) VALUES (?, ?) ON CONFLICT DO NOTHING;";
+	static final String LINK_PATIENT =
+		"INSERT INTO searches (hid, pid, aid) VALUES (?, ?, ?) ON CONFLICT DO NOTHING;";
+	static final String COUNT_PATIENT_APPOINTMENT =
+		"UPDATE Patient SET number_of_appts = COALESCE(number_of_appts, 0) + 1 WHERE patient_ID = ?;";
+
+	private final DBproject _esql;
+
+	public BookingEngine(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to book an appointment of a doctor for a patient.
+	 *
+	 * @param patientId the patient making the booking
+	 * @param doctorId the doctor the appointment is with
+	 * @param apptId the appointment to book
+	 * @return AC when the patient got the appointment, WL when waitlisted
+	 * @throws java.sql.SQLException when the booking is refused or fails
+	 */
+	public AppointmentStatus book(final int patientId, final int doctorId, final int apptId) throws SQLException {
+		//hospital and whether has_appointment was written, for the event log
+		final int[] written = new int[2];
+		final WaitlistScheduler waitlist = this._esql.getWaitlistScheduler();
+		final WaitlistScheduler.Request[] request = new WaitlistScheduler.Request[1];
+		AppointmentStatus booked = this._esql.executeInTransaction(conn -> {
+			// look-ups that take no locks come first, to keep the hot row locked briefly
+			Integer hid = this._esql.getReferenceCache().hospitalOfDoctor(doctorId);
+			if(hid == null){
+				hid = selectInt(conn, SELECT_DOCTOR_HOSPITAL, doctorId);
+			}
+			if(hid == null){
+				throw new SQLException("Doctor " + doctorId + " does not exist");
+			}
+			Integer owner = selectInt(conn, SELECT_APPOINTMENT_DOCTOR, apptId);
+			if(owner != null && owner != doctorId){
+				throw new SQLException("Appointment " + apptId + " belongs to doctor " + owner);
+			}
+
+			AppointmentStatus status = claim(conn, apptId);
+
+			written[0] = hid;
+			written[1] = owner == null ? update(conn, LINK_DOCTOR, apptId, doctorId) : 0;
+			if(update(conn, LINK_PATIENT, hid, patientId, apptId) == 0){
+				throw new SQLException("Patient " + patientId + " already booked appointment " + apptId);
+			}
+			if(update(conn, COUNT_PATIENT_APPOINTMENT, patientId) == 0){
+				throw new SQLException("Patient " + patientId + " does not exist");
+			}
+			request[0] = status == AppointmentStatus.WL ? waitlist.insert(conn, patientId, doctorId, apptId) : null;
+			return status;
+		});
+		this._esql.getAvailabilityIndex().update(apptId, booked);
+		EventLog events = this._esql.getEventLog();
+		events.statusChanged(apptId, booked);
+		if(written[1] > 0) events.doctorLinked(apptId, doctorId);
+		events.patientLinked(written[0], patientId, apptId);
+		waitlist.enqueue(request[0]);
+		return booked;
+	}//end book
+
+	/*
+	 * Moves AV to AC, or AC/WL to WL, and reports the new status.  When no
+	 * row was updated the appointment is either missing or in the past.
+	 */
+	private AppointmentStatus claim(Connection conn, int apptId) throws SQLException {
+		PreparedStatement stmt = this._esql.prepareStatement(conn, CLAIM_APPOINTMENT);
+		stmt.setInt(1, apptId);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			if(rs.next()){
+				return AppointmentStatus.fromCode(rs.getString(1));
+			}
+		}finally{
+			rs.close();
+		}
+		String current = selectString(conn, SELECT_APPOINTMENT_STATUS, apptId);
+		if(current == null){
+			throw new SQLException("Appointment " + apptId + " does not exist");
+		}
+		throw new SQLException("Appointment " + apptId + " can not be booked, its status is " + current);
+	}//end claim
+
+	private int update(Connection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._esql.prepareStatement(conn, sql);
+		DBproject.bindParameters(stmt, params);
+		return stmt.executeUpdate();
+	}
+
+	private Integer selectInt(Connection conn, String sql, Object... params) throws SQLException {
+		String value = selectString(conn, sql, params);
+		return value == null ? null : Integer.valueOf(value);
+	}
+
+	private String selectString(Connection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._esql.prepareStatement(conn, sql);
+		DBproject.bindParameters(stmt, params);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			return rs.next() ? rs.getString(1) : null;
+		}finally{
+			rs.close();
+		}
+	}
+}
@@ -0,0 +1,301 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class imports doctors, patients or appointments from a file of
+ * comma separated records, in the same column order as the matching
+ * data/*.csv seed file:
+ *
+ *   doctor       doctor_ID,name,specialty,did
+ *   patient      patient_ID,name,gender,age,address,number_of_appts
+ *   appointment  appnt_ID,date,time_slot,status
+ *
+ * A blank ID is generated from a block of IDs (see IdAllocator).
+ * Every record is checked with the same rules the interactive prompts use
+ * and inserted through JDBC batches, committing every commitSize rows.
+ * Records that fail validation or are refused by the database are written
+ * to a reject file, prefixed with a comment line giving the reason, so the
+ * file can be corrected and imported again.  Blank lines and lines starting
+ * with # are skipped.
+ */
+public class BulkImporter{
+	/**
+	 * A record type the importer understands.
+	 */
+	enum RecordType{
+		DOCTOR(DBproject.INSERT_DOCTOR, 4),
+		PATIENT(DBproject.INSERT_PATIENT, 6),
+		APPOINTMENT(DBproject.INSERT_APPOINTMENT, 4);
+
+		final String sql;
+		final int fields;
+
+		RecordType(String sql, int fields){
+			this.sql = sql;
+			this.fields = fields;
+		}
+	}//end RecordType
+
+	/**
+	 * A record that passed validation but is not committed yet.
+	 */
+	static class PendingRecord{
+		final long lineNumber;
+		final String line;
+		final Object[] params;
+
+		PendingRecord(long lineNumber, String line, Object[] params){
+			this.lineNumber = lineNumber;
+			this.line = line;
+			this.params = params;
+		}
+	}//end PendingRecord
+
+	static final int DEFAULT_COMMIT_SIZE = 1000;
+
+	private final DBproject _esql;
+	private final RecordType _type;
+	private final int _commitSize;
+	private long _inserted = 0;
+	private long _rejected = 0;
+
+	public BulkImporter(DBproject esql, RecordType type, int commitSize) {
+		this._esql = esql;
+		this._type = type;
+		this._commitSize = Math.max(1, commitSize);
+	}
+
+	public long getInserted() {
+		return this._inserted;
+	}
+
+	public long getRejected() {
+		return this._rejected;
+	}
+
+	/**
+	 * Method to import every record of a file.
+	 *
+	 * @param input the file of records
+	 * @param rejects the file receiving rejected records
+	 * @throws IOException when a file can not be read or written
+	 * @throws SQLException when the database connection fails
+	 */
+	public void importFile(File input, File rejects) throws IOException, SQLException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8));
+		Writer rejectOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejects), StandardCharsets.UTF_8));
+		Connection conn = this._esql.getConnection();
+		try{
+			conn.setAutoCommit(false);
+			PreparedStatement stmt = this._esql.prepareStatement(conn, this._type.sql);
+			List<PendingRecord> batch = new ArrayList<PendingRecord>(this._commitSize);
+
+			String line;
+			long lineNumber = 0;
+			while((line = reader.readLine()) != null){
+				lineNumber++;
+				if(line.trim().isEmpty() || line.startsWith("#")) continue;
+
+				Object[] params;
+				try{
+					params = parse(line);
+				}catch(IllegalArgumentException e){
+					reject(rejectOut, lineNumber, line, e.getMessage());
+					continue;
+				}
+				DBproject.bindParameters(stmt, params);
+				stmt.addBatch();
+				batch.add(new PendingRecord(lineNumber, line, params));
+				if(batch.size() >= this._commitSize){
+					flush(conn, stmt, batch, rejectOut);
+				}
+			}//end while
+			flush(conn, stmt, batch, rejectOut);
+			conn.setAutoCommit(true);
+		}finally{
+			this._esql.releaseConnection(conn);
+			reader.close();
+			rejectOut.close();
+		}
+	}//end importFile
+
+	/*
+	 * Sends the pending batch and commits it.  If the database refuses any
+	 * row the whole batch is rolled back and replayed one row at a time
+	 * behind savepoints, so only the offending rows are rejected.
+	 */
+	private void flush(Connection conn, PreparedStatement stmt, List<PendingRecord> batch, Writer rejectOut) throws IOException, SQLException {
+		if(batch.isEmpty()) return;
+		try{
+			stmt.executeBatch();
+			conn.commit();
+			this._inserted += batch.size();
+			committed(batch);
+		}catch(SQLException e){
+			conn.rollback();
+			stmt.clearBatch();
+			List<PendingRecord> inserted = new ArrayList<PendingRecord>(batch.size());
+			for(PendingRecord r : batch){
+				Savepoint sp = conn.setSavepoint();
+				try{
+					stmt.clearParameters();
+					DBproject.bindParameters(stmt, r.params);
+					stmt.executeUpdate();
+					conn.releaseSavepoint(sp);
+					this._inserted++;
+					inserted.add(r);
+				}catch(SQLException rowError){
+					conn.rollback(sp);
+					reject(rejectOut, r.lineNumber, r.line, rowError.getMessage());
+				}
+			}
+			conn.commit();
+			committed(inserted);
+		}
+		batch.clear();
+	}//end flush
+
+	/*
+	 * Records the status of committed appointments in the event log.
+	 */
+	private void committed(List<PendingRecord> records) {
+		if(this._type != RecordType.APPOINTMENT) return;
+		EventLog events = this._esql.getEventLog();
+		for(PendingRecord r : records){
+			events.statusChanged((Integer) r.params[0], AppointmentStatus.fromCode((String) r.params[3]));
+		}
+	}
+
+	private void reject(Writer out, long lineNumber, String line, String reason) throws IOException {
+		this._rejected++;
+		out.write("# line " + lineNumber + ": " + reason.replace('\n', ' ') + "\n");
+		out.write(line + "\n");
+	}
+
+	/**
+	 * Method to split and validate one record.
+	 *
+	 * @param line the raw record
+	 * @return the insert parameters in column order
+	 * @throws IllegalArgumentException describing the first rule violated
+	 */
+	Object[] parse(String line) {
+		String[] f = line.split(",", -1);
+		if(f.length != this._type.fields){
+			throw new IllegalArgumentException("expected " + this._type.fields + " fields but found " + f.length);
+		}
+		for(int i = 0; i < f.length; i++) f[i] = f[i].trim();
+
+		switch(this._type){
+			case DOCTOR:
+				return new Object[]{ id(f[0], "Doctor ID", this._esql.getDoctorIds()), f[1], f[2], integer(f[3], "Department ID") };
+			case PATIENT:
+				if(!RecordValidator.isValidGender(f[2])){
+					throw new IllegalArgumentException("Gender must be M(Male) or F(Female)");
+				}
+				return new Object[]{ id(f[0], "Patient ID", this._esql.getPatientIds()), f[1], f[2], integer(f[3], "Age"), f[4], integer(f[5], "Number of Appointments") };
+			case APPOINTMENT:
+				LocalDate adate = RecordValidator.parseDate(f[1]);
+				if(adate == null){
+					throw new IllegalArgumentException("Invalid date! Try the format(mm/dd/yyyy)");
+				}
+				if(!RecordValidator.isValidTimeSlot(f[2])){
+					throw new IllegalArgumentException("Invalid time slot! Try the format(H:m-H:m)");
+				}
+				if(!RecordValidator.isValidStatus(f[3])){
+					throw new IllegalArgumentException("Appointment Status must be : PA(Past), AC(Active), AV(Available) and WL(Waitlisted).");
+				}
+				return new Object[]{ id(f[0], "Appointment ID", this._esql.getAppointmentIds()), adate, f[2], f[3] };
+			default:
+				throw new IllegalStateException(this._type.name());
+		}
+	}//end parse
+
+	/*
+	 * A blank ID is taken from the allocator's block, which makes a round
+	 * trip only once per block.
+	 */
+	private static Integer id(String text, String field, IdAllocator ids) {
+		if(!text.isEmpty()) return integer(text, field);
+		try{
+			return ids.next();
+		}catch(SQLException e){
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}
+
+	private static Integer integer(String text, String field) {
+		Integer value = RecordValidator.parseInteger(text);
+		if(value == null){
+			throw new IllegalArgumentException(field + " must be an integer!");
+		}
+		return value;
+	}
+
+	/**
+	 * The import entry point
+	 *
+	 * @param args <dbname> <port> <user> <doctor|patient|appointment> <file>
+	 *             [--commit-size N] [--rejects file]
+	 */
+	public static void main(String[] args) {
+		RecordType type = null;
+		int commitSize = DEFAULT_COMMIT_SIZE;
+		File rejects = null;
+		boolean usage = args.length < 5;
+		if(!usage){
+			try{
+				type = RecordType.valueOf(args[3].toUpperCase());
+				for(int i = 5; i < args.length; i += 2){
+					if(i + 1 >= args.length) { usage = true; break; }
+					if(args[i].equals("--commit-size")) commitSize = Integer.parseInt(args[i + 1]);
+					else if(args[i].equals("--rejects")) rejects = new File(args[i + 1]);
+					else usage = true;
+				}
+			}catch(IllegalArgumentException e){
+				usage = true;
+			}
+		}
+		if (usage) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BulkImporter.class.getName () +
+		            " <dbname> <port> <user> <doctor|patient|appointment> <file> [--commit-size N] [--rejects file]");
+			return;
+		}//end if
+
+		File input = new File(args[4]);
+		if(rejects == null) rejects = new File(args[4] + ".rejects");
+
+		DBproject esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			BulkImporter importer = new BulkImporter(esql, type, commitSize);
+			long start = System.nanoTime();
+			importer.importFile(input, rejects);
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Inserted %d %s records in %.2f s (%.0f rows/s), rejected %d (see %s)%n",
+				importer.getInserted(), args[3], secs, importer.getInserted() / Math.max(secs, 1e-9),
+				importer.getRejected(), rejects.getPath());
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}
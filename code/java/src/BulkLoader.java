@@ -0,0 +1,396 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the data/*.csv seed files from the client through the
+ * PostgreSQL COPY protocol, as an alternative to the server-side COPY
+ * statements in sql/load.sql.  The files never have to be copied into the
+ * server's data directory, so it works against remote servers as well.
+ *
+ * Tables are loaded in foreign key order, one phase at a time, with the
+ * tables of a phase loaded in parallel on separate pooled connections.
+ * Foreign keys and secondary indexes are dropped for the duration of the
+ * load and recreated once every table is in.  The row triggers that keep
+ * the counters of sql/counters.sql are disabled as well, and the counters
+ * are recomputed in one pass after the load.  So are the triggers of
+ * sql/partition.sql that replace the foreign keys to Appointment and fill
+ * appointment_ids: the side table is rebuilt with one INSERT ... SELECT
+ * and the references are checked with one anti-join, which fails the load
+ * when a loaded row points at a missing appointment.
+ */
+public class BulkLoader{
+	/**
+	 * A table loaded from one CSV file.
+	 */
+	static class TableSpec{
+		final String table;
+		final String file;
+		final String columns;
+
+		TableSpec(String table, String file, String columns){
+			this.table = table;
+			this.file = file;
+			this.columns = columns;
+		}
+	}//end TableSpec
+
+	/*
+	 * Load phases in foreign key order.  Tables inside a phase do not
+	 * reference each other and are loaded concurrently.
+	 */
+	static final TableSpec[][] PHASES = {
+		{
+			new TableSpec("Hospital", "hospital.csv", "hospital_ID, name"),
+			new TableSpec("Patient", "patient.csv", "patient_ID, name, gtype, age, address, number_of_appts"),
+			new TableSpec("Appointment", "appointment.csv", "appnt_ID, adate, time_slot, status")
+		},
+		{
+			new TableSpec("Department", "department.csv", "dept_ID, name, hid"),
+			new TableSpec("Staff", "staff.csv", "staff_ID, name, hid")
+		},
+		{
+			new TableSpec("Doctor", "doctor.csv", "doctor_ID, name, specialty, did")
+		},
+		{
+			new TableSpec("request_maintenance", "request_maintenance.csv", "patient_per_hour, dept_name, time_slot, did, sid"),
+			new TableSpec("searches", "searches.csv", "hid, pid, aid"),
+			new TableSpec("schedules", "schedules.csv", "appt_id, staff_id"),
+			new TableSpec("has_appointment", "has_appointment.csv", "appt_id, doctor_id")
+		}
+	};
+
+	//appointment_ids of sql/partition.sql after a load with its trigger disabled;
+	//IDs of archived months are already in it
+	static final String REBUILD_APPOINTMENT_IDS =
+		"DO $$\n" +
+		"DECLARE dup INTEGER;\n" +
+		"BEGIN\n" +
+		"\tSELECT appnt_ID INTO dup FROM Appointment GROUP BY appnt_ID HAVING count(*) > 1 LIMIT 1;\n" +
+		"\tIF dup IS NOT NULL THEN\n" +
+		"\t\tRAISE EXCEPTION 'appointment % was loaded more than once', dup USING ERRCODE = 'unique_violation';\n" +
+		"\tEND IF;\n" +
+		"\tINSERT INTO appointment_ids (appnt_ID) SELECT appnt_ID FROM Appointment ON CONFLICT DO NOTHING;\n" +
+		"END $$;";
+	//the foreign keys to Appointment that sql/partition.sql replaced by triggers,
+	//checked for every row at once
+	static final String CHECK_APPOINTMENT_REFERENCES =
+		"DO $$\n" +
+		"DECLARE orphan TEXT;\n" +
+		"BEGIN\n" +
+		"\tSELECT R.tbl || ' ' || R.appt_id INTO orphan FROM (\n" +
+		"\t\tSELECT 'searches' AS tbl, aid AS appt_id FROM searches\n" +
+		"\t\tUNION ALL SELECT 'schedules', appt_id FROM schedules\n" +
+		"\t\tUNION ALL SELECT 'has_appointment', appt_id FROM has_appointment) R\n" +
+		"\tWHERE NOT EXISTS (SELECT 1 FROM appointment_ids I WHERE I.appnt_ID = R.appt_id) LIMIT 1;\n" +
+		"\tIF orphan IS NOT NULL THEN\n" +
+		"\t\tRAISE EXCEPTION 'loaded rows reference appointments that do not exist, e.g. %', orphan\n" +
+		"\t\t\tUSING ERRCODE = 'foreign_key_violation';\n" +
+		"\tEND IF;\n" +
+		"END $$;";
+
+	//size of the read buffer used for every CSV file
+	static final int BUFFER_SIZE = 1 << 16;
+
+	private final DBproject _esql;
+	private final File _dataDir;
+
+	public BulkLoader(DBproject esql, File dataDir) {
+		this._esql = esql;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * Method to load every table.  Foreign keys and secondary indexes are
+	 * restored even if a table fails to load; a restore step that fails
+	 * does not stop the others, and its error is added to the load error
+	 * as a suppressed exception rather than hiding it.
+	 *
+	 * @param truncate empty the tables before loading
+	 * @throws Exception when a table could not be loaded
+	 */
+	public void load(boolean truncate) throws Exception {
+		List<String> restore = new ArrayList<String>();
+		long start = System.nanoTime();
+		long total = 0;
+		Connection conn = this._esql.getConnection();
+		try{
+			Statement stmt = conn.createStatement();
+			if(truncate){
+				stmt.executeUpdate("TRUNCATE " + tableList() + waitlistTables(stmt) + " CASCADE;");
+			}
+			restore.addAll(deferConstraints(conn, stmt));
+			stmt.close();
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+
+		int width = 0;
+		for(TableSpec[] phase : PHASES) width = Math.max(width, phase.length);
+		ExecutorService pool = Executors.newFixedThreadPool(width);
+		Exception failure = null;
+		try{
+			for(TableSpec[] phase : PHASES){
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for(final TableSpec spec : phase){
+					loads.add(pool.submit(() -> loadTable(spec)));
+				}
+				for(Future<Long> f : loads){
+					try{
+						total += f.get();
+					}catch(ExecutionException e){
+						Throwable cause = e.getCause();
+						throw cause instanceof Exception ? (Exception) cause : e;
+					}
+				}
+			}
+		}catch(Exception e){
+			failure = e;
+		}finally{
+			pool.shutdownNow();
+		}
+		SQLException restoreFailure = restoreConstraints(restore);
+		if(failure != null){
+			if(restoreFailure != null) failure.addSuppressed(restoreFailure);
+			throw failure;
+		}
+		if(restoreFailure != null) throw restoreFailure;
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Loaded %d rows in %.2f s (%.0f rows/s)%n", total, secs, total / Math.max(secs, 1e-9));
+	}//end load
+
+	/**
+	 * Method to stream one CSV file into its table over a pooled connection.
+	 *
+	 * @param spec the table to load
+	 * @return the number of rows copied
+	 * @throws Exception when the file can not be read or copied
+	 */
+	long loadTable(TableSpec spec) throws Exception {
+		File csv = new File(this._dataDir, spec.file);
+		String sql = "COPY " + spec.table + " (" + spec.columns + ") FROM STDIN WITH DELIMITER ','";
+		long start = System.nanoTime();
+		long rows;
+		Connection conn = this._esql.getConnection();
+		try{
+			CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+			BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8), BUFFER_SIZE);
+			try{
+				rows = copy.copyIn(sql, reader, BUFFER_SIZE);
+			}finally{
+				reader.close();
+			}
+		}catch(SQLException e){
+			throw new SQLException(spec.table + ": " + e.getMessage(), e.getSQLState(), e);
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-20s %10d rows %8.2f s %12.0f rows/s%n", spec.table, rows, secs, rows / Math.max(secs, 1e-9));
+		return rows;
+	}//end loadTable
+
+	/*
+	 * Drops the foreign keys and secondary indexes of the loaded tables,
+	 * disables their counter triggers and returns the statements that undo
+	 * this, indexes first so that the foreign key validation can use them.
+	 * The drops run in one transaction, so when one fails nothing is
+	 * dropped and nothing needs restoring.
+	 */
+	private List<String> deferConstraints(Connection conn, Statement stmt) throws SQLException {
+		List<String> drop = new ArrayList<String>();
+		List<String> indexes = new ArrayList<String>();
+		List<String> foreignKeys = new ArrayList<String>();
+		String names = tableNameList();
+
+		ResultSet rs = stmt.executeQuery(
+			"SELECT conrelid::regclass::text, conname, pg_get_constraintdef(oid) FROM pg_constraint " +
+			"WHERE contype = 'f' AND conrelid::regclass::text IN (" + names + ");");
+		while(rs.next()){
+			drop.add("ALTER TABLE " + rs.getString(1) + " DROP CONSTRAINT " + rs.getString(2) + ";");
+			foreignKeys.add("ALTER TABLE " + rs.getString(1) + " ADD CONSTRAINT " + rs.getString(2) + " " + rs.getString(3) + ";");
+		}
+		rs.close();
+
+		rs = stmt.executeQuery(
+			"SELECT indexname, indexdef FROM pg_indexes " +
+			"WHERE schemaname = current_schema() AND tablename IN (" + names + ") " +
+			"AND indexname NOT IN (SELECT conname FROM pg_constraint WHERE contype IN ('p', 'u', 'x'));");
+		while(rs.next()){
+			drop.add("DROP INDEX " + rs.getString(1) + ";");
+			indexes.add(rs.getString(2) + ";");
+		}
+		rs.close();
+
+		//triggers maintaining derived tables are named *_counts (sql/counters.sql)
+		//or *_schedule (sql/timeslots.sql); each derived table is rebuilt once at the end.
+		//The row triggers of sql/partition.sql standing in for the foreign keys to
+		//Appointment (*_appointment_ref) and filling appointment_ids are checked and
+		//rebuilt once at the end as well
+		List<String> triggers = new ArrayList<String>();
+		boolean counts = false, schedule = false, references = false;
+		rs = stmt.executeQuery(
+			"SELECT tgrelid::regclass::text, tgname FROM pg_trigger " +
+			"WHERE NOT tgisinternal AND (tgname LIKE '%\\_counts' OR tgname LIKE '%\\_schedule' " +
+			"OR tgname LIKE '%\\_appointment\\_ref' OR tgname = 'appointment_ids_track') " +
+			"AND tgrelid::regclass::text IN (" + names + ");");
+		while(rs.next()){
+			String name = rs.getString(2);
+			drop.add("ALTER TABLE " + rs.getString(1) + " DISABLE TRIGGER " + name + ";");
+			triggers.add("ALTER TABLE " + rs.getString(1) + " ENABLE TRIGGER " + name + ";");
+			if(name.endsWith("_counts")) counts = true;
+			else if(name.endsWith("_schedule")) schedule = true;
+			else references = true;
+		}
+		rs.close();
+		if(references){
+			//before the triggers are enabled again, so nothing is added twice
+			triggers.add(0, REBUILD_APPOINTMENT_IDS);
+			triggers.add(1, CHECK_APPOINTMENT_REFERENCES);
+		}
+		if(counts){
+			triggers.add("SELECT refresh_doctor_status_counts();");
+		}
+		if(schedule){
+			triggers.add("SELECT refresh_doctor_schedule();");
+		}
+		//the loaded IDs may be past the ID sequences of sql/sequences.sql
+		rs = stmt.executeQuery("SELECT 1 FROM pg_proc WHERE proname = 'sync_id_sequences';");
+		if(rs.next()){
+			triggers.add("SELECT sync_id_sequences();");
+		}
+		rs.close();
+
+		conn.setAutoCommit(false);
+		try{
+			for(String sql : drop){
+				stmt.execute(sql);
+			}
+			conn.commit();
+		}catch(SQLException e){
+			conn.rollback();
+			throw e;
+		}finally{
+			conn.setAutoCommit(true);
+		}
+		List<String> restore = new ArrayList<String>(indexes);
+		restore.addAll(foreignKeys);
+		restore.addAll(triggers);
+		return restore;
+	}//end deferConstraints
+
+	/*
+	 * Runs every restore statement on its own, so one failure does not
+	 * leave the rest undone.  Returns null when all succeeded, otherwise
+	 * an exception with the error of each failed statement suppressed.
+	 */
+	private SQLException restoreConstraints(List<String> restore) {
+		if(restore.isEmpty()) return null;
+		long start = System.nanoTime();
+		SQLException errors = null;
+		int failed = 0;
+		Connection conn = null;
+		try{
+			conn = this._esql.getConnection();
+			Statement stmt = conn.createStatement();
+			try{
+				for(String sql : restore){
+					try{
+						stmt.execute(sql);
+					}catch(SQLException e){
+						failed++;
+						if(errors == null) errors = new SQLException("Could not restore every index, constraint and trigger");
+						errors.addSuppressed(new SQLException(sql + " " + e.getMessage(), e.getSQLState(), e));
+						System.err.println("Restore failed: " + sql + " " + e.getMessage());
+					}
+				}
+			}finally{
+				stmt.close();
+			}
+		}catch(SQLException e){
+			return e;
+		}finally{
+			if(conn != null) this._esql.releaseConnection(conn);
+		}
+		System.out.printf("Restored %d of %d indexes, constraints and triggers in %.2f s%n", restore.size() - failed, restore.size(), (System.nanoTime() - start) / 1e9);
+		return errors;
+	}//end restoreConstraints
+
+	private static String tableList() {
+		StringBuilder sb = new StringBuilder();
+		for(TableSpec[] phase : PHASES){
+			for(TableSpec spec : phase){
+				if(sb.length() > 0) sb.append(", ");
+				sb.append(spec.table);
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * The tables of sql/waitlist.sql, when installed, as more entries of
+	 * the truncate list: their rows name appointments of the old data.
+	 */
+	private static String waitlistTables(Statement stmt) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		ResultSet rs = stmt.executeQuery(
+			"SELECT T FROM unnest(ARRAY['waitlist', 'waitlist_failed']) T WHERE to_regclass(T) IS NOT NULL;");
+		while(rs.next()){
+			sb.append(", ").append(rs.getString(1));
+		}
+		rs.close();
+		return sb.toString();
+	}
+
+	private static String tableNameList() {
+		StringBuilder sb = new StringBuilder();
+		for(TableSpec[] phase : PHASES){
+			for(TableSpec spec : phase){
+				if(sb.length() > 0) sb.append(", ");
+				sb.append('\'').append(spec.table.toLowerCase()).append('\'');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The loader entry point
+	 *
+	 * @param args <dbname> <port> <user> <data dir> [--truncate]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 4 || args.length > 5 || (args.length == 5 && !args[4].equals("--truncate"))) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BulkLoader.class.getName () +
+		            " <dbname> <port> <user> <data dir> [--truncate]");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			new BulkLoader(esql, new File(args[3])).load(args.length == 5);
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,363 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class compares the booked load of staff members with the capacity
+ * requested for them in request_maintenance, per department, staff member
+ * and time slot, over a range of dates.
+ *
+ * A request_maintenance row asks for patient_per_hour patients an hour of
+ * a doctor's appointments with a staff member during a time slot, i.e. a
+ * capacity of patient_per_hour times the length of the slot each day.  The
+ * load of the slot on a day is the number of booked (PA, AC or WL)
+ * appointments of that doctor, scheduled with that staff member in
+ * schedules, whose time slot overlaps it.  Requests of several doctors
+ * with the same staff member and slot add up.  A slot is
+ *   - UNDERSTAFFED when its load exceeded its capacity on some day,
+ *   - OVERSTAFFED when its mean utilization, over the days its department
+ *     had bookings, is below db.capacity.underRatio, and
+ *   - OK otherwise.
+ *
+ * The requests are read first and grouped by hospital and department (the
+ * department of the doctor).  The analysis then runs on a ForkJoinPool:
+ * each hospital is a task that streams the load of its own departments on
+ * a connection of its own, and forks one task per department, which sorts
+ * the (slot, day) pairs of its load and counts them in a single pass.
+ *
+ *   db.capacity.parallelism  worker threads (default the number of processors)
+ *   db.capacity.underRatio   utilization below which a slot is overstaffed (default 0.5)
+ */
+public class CapacityAnalyzer{
+	//the requests with the department and hospital of their doctor
+	static final String SELECT_REQUESTS =
+		"SELECT Dp.hid, Dp.dept_ID, Dp.name, R.did, R.sid, S.name, R.time_slot, R.patient_per_hour\n" +
+		"FROM request_maintenance R, Doctor D, Department Dp, Staff S\n" +
+		"WHERE R.did = D.doctor_ID AND D.did = Dp.dept_ID AND R.sid = S.staff_ID;";
+	//booked appointments of a hospital with a doctor and staff member that have a request
+	static final String SELECT_LOAD =
+		"SELECT D.did, H.doctor_id, Sc.staff_id, A.adate, A.time_slot\n" +
+		"FROM Appointment A, has_appointment H, schedules Sc, Doctor D, Department Dp, request_maintenance R\n" +
+		"WHERE A.appnt_ID = H.appt_id AND A.appnt_ID = Sc.appt_id AND H.doctor_id = D.doctor_ID AND D.did = Dp.dept_ID\n" +
+		"AND R.did = H.doctor_id AND R.sid = Sc.staff_id\n" +
+		"AND Dp.hid = ? AND A.adate BETWEEN ? AND ? AND A.status IN ('PA', 'AC', 'WL');";
+
+	static final String[] COLUMNS = { "hospital_id", "dept_id", "department", "staff_id", "staff", "time_slot",
+		"capacity", "days", "booked", "peak", "utilization", "staffing" };
+	static final boolean[] NUMERIC = { true, true, false, true, false, false, true, true, true, true, true, false };
+
+	/**
+	 * How well the capacity of a slot matches its load.
+	 */
+	public enum Staffing{ UNDERSTAFFED, OVERSTAFFED, OK }
+
+	/**
+	 * The requested capacity and the booked load of one staff member's time
+	 * slot in a department.
+	 */
+	public static class Slot{
+		public final int hospitalId;
+		public final int deptId;
+		public final String department;
+		public final int staffId;
+		public final String staff;
+		public final TimeSlot slot;
+		//patients a day
+		double capacity = 0;
+		//days the department had bookings
+		int days = 0;
+		long booked = 0;
+		int peak = 0;
+		//days the load exceeded the capacity
+		int overDays = 0;
+
+		Slot(int hospitalId, int deptId, String department, int staffId, String staff, TimeSlot slot){
+			this.hospitalId = hospitalId;
+			this.deptId = deptId;
+			this.department = department;
+			this.staffId = staffId;
+			this.staff = staff;
+			this.slot = slot;
+		}
+
+		public double getCapacity() {
+			return this.capacity;
+		}
+
+		public int getDays() {
+			return this.days;
+		}
+
+		public long getBooked() {
+			return this.booked;
+		}
+
+		public int getPeak() {
+			return this.peak;
+		}
+
+		/**
+		 * @return the booked load as a fraction of the capacity over the days
+		 */
+		public double getUtilization() {
+			double offered = this.capacity * this.days;
+			return offered > 0 ? this.booked / offered : 0;
+		}
+
+		public Staffing getStaffing(double underRatio) {
+			if(this.overDays > 0) return Staffing.UNDERSTAFFED;
+			if(getUtilization() < underRatio) return Staffing.OVERSTAFFED;
+			return Staffing.OK;
+		}
+	}//end Slot
+
+	/*
+	 * The slot a doctor and staff member's load counts towards.
+	 */
+	static class Request{
+		final int slot;
+		final TimeSlot window;
+
+		Request(int slot, TimeSlot window){
+			this.slot = slot;
+			this.window = window;
+		}
+	}//end Request
+
+	/*
+	 * One partition: the slots and requests of a department, and the load
+	 * streamed for it as (slot << 32 | epoch day) pairs.
+	 */
+	static class Department extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		final int hospitalId;
+		final int deptId;
+		final String name;
+		final List<Slot> slots = new ArrayList<Slot>();
+		final Map<Long, Integer> slotOf = new HashMap<Long, Integer>();
+		final Map<Long, Request> requests = new HashMap<Long, Request>();
+		long[] load = new long[64];
+		int size = 0;
+
+		Department(int hospitalId, int deptId, String name){
+			this.hospitalId = hospitalId;
+			this.deptId = deptId;
+			this.name = name;
+		}
+
+		void request(int doctorId, int staffId, String staff, TimeSlot window, int patientsPerHour) {
+			long key = (long) staffId << 32 | window.getStartMinute() << 16 | window.getEndMinute();
+			Integer slot = this.slotOf.get(key);
+			if(slot == null){
+				slot = this.slots.size();
+				this.slots.add(new Slot(this.hospitalId, this.deptId, this.name, staffId, staff, window));
+				this.slotOf.put(key, slot);
+			}
+			this.slots.get(slot).capacity += patientsPerHour * window.getLengthMinutes() / 60.0;
+			this.requests.put((long) doctorId << 32 | staffId, new Request(slot, window));
+		}
+
+		void load(int doctorId, int staffId, LocalDate date, TimeSlot slot) {
+			Request r = this.requests.get((long) doctorId << 32 | staffId);
+			if(r == null || slot == null || !slot.overlaps(r.window)) return;
+			if(this.size == this.load.length) this.load = Arrays.copyOf(this.load, this.size * 2);
+			this.load[this.size++] = (long) r.slot << 32 | (date.toEpochDay() & 0xffffffffL);
+		}
+
+		@Override
+		protected void compute() {
+			long[] pairs = this.load;
+			int n = this.size;
+			Arrays.sort(pairs, 0, n);
+			int[] dayOf = new int[n];
+			for(int i = 0; i < n; i++) dayOf[i] = (int) pairs[i];
+			Arrays.sort(dayOf);
+			int days = 0;
+			for(int i = 0; i < n; i++){
+				if(i == 0 || dayOf[i] != dayOf[i - 1]) days++;
+			}
+			for(Slot s : this.slots) s.days = days;
+			// every run of equal pairs is the load of one slot on one day
+			for(int i = 0; i < n; ){
+				int j = i;
+				while(j < n && pairs[j] == pairs[i]) j++;
+				Slot s = this.slots.get((int) (pairs[i] >>> 32));
+				int count = j - i;
+				s.booked += count;
+				s.peak = Math.max(s.peak, count);
+				if(count > s.capacity) s.overDays++;
+				i = j;
+			}
+			this.load = null;
+		}//end compute
+	}//end Department
+
+	/*
+	 * Streams the load of a hospital into its departments and analyzes
+	 * them in parallel.
+	 */
+	class Hospital extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		final int hospitalId;
+		final Map<Integer, Department> departments;
+		final LocalDate from;
+		final LocalDate to;
+
+		Hospital(int hospitalId, Map<Integer, Department> departments, LocalDate from, LocalDate to){
+			this.hospitalId = hospitalId;
+			this.departments = departments;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			// a handful of distinct slot texts, each parsed once
+			final Map<String, TimeSlot> parsed = new HashMap<String, TimeSlot>();
+			try{
+				_esql.executeQueryStreaming(SELECT_LOAD, row -> {
+					Department d = this.departments.get(row.getInt(1));
+					String text = row.getString(5);
+					if(d == null || text == null) return;
+					TimeSlot slot = parsed.get(text);
+					if(slot == null && !parsed.containsKey(text)){
+						slot = TimeSlot.parse(text);
+						parsed.put(text, slot);
+					}
+					d.load(row.getInt(2), row.getInt(3), row.getDate(4), slot);
+				}, this.hospitalId, this.from, this.to);
+			}catch(SQLException e){
+				throw new RuntimeException(e);
+			}
+			invokeAll(this.departments.values());
+		}
+	}//end Hospital
+
+	private final DBproject _esql;
+	private final int _parallelism;
+	private final double _underRatio;
+
+	public CapacityAnalyzer(DBproject esql) {
+		this._esql = esql;
+		this._parallelism = Math.max(1, Integer.getInteger("db.capacity.parallelism", Runtime.getRuntime().availableProcessors()));
+		this._underRatio = Double.parseDouble(System.getProperty("db.capacity.underRatio", "0.5"));
+	}
+
+	/**
+	 * Method to compute the capacity and load of every requested slot.
+	 *
+	 * @param from first day of the range
+	 * @param to last day of the range, inclusive
+	 * @return the slots ordered by hospital, department, staff member and slot
+	 * @throws java.sql.SQLException when the requests or the load can not be read
+	 */
+	public List<Slot> analyze(final LocalDate from, final LocalDate to) throws SQLException {
+		final Map<Integer, Map<Integer, Department>> hospitals = new TreeMap<Integer, Map<Integer, Department>>();
+		this._esql.executeQueryStreaming(SELECT_REQUESTS, row -> {
+			TimeSlot window = TimeSlot.parse(row.getString(7));
+			if(window == null) return;
+			final int hid = row.getInt(1);
+			final int deptId = row.getInt(2);
+			final String name = row.getString(3);
+			Department d = hospitals.computeIfAbsent(hid, k -> new TreeMap<Integer, Department>())
+				.computeIfAbsent(deptId, k -> new Department(hid, deptId, name));
+			d.request(row.getInt(4), row.getInt(5), row.getString(6), window, row.getInt(8));
+		});
+
+		final List<Hospital> tasks = new ArrayList<Hospital>();
+		for(Map.Entry<Integer, Map<Integer, Department>> h : hospitals.entrySet()){
+			tasks.add(new Hospital(h.getKey(), h.getValue(), from, to));
+		}
+		ForkJoinPool pool = new ForkJoinPool(this._parallelism);
+		try{
+			pool.invoke(new RecursiveAction(){
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		}catch(RuntimeException e){
+			// the pool may rethrow a copy, whose cause chain leads to the SQLException
+			for(Throwable t = e; t != null; t = t.getCause()){
+				if(t instanceof SQLException) throw (SQLException) t;
+			}
+			throw e;
+		}finally{
+			pool.shutdown();
+		}
+
+		List<Slot> slots = new ArrayList<Slot>();
+		for(Map<Integer, Department> departments : hospitals.values()){
+			for(Department d : departments.values()){
+				List<Slot> own = new ArrayList<Slot>(d.slots);
+				Collections.sort(own, (a, b) -> a.staffId != b.staffId ? Integer.compare(a.staffId, b.staffId) : a.slot.compareTo(b.slot));
+				slots.addAll(own);
+			}
+		}
+		return slots;
+	}//end analyze
+
+	/**
+	 * Method to analyze a range of dates and write one row per slot.
+	 *
+	 * @param out the writer, closed when done
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when the analysis fails
+	 */
+	public long write(LocalDate from, LocalDate to, ResultWriter out) throws SQLException {
+		try{
+			List<Slot> slots = analyze(from, to);
+			out.columns(COLUMNS, NUMERIC);
+			for(Slot s : slots){
+				out.row(String.valueOf(s.hospitalId), String.valueOf(s.deptId), s.department,
+					String.valueOf(s.staffId), s.staff, s.slot.toString(),
+					String.format(Locale.ROOT, "%.1f", s.capacity), String.valueOf(s.days),
+					String.valueOf(s.booked), String.valueOf(s.peak),
+					String.format(Locale.ROOT, "%.2f", s.getUtilization()), s.getStaffing(this._underRatio).name());
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end write
+
+	/**
+	 * The report entry point
+	 *
+	 * @param args <dbname> <port> <user> <from mm/dd/yyyy> <to mm/dd/yyyy>
+	 */
+	public static void main(String[] args) {
+		LocalDate from = args.length == 5 ? RecordValidator.parseDate(args[3]) : null;
+		LocalDate to = args.length == 5 ? RecordValidator.parseDate(args[4]) : null;
+		if (from == null || to == null || to.isBefore(from)) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + CapacityAnalyzer.class.getName () +
+		            " <dbname> <port> <user> <from mm/dd/yyyy> <to mm/dd/yyyy>");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			long start = System.nanoTime();
+			long rows = new CapacityAnalyzer(esql).write(from, to, DBproject.openReportWriter());
+			System.out.printf("Analyzed %d slots from %s to %s in %.2f s%n", rows, from, to, (System.nanoTime() - start) / 1e9);
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,396 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are validated when they are borrowed, evicted after sitting
+ * idle for too long and recycled once they reach their maximum lifetime.
+ *
+ * Pool settings are read from system properties so that the existing
+ * command line of DBproject keeps working:
+ *
+ *   db.pool.maxSize       maximum number of physical connections (default 8)
+ *   db.pool.minIdle       connections kept open when evicting (default 1)
+ *   db.pool.waitMs        how long borrow() blocks for a free slot (default 30000)
+ *   db.pool.idleMs        idle time before a connection is evicted (default 600000)
+ *   db.pool.lifetimeMs    maximum lifetime of a connection (default 1800000)
+ *   db.pool.validateSec   timeout passed to Connection.isValid (default 2)
+ *   db.stmtCache.size     prepared statements cached per connection (default 64)
+ *   db.prepareThreshold   executions before the driver switches to a named
+ *                         server-side prepared statement (default 1)
+ *   db.reWriteBatchedInserts  let the driver fold batched INSERTs into
+ *                         multi-row statements (default true)
+ *
+ * The pool state is guarded by a ReentrantLock rather than the object's
+ * monitor, so a virtual thread waiting in borrow() unmounts from its
+ * carrier instead of pinning it (see LoadDriver).
+ */
+public class ConnectionPool{
+	/**
+	 * A physical connection together with its pool bookkeeping.
+	 */
+	static class PooledConnection{
+		final Connection connection;
+		final StatementCache statements;
+		final long createdAt;
+		long lastUsedAt;
+
+		PooledConnection(Connection connection, StatementCache statements){
+			this.connection = connection;
+			this.statements = statements;
+			this.createdAt = System.currentTimeMillis();
+			this.lastUsedAt = this.createdAt;
+		}
+	}//end PooledConnection
+
+	private final String _url;
+	private final Properties _props;
+	private final int _maxSize;
+	private final int _minIdle;
+	private final long _waitMs;
+	private final long _idleMs;
+	private final long _lifetimeMs;
+	private final int _validateSec;
+	private final int _stmtCacheSize;
+	private final AtomicLong _stmtHits = new AtomicLong();
+	private final AtomicLong _stmtMisses = new AtomicLong();
+
+	//idle connections, most recently used first
+	private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	//connections currently handed out, keyed by identity
+	private final IdentityHashMap<Connection, PooledConnection> _inUse =
+		new IdentityHashMap<Connection, PooledConnection>();
+	private int _opened = 0;
+	private boolean _closed = false;
+	private final ReentrantLock _lock = new ReentrantLock();
+	//signalled whenever a connection or a slot for one becomes free
+	private final Condition _freed = this._lock.newCondition();
+	private final ScheduledExecutorService _evictor;
+
+	public ConnectionPool(String url, String user, String passwd) {
+		this._url = url;
+		this._props = new Properties();
+		this._props.setProperty("user", user);
+		this._props.setProperty("password", passwd);
+		this._props.setProperty("prepareThreshold", System.getProperty("db.prepareThreshold", "1"));
+		this._props.setProperty("reWriteBatchedInserts", System.getProperty("db.reWriteBatchedInserts", "true"));
+		this._maxSize = Math.max(1, Integer.getInteger("db.pool.maxSize", 8));
+		this._minIdle = Math.max(0, Math.min(this._maxSize, Integer.getInteger("db.pool.minIdle", 1)));
+		this._waitMs = Long.getLong("db.pool.waitMs", 30000L);
+		this._idleMs = Long.getLong("db.pool.idleMs", 600000L);
+		this._lifetimeMs = Long.getLong("db.pool.lifetimeMs", 1800000L);
+		this._validateSec = Integer.getInteger("db.pool.validateSec", 2);
+		this._stmtCacheSize = Math.max(1, Integer.getInteger("db.stmtCache.size", 64));
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "db-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000L, Math.min(this._idleMs, this._lifetimeMs) / 2);
+		this._evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to open the first physical connection so that configuration
+	 * problems are reported at startup rather than on the first query.
+	 *
+	 * @throws java.sql.SQLException when the database can not be reached
+	 */
+	public void warmUp() throws SQLException {
+		release(borrow());
+	}//end warmUp
+
+	/**
+	 * Method to borrow a connection from the pool.  An idle connection is
+	 * validated before it is handed out; when none is idle a new physical
+	 * connection is opened, unless the pool is already at its maximum size
+	 * in which case the caller waits for one to be released.
+	 *
+	 * @return a connection that must be given back with release()
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public Connection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + this._waitMs;
+		while(true){
+			PooledConnection pc = null;
+			boolean open = false;
+			this._lock.lock();
+			try{
+				if(this._closed){
+					throw new SQLException("Connection pool is closed");
+				}
+				if(!this._idle.isEmpty()){
+					pc = this._idle.pollFirst();
+				}else if(this._opened < this._maxSize){
+					this._opened++;
+					open = true;
+				}else{
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0){
+						throw new SQLException("Timed out waiting for a database connection (pool size " + this._maxSize + ")");
+					}
+					try{
+						this._freed.await(remaining, TimeUnit.MILLISECONDS);
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection");
+					}
+					continue;
+				}
+			}finally{
+				this._lock.unlock();
+			}
+
+			if(open){
+				try{
+					Connection conn = DriverManager.getConnection(this._url, this._props);
+					pc = new PooledConnection(conn, new StatementCache(conn, this._stmtCacheSize, this._stmtHits, this._stmtMisses));
+				}catch(SQLException e){
+					this._lock.lock();
+					try{
+						this._opened--;
+						this._freed.signalAll();
+					}finally{
+						this._lock.unlock();
+					}
+					throw e;
+				}
+			}else if(!isUsable(pc)){
+				discard(pc);
+				continue;
+			}
+
+			this._lock.lock();
+			try{
+				this._inUse.put(pc.connection, pc);
+			}finally{
+				this._lock.unlock();
+			}
+			return pc.connection;
+		}
+	}//end borrow
+
+	/**
+	 * Method to obtain a cached PreparedStatement for a borrowed connection.
+	 * The statement must not be closed by the caller; it is closed together
+	 * with its connection or when it falls out of the cache.
+	 *
+	 * @param conn a connection returned by borrow()
+	 * @param sql the SQL text with ? placeholders
+	 * @return a prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement can not be prepared
+	 */
+	public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+		PooledConnection pc;
+		this._lock.lock();
+		try{
+			pc = this._inUse.get(conn);
+		}finally{
+			this._lock.unlock();
+		}
+		if(pc == null){
+			throw new SQLException("Connection was not borrowed from this pool");
+		}
+		return pc.statements.prepare(sql);
+	}//end prepare
+
+	/**
+	 * Method to drop a statement from the cache of a borrowed connection.
+	 *
+	 * @param conn a connection returned by borrow()
+	 * @param sql the SQL text the statement was prepared with
+	 */
+	public void evictStatement(Connection conn, String sql) {
+		PooledConnection pc;
+		this._lock.lock();
+		try{
+			pc = this._inUse.get(conn);
+		}finally{
+			this._lock.unlock();
+		}
+		if(pc != null) pc.statements.evict(sql);
+	}
+
+	/**
+	 * @return true when the connection was borrowed from this pool and not
+	 *         yet released
+	 */
+	public boolean owns(Connection conn) {
+		this._lock.lock();
+		try{
+			return this._inUse.containsKey(conn);
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  Connections
+	 * left inside a transaction are rolled back, and connections past their
+	 * maximum lifetime are closed instead of being reused.
+	 *
+	 * @param conn the connection returned by borrow()
+	 */
+	public void release(Connection conn) {
+		if(conn == null) return;
+		PooledConnection pc;
+		this._lock.lock();
+		try{
+			pc = this._inUse.remove(conn);
+		}finally{
+			this._lock.unlock();
+		}
+		if(pc == null) return;
+
+		boolean reusable = true;
+		try{
+			if(conn.isClosed()){
+				reusable = false;
+			}else if(!conn.getAutoCommit()){
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		}catch(SQLException e){
+			reusable = false;
+		}
+		long now = System.currentTimeMillis();
+		if(!reusable || now - pc.createdAt >= this._lifetimeMs){
+			discard(pc);
+			return;
+		}
+		this._lock.lock();
+		try{
+			if(this._closed){
+				this._opened--;
+				closeQuietly(pc.connection);
+				return;
+			}
+			pc.lastUsedAt = now;
+			this._idle.offerFirst(pc);
+			this._freed.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+	}//end release
+
+	/**
+	 * Method to close every idle connection and refuse further borrows.
+	 * Connections still in use are closed as they are released.
+	 */
+	public void close() {
+		this._evictor.shutdownNow();
+		this._lock.lock();
+		try{
+			this._closed = true;
+			for(PooledConnection pc : this._idle){
+				closeQuietly(pc.connection);
+				this._opened--;
+			}
+			this._idle.clear();
+			this._freed.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+	}//end close
+
+	public int getOpenCount() {
+		this._lock.lock();
+		try{
+			return this._opened;
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	public int getIdleCount() {
+		this._lock.lock();
+		try{
+			return this._idle.size();
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	public long getStatementCacheHits() {
+		return this._stmtHits.get();
+	}
+
+	public long getStatementCacheMisses() {
+		return this._stmtMisses.get();
+	}
+
+	private boolean isUsable(PooledConnection pc) {
+		if(System.currentTimeMillis() - pc.createdAt >= this._lifetimeMs) return false;
+		try{
+			return pc.connection.isValid(this._validateSec);
+		}catch(SQLException e){
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection pc) {
+		closeQuietly(pc.connection);
+		this._lock.lock();
+		try{
+			this._opened--;
+			this._freed.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/*
+	 * Closes idle connections that have been unused for longer than the idle
+	 * timeout or that have outlived their maximum lifetime, always keeping
+	 * at least minIdle connections open.
+	 */
+	private void evict() {
+		long now = System.currentTimeMillis();
+		this._lock.lock();
+		try{
+			int keep = this._minIdle;
+			Iterator<PooledConnection> it = this._idle.iterator();
+			while(it.hasNext()){
+				PooledConnection pc = it.next();
+				boolean expired = now - pc.createdAt >= this._lifetimeMs;
+				boolean stale = now - pc.lastUsedAt >= this._idleMs;
+				if(expired || (stale && keep <= 0)){
+					it.remove();
+					closeQuietly(pc.connection);
+					this._opened--;
+				}else{
+					keep--;
+				}
+			}
+			this._freed.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+	}//end evict
+
+	private static void closeQuietly(Connection conn) {
+		try{
+			conn.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+	}
+}
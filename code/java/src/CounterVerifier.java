@@ -0,0 +1,117 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class checks the per doctor status counters of sql/counters.sql,
+ * which option 7 of DBproject reads, against a full recompute from
+ * has_appointment and Appointment.  Both sides are read from the same
+ * snapshot, so the check is exact even while bookings are running.  Every
+ * mismatch is printed; with --repair the counters are then rebuilt.
+ */
+public class CounterVerifier{
+	//doctor, status, counter value and recomputed value of every mismatch
+	static final String COMPARE_STATUS_COUNTS =
+		"SELECT COALESCE(C.doctor_id, R.doctor_id), COALESCE(C.status, R.status), COALESCE(C.cnt, 0), COALESCE(R.cnt, 0)\n" +
+		"FROM doctor_status_counts C FULL OUTER JOIN\n" +
+		"(SELECT H.doctor_id, A.status, count(*) AS cnt\n" +
+		" FROM has_appointment H, Appointment A\n" +
+		" WHERE H.appt_id = A.appnt_ID AND A.status IS NOT NULL\n" +
+		" GROUP BY H.doctor_id, A.status) R\n" +
+		"ON C.doctor_id = R.doctor_id AND C.status = R.status\n" +
+		"WHERE COALESCE(C.cnt, 0) <> COALESCE(R.cnt, 0)\n" +
+		"ORDER BY 1, 2;";
+	static final String REFRESH_STATUS_COUNTS =
+		"SELECT refresh_doctor_status_counts();";
+
+	private final DBproject _esql;
+
+	public CounterVerifier(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to compare the counters with a full recompute.
+	 *
+	 * @return the number of mismatched counters
+	 * @throws java.sql.SQLException when the tables can not be read
+	 */
+	public int verify() throws SQLException {
+		int mismatches = 0;
+		long start = System.nanoTime();
+		Connection conn = this._esql.getConnection();
+		try{
+			conn.setAutoCommit(false);
+			conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(COMPARE_STATUS_COUNTS);
+			while(rs.next()){
+				if(mismatches == 0){
+					System.out.printf("%10s %6s %10s %10s%n", "doctor", "status", "counter", "recomputed");
+				}
+				System.out.printf("%10d %6s %10d %10d%n", rs.getInt(1), rs.getString(2), rs.getLong(3), rs.getLong(4));
+				mismatches++;
+			}
+			rs.close();
+			stmt.close();
+			conn.commit();
+		}finally{
+			try{
+				conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+			}finally{
+				this._esql.releaseConnection(conn);
+			}
+		}
+		System.out.printf("Checked status counters in %.2f s: %d mismatch(es)%n", (System.nanoTime() - start) / 1e9, mismatches);
+		return mismatches;
+	}//end verify
+
+	/**
+	 * Method to rebuild every counter from scratch.
+	 *
+	 * @throws java.sql.SQLException when the counters can not be rebuilt
+	 */
+	public void repair() throws SQLException {
+		Connection conn = this._esql.getConnection();
+		try{
+			Statement stmt = conn.createStatement();
+			stmt.execute(REFRESH_STATUS_COUNTS);
+			stmt.close();
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+		System.out.println("Status counters rebuilt");
+	}//end repair
+
+	/*
+	 * @param args <dbname> <port> <user> [--repair]
+	 */
+	public static void main(String[] args) {
+		boolean repair = args.length == 4 && args[3].equals("--repair");
+		if (args.length != 3 && !repair) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + CounterVerifier.class.getName () +
+		            " <dbname> <port> <user> [--repair]");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		int mismatches = 1;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			CounterVerifier verifier = new CounterVerifier(esql);
+			mismatches = verifier.verify();
+			if(mismatches > 0 && repair){
+				verifier.repair();
+				mismatches = verifier.verify();
+			}
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+		System.exit(mismatches == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes results as CSV (RFC 4180): a header line with the
+ * column names, then one line per row.  Values containing a comma, quote
+ * or line break are quoted, with quotes doubled; NULL is an empty field.
+ */
+public class CsvResultWriter extends ResultWriter{
+
+	public CsvResultWriter(Writer out, boolean closeOut) {
+		super(out, closeOut);
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		line(this._columns);
+	}
+
+	@Override
+	protected void writeRow(String[] values) throws IOException {
+		line(values);
+	}
+
+	@Override
+	protected void writeFooter() {
+	}
+
+	private void line(String[] values) throws IOException {
+		for(int i = 0; i < values.length; i++){
+			if(i > 0) this._out.write(',');
+			if(values[i] != null) field(values[i]);
+		}
+		this._out.write('\n');
+	}
+
+	private void field(String v) throws IOException {
+		boolean quote = false;
+		for(int i = 0; i < v.length() && !quote; i++){
+			char c = v.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if(!quote){
+			this._out.write(v);
+			return;
+		}
+		this._out.write('"');
+		for(int i = 0; i < v.length(); i++){
+			char c = v.charAt(i);
+			if(c == '"') this._out.write('"');
+			this._out.write(c);
+		}
+		this._out.write('"');
+	}
+}
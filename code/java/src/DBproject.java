@@ -11,23 +11,29 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
 import java.io.InputStreamReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 // Library for checking date/time
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
+import java.time.LocalDate;
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
@@ -35,19 +41,121 @@ import java.text.ParseException;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by every operation
+	private ConnectionPool _pool = null;
+	//in-process copy of Hospital, Department and Doctor
+	private ReferenceCache _refs = null;
+	//optional in-memory answer to option 8
+	private PatientStatusIndex _patientIndex = null;
+	//optional in-memory answer to option 6
+	private AvailabilityIndex _availability = null;
+	//per statement shape timings, see QueryMetrics
+	private QueryMetrics _metrics = null;
+	//worker threads of the asynchronous API, see AsyncExecutor
+	private AsyncExecutor _async = null;
+	//read-only queries go to replicas when db.replicas is set, see ReplicaRouter
+	private ReplicaRouter _replicas = null;
+	//the data operations of the menu, see HospitalStore
+	private HospitalStore _store = null;
+	//block (hi-lo) allocators of new IDs, see IdAllocator and sql/sequences.sql
+	private IdAllocator _doctorIds = null;
+	private IdAllocator _patientIds = null;
+	private IdAllocator _appointmentIds = null;
+	//feed of appointment changes when db.events.dir is set, see EventLog
+	private EventLog _events = null;
+	//promotes waitlisted bookings into cancelled appointments, see WaitlistScheduler
+	private WaitlistScheduler _waitlist = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//rows fetched per round trip by executeQueryStreaming
+	static final int DEFAULT_FETCH_SIZE = Integer.getInteger("db.fetchSize", 1000);
+	//attempts made by executeInTransaction before a conflict is reported
+	static final int TX_MAX_ATTEMPTS = 5;
+	//output of the reports of options 5-8: table, csv or json, to standard out or a file
+	static final String REPORT_FORMAT = System.getProperty("db.report.format", "table");
+	static final String REPORT_FILE = System.getProperty("db.report.file");
+	//backend of the menu: postgres, or memory for InMemoryStore
+	static final String STORE = System.getProperty("db.store", "postgres");
+
+	//parameterized inserts shared by the menu and the bulk import path
+	static final String INSERT_DOCTOR =
+		"INSERT INTO Doctor (doctor_ID, name, specialty, did)\n" +
+		"VALUES (?, ?, ?, ?);";
+	static final String INSERT_PATIENT =
+		"INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts)\n" +
+		"VALUES (?, ?, ?, ?, ?, ?);";
+	static final String INSERT_APPOINTMENT =
+		"INSERT INTO Appointment (appnt_ID, adate, time_slot, status)\n" +
+		"VALUES (?, ?, ?, ?);";
+	//single inserts of an ID taken from an IdAllocator, echoed back by the insert
+	static final String INSERT_DOCTOR_RETURNING =
+		"INSERT INTO Doctor (doctor_ID, name, specialty, did)\n" +
+		"VALUES (?, ?, ?, ?) RETURNING doctor_ID;";
+	static final String INSERT_PATIENT_RETURNING =
+		"INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts)\n" +
+		"VALUES (?, ?, ?, ?, ?, ?) RETURNING patient_ID;";
+	static final String INSERT_APPOINTMENT_RETURNING =
+		"INSERT INTO Appointment (appnt_ID, adate, time_slot, status)\n" +
+		"VALUES (?, ?, ?, ?) RETURNING appnt_ID;";
+
+	//report queries of options 5-8, also checked by PlanHarness
+	static final String LIST_DOCTOR_APPOINTMENTS =
+		"SELECT D.doctor_ID, D.name, A.adate, A.status\n" +
+		"FROM Doctor D, Appointment A, has_appointment H\n" +
+		"WHERE D.doctor_ID = H.doctor_id AND H.appt_id = A.appnt_ID AND (A.status = 'AC' OR A.status = 'AV') AND D.doctor_ID = ? AND A.adate BETWEEN ? AND ?;";
+	static final String LIST_AVAILABLE_APPOINTMENTS =
+		"SELECT DISTINCT A.appnt_ID, A.adate, A.time_slot, A.status\n" +
+		"FROM Appointment A, has_appointment H, Doctor Dr, Department D\n" +
+		"WHERE A.appnt_ID = H.appt_id AND H.doctor_id = Dr.doctor_ID AND Dr.did = D.dept_ID\n" +
+		"AND D.name = ? AND A.adate = ? AND A.status = 'AV';";
+	//reads the per doctor counters maintained by the triggers of sql/counters.sql
+	static final String COUNT_STATUS_PER_DOCTOR =
+		"SELECT D.doctor_ID, D.name, "+
+		"SUM(case when C.status = 'PA' then C.cnt else 0 end) AS \"PA\","+
+		"SUM(case when C.status = 'AC' then C.cnt else 0 end) AS \"AC\","+
+		"SUM(case when C.status = 'AV' then C.cnt else 0 end) AS \"AV\","+
+		"SUM(case when C.status = 'WL' then C.cnt else 0 end) AS \"WL\"\n"+
+		"FROM Doctor D, doctor_status_counts C\n"+
+		"WHERE D.doctor_ID = C.doctor_id\n"+
+		"GROUP BY D.doctor_ID, D.name\n"+
+		"HAVING SUM(C.cnt) > 0\n"+
+		"ORDER BY D.doctor_ID DESC;";
+	//distinct patients per doctor over searches -> Appointment -> has_appointment
+	static final String COUNT_PATIENTS_PER_DOCTOR =
+		"SELECT D.doctor_ID, D.name, COUNT(DISTINCT S.pid) AS \"PATIENTS\"\n" +
+		"FROM Doctor D, has_appointment H, Appointment A, searches S\n" +
+		"WHERE D.doctor_ID = H.doctor_id\n" +
+		"AND H.appt_id = A.appnt_ID\n" +
+		"AND S.aid = A.appnt_ID\n" +
+		"AND A.status = ?\n" +
+		"GROUP BY D.doctor_ID, D.name\n" +
+		"ORDER BY D.doctor_ID DESC;";
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			String host = System.getProperty("db.host", "localhost");
+			String url = "jdbc:postgresql://" + host + ":" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// obtain a pool of physical connections, opening the first one eagerly
+			this._pool = new ConnectionPool(url, user, passwd);
+			this._metrics = new QueryMetrics(this);
+			this._pool.warmUp();
+			this._replicas = ReplicaRouter.fromProperties(dbname, user, passwd);
+			this._refs = new ReferenceCache(this, url, user, passwd);
+			this._refs.start();
+			this._patientIndex = new PatientStatusIndex(this);
+			this._availability = new AvailabilityIndex(this);
+			this._metrics.start();
+			this._async = new AsyncExecutor(this._pool.getMaxSize());
+			this._doctorIds = new IdAllocator(this, "doctor_id_seq");
+			this._patientIds = new IdAllocator(this, "patient_id_seq");
+			this._appointmentIds = new IdAllocator(this, "appointment_id_seq");
+			this._events = EventLog.fromProperties();
+			this._waitlist = new WaitlistScheduler(this);
+			this._waitlist.start();
+			this._store = new PostgresStore(this);
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -56,6 +164,58 @@ public class DBproject{
 		}
 	}
 	
+	/*
+	 * A DBproject without a database, whose menu runs on the given store.
+	 */
+	private DBproject(HospitalStore store) {
+		this._store = store;
+	}
+
+	/**
+	 * Method to borrow a connection from the pool.  Callers must hand it
+	 * back with releaseConnection once they are done with it.
+	 * 
+	 * @return a pooled connection
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public Connection getConnection () throws SQLException {
+		return this._pool.borrow ();
+	}
+
+	/*
+	 * Borrows a connection for a read-only query: from a replica when one
+	 * is configured and can serve the calling thread, else the primary.
+	 */
+	private Connection getReadConnection () throws SQLException {
+		Connection conn = this._replicas == null ? null : this._replicas.borrow ();
+		return conn != null ? conn : getConnection ();
+	}
+	
+	/**
+	 * Method to return a connection obtained from getConnection to the pool.
+	 * 
+	 * @param conn the connection to return
+	 */
+	public void releaseConnection (Connection conn) {
+		if (this._replicas != null && this._replicas.release (conn)) return;
+		this._pool.release (conn);
+	}
+
+	/*
+	 * Looks up the cached statement in the pool the connection came from.
+	 */
+	private PreparedStatement prepare (Connection conn, String sql) throws SQLException {
+		ConnectionPool pool = this._replicas == null ? null : this._replicas.poolOf (conn);
+		return (pool != null ? pool : this._pool).prepare (conn, sql);
+	}
+
+	/*
+	 * Records the WAL position of a write for read-your-writes.
+	 */
+	private void noteWrite (Connection conn) {
+		if (this._replicas != null) this._replicas.noteWrite (this._pool, conn);
+	}
+	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -64,59 +224,151 @@ public class DBproject{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		long start = System.nanoTime ();
+		Connection conn = getConnection ();
+		long waited = System.nanoTime () - start;
+		long rows = 0;
+		boolean failed = true;
+		try{
+			// creates a statement object
+			Statement stmt = conn.createStatement ();
+			try{
+				// issues the update instruction
+				rows = stmt.executeUpdate (sql);
+			}finally{
+				// close the instruction, also when it failed
+				stmt.close ();
+			}
+			failed = false;
+			noteWrite (conn);
+		}finally{
+			releaseConnection (conn);
+			this._metrics.record (sql, null, start, waited, rows, 0, failed);
+		}
+	}//end executeUpdate
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	/**
+	 * Method to execute a parameterized update SQL statement.  The statement
+	 * is taken from the per-connection statement cache so that PostgreSQL
+	 * can reuse its prepared plan across calls.
+	 * 
+	 * @param sql the input SQL string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		Connection conn = getConnection ();
+		long waited = System.nanoTime () - start;
+		int rows = 0;
+		boolean failed = true;
+		try{
+			// obtains a cached prepared statement and binds the parameters
+			PreparedStatement stmt = prepare (conn, sql);
+			bindParameters (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			rows = stmt.executeUpdate ();
+			failed = false;
+			noteWrite (conn);
+			return rows;
+		}finally{
+			releaseConnection (conn);
+			this._metrics.record (sql, params, start, waited, rows, 0, failed);
+		}
 	}//end executeUpdate
 
+	/**
+	 * Method to execute a parameterized INSERT ... RETURNING of a single
+	 * row and return the generated ID, in the same round trip.
+	 * 
+	 * @param sql the insert with ? placeholders, returning one integer
+	 * @param params the values bound to the placeholders, in order
+	 * @return the value returned by the insert
+	 * @throws java.sql.SQLException when the insert failed or returned nothing
+	 * */
+	public int executeInsertReturningId (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		Connection conn = getConnection ();
+		long waited = System.nanoTime () - start;
+		int rows = 0;
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = prepare (conn, sql);
+			bindParameters (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (!rs.next ()) throw new SQLException ("The insert returned no ID");
+				rows = 1;
+				int id = rs.getInt (1);
+				failed = false;
+				noteWrite (conn);
+				return id;
+			}finally{
+				rs.close ();
+			}
+		}finally{
+			releaseConnection (conn);
+			this._metrics.record (sql, params, start, waited, rows, 0, failed);
+		}
+	}//end executeInsertReturningId
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out as an aligned table, streaming the rows.
 	 * 
 	 * @param query the input query string
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		try (ResultWriter out = new TableResultWriter (new BufferedWriter (new OutputStreamWriter (System.out), ResultWriter.BUFFER_SIZE), false)){
+			return (int) executeQueryStreaming (query, out);
+		}
 	}
-	
+
+	/**
+	 * Method to stream the result of a parameterized query into a writer
+	 * and finish the output.
+	 * 
+	 * @param query the input query string with ? placeholders
+	 * @param out the writer, closed when the query is done
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long executeQueryAndWrite (String query, ResultWriter out, Object... params) throws SQLException {
+		try{
+			executeQueryStreaming (query, out, params);
+		}finally{
+			out.close ();
+		}
+		return out.getRowCount ();
+	}
+
+	/**
+	 * Method to open the writer of a menu report, in the format named by
+	 * the db.report.format property (table, csv or json) and to the file
+	 * named by db.report.file, or standard out when that is not set.
+	 * 
+	 * @return the writer
+	 * @throws java.io.IOException when the file can not be created
+	 */
+	public static ResultWriter openReportWriter () throws IOException {
+		return ResultWriter.open (REPORT_FORMAT, REPORT_FILE);
+	}
+
+	/*
+	 * Tells where a report written to a file went.
+	 */
+	private static void reportWritten (ResultWriter out) {
+		if(REPORT_FILE != null && !REPORT_FILE.equals("-")){
+			System.out.println("Wrote " + out.getRowCount() + " rows to " + REPORT_FILE);
+		}
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
@@ -127,33 +379,299 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
+		long start = System.nanoTime ();
+		Connection conn = getReadConnection ();
+		long waited = System.nanoTime () - start;
+		long bytes = 0;
 		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		boolean failed = true;
+		try{
+			//creates a statement object 
+			Statement stmt = conn.createStatement (); 
+			try{
+				//issues the query instruction 
+				ResultSet rs = stmt.executeQuery (query); 
+			 
+				/*
+				 * obtains the metadata object for the returned result set.  The metadata 
+				 * contains row and column info. 
+				*/ 
+				ResultSetMetaData rsmd = rs.getMetaData (); 
+				int numCol = rsmd.getColumnCount (); 
+			 
+				//iterates through the result set and saves the data returned by the query. 
+				while (rs.next()){
+					List<String> record = new ArrayList<String>(); 
+					for (int i=1; i<=numCol; ++i) 
+						record.add(rs.getString (i)); 
+					result.add(record); 
+					bytes += rowBytes (rs, numCol);
+				}//end while 
+			}finally{
+				// closes the result set with it, also when the query failed
+				stmt.close (); 
+			}
+			failed = false;
+			return result; 
+		}finally{
+			releaseConnection (conn);
+			this._metrics.record (query, null, start, waited, result.size (), bytes, failed);
+		}
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * through the per-connection statement cache and return the results as
+	 * a list of records. Each record in turn is a list of attribute values
+	 * 
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		return executeQueryAndReturnResult (null, query, params);
+	}//end executeQueryAndReturnResult
+
+	/*
+	 * Runs a parameterized query, recording the statement with the async
+	 * call, if any, while it runs.
+	 */
+	private List<List<String>> executeQueryAndReturnResult (AsyncExecutor.Call<?> call, String query, Object[] params) throws SQLException { 
+		long start = System.nanoTime ();
+		Connection conn = getReadConnection ();
+		long waited = System.nanoTime () - start;
+		long bytes = 0;
+		List<List<String>> result  = new ArrayList<List<String>>(); 
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = prepare (conn, query);
+			bindParameters (stmt, params);
+			if (call != null) call.setStatement (stmt);
+
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				int numCol = rs.getMetaData ().getColumnCount ();
+				while (rs.next()){
+					List<String> record = new ArrayList<String>(numCol); 
+					for (int i=1; i<=numCol; ++i) 
+						record.add(rs.getString (i)); 
+					result.add(record); 
+					bytes += rowBytes (rs, numCol);
+				}//end while 
+				failed = false;
+				return result; 
+			}finally{
+				rs.close ();
+			}
+		}finally{
+			if (call != null) call.setStatement (null);
+			releaseConnection (conn);
+			this._metrics.record (query, params, start, waited, result.size (), bytes, failed);
+		}
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * and hand every row to a callback as it arrives, without materializing
+	 * the result.  The query runs inside a read transaction with a JDBC fetch
+	 * size, which makes PostgreSQL serve it from a server-side cursor so the
+	 * client holds at most fetchSize rows at a time.
+	 * 
+	 * @param query the input query string with ? placeholders
+	 * @param fetchSize number of rows fetched per round trip
+	 * @param handler the callback invoked for every row
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long executeQueryStreaming (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryStreaming (true, query, fetchSize, handler, params);
+	}//end executeQueryStreaming
+
+	/**
+	 * Method to stream a query from the primary even when replicas are
+	 * configured, for readers that must see every committed change, such
+	 * as caches reloaded on a change notification from the primary.
+	 * 
+	 * @see #executeQueryStreaming(String, int, RowHandler, Object...)
+	 */
+	public long executeQueryStreamingOnPrimary (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryStreaming (false, query, DEFAULT_FETCH_SIZE, handler, params);
+	}
+
+	private long executeQueryStreaming (boolean replica, String query, int fetchSize, RowHandler handler, Object[] params) throws SQLException {
+		long start = System.nanoTime ();
+		Connection conn = replica ? getReadConnection () : getConnection ();
+		long waited = System.nanoTime () - start;
+		long rowCount = 0, bytes = 0;
+		boolean failed = true;
+		try{
+			// cursors are only used by the driver outside autocommit mode
+			conn.setAutoCommit (false);
+			PreparedStatement stmt = prepare (conn, query);
+			bindParameters (stmt, params);
+			stmt.setFetchSize (fetchSize);
+
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				ResultRow row = new ResultRow (rs);
+				while (rs.next()){
+					row.advance ();
+					handler.handle (row);
+					++rowCount;
+					bytes += rowBytes (rs, row.getColumnCount ());
+				}//end while
+			}finally{
+				rs.close ();
+			}
+			conn.commit ();
+			conn.setAutoCommit (true);
+			failed = false;
+			return rowCount;
+		}finally{
+			// rolls back and restores autocommit if the query failed
+			releaseConnection (conn);
+			this._metrics.record (query, params, start, waited, rowCount, bytes, failed);
+		}
+	}//end executeQueryStreaming
+
+	/**
+	 * Method to stream a query with the default fetch size, which can be
+	 * changed with the db.fetchSize system property.
+	 * 
+	 * @see #executeQueryStreaming(String, int, RowHandler, Object...)
+	 */
+	public long executeQueryStreaming (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryStreaming (query, DEFAULT_FETCH_SIZE, handler, params);
+	}
+
+	/**
+	 * Method to run a parameterized query on a worker thread with a
+	 * connection of its own, so that independent queries overlap.  Blocks
+	 * only while too many calls are pending (db.async.maxPending).
+	 * Cancelling the future cancels the statement on the server.
+	 * 
+	 * @param timeoutMs time after which the future fails with a
+	 *        java.util.concurrent.TimeoutException and the statement is
+	 *        cancelled; 0 for none
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the future query result as a list of records
+	 */
+	public CompletableFuture<List<List<String>>> executeQueryAsync (long timeoutMs, String query, Object... params) {
+		return this._async.submit (call -> executeQueryAndReturnResult (call, query, params), timeoutMs);
+	}
+
+	/**
+	 * Method to run a parameterized query asynchronously with the default
+	 * timeout, db.async.timeoutMs.
+	 * 
+	 * @see #executeQueryAsync(long, String, Object...)
+	 */
+	public CompletableFuture<List<List<String>>> executeQueryAsync (String query, Object... params) {
+		return executeQueryAsync (this._async.getDefaultTimeoutMs (), query, params);
+	}
+
+	/**
+	 * Method to obtain a cached PreparedStatement for a connection borrowed
+	 * with getConnection.  The statement belongs to the cache and must not
+	 * be closed by the caller.
+	 * 
+	 * @param conn the borrowed connection
+	 * @param sql the SQL text with ? placeholders
+	 * @return a prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement can not be prepared
+	 */
+	public PreparedStatement prepareStatement (Connection conn, String sql) throws SQLException {
+		return prepare (conn, sql);
+	}
+
+	/**
+	 * Method to bind positional parameters to a prepared statement.  A
+	 * LocalDate is bound as an SQL DATE.
+	 * 
+	 * @param stmt the prepared statement
+	 * @param params the values to bind, in placeholder order
+	 * @throws java.sql.SQLException when a value can not be bound
+	 */
+	static void bindParameters (PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null)
+				stmt.setNull (i + 1, Types.NULL);
+			else if (params[i] instanceof LocalDate)
+				stmt.setDate (i + 1, java.sql.Date.valueOf ((LocalDate) params[i]));
+			else
+				stmt.setObject (i + 1, params[i]);
+		}
+	}//end bindParameters
+
+	/*
+	 * Size of the current row as received from the server.  The driver
+	 * hands out the column bytes it already holds, so this copies nothing.
+	 */
+	private long rowBytes (ResultSet rs, int numCol) throws SQLException {
+		if (!this._metrics.isEnabled ()) return 0;
+		long bytes = 0;
+		for (int i = 1; i <= numCol; ++i){
+			byte[] b = rs.getBytes (i);
+			if (b != null) bytes += b.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Method to run a unit of work in a single transaction on a pooled
+	 * connection.  The work is committed when the callback returns and
+	 * rolled back when it throws.  Serialization failures and deadlocks
+	 * (SQLSTATE 40001 and 40P01) are retried with a short randomized
+	 * back-off, up to TX_MAX_ATTEMPTS times.
+	 * 
+	 * @param work the unit of work
+	 * @return the value returned by the callback
+	 * @throws java.sql.SQLException when the transaction failed
+	 */
+	public <T> T executeInTransaction (TransactionCallback<T> work) throws SQLException {
+		for (int attempt = 1; ; ++attempt){
+			Connection conn = getConnection ();
+			try{
+				conn.setAutoCommit (false);
+				T result = work.execute (conn);
+				conn.commit ();
+				conn.setAutoCommit (true);
+				noteWrite (conn);
+				return result;
+			}catch (SQLException e){
+				conn.rollback ();
+				String state = e.getSQLState ();
+				boolean retry = "40001".equals (state) || "40P01".equals (state);
+				if (!retry || attempt >= TX_MAX_ATTEMPTS) throw e;
+			}finally{
+				releaseConnection (conn);
+			}
+			try{
+				Thread.sleep (ThreadLocalRandom.current ().nextInt (1, 10 * attempt + 1));
+			}catch (InterruptedException ie){
+				Thread.currentThread ().interrupt ();
+				throw new SQLException ("Interrupted while retrying transaction");
+			}
+		}
+	}//end executeInTransaction
+
+	/**
+	 * @return number of prepared statement lookups served from the cache
+	 */
+	public long getStatementCacheHits () {
+		return this._pool.getStatementCacheHits ();
+	}
+
+	/**
+	 * @return number of prepared statement lookups that had to prepare
+	 */
+	public long getStatementCacheMisses () {
+		return this._pool.getStatementCacheMisses ();
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
@@ -163,26 +681,40 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
+		long start = System.nanoTime ();
+		Connection conn = getReadConnection ();
+		long waited = System.nanoTime () - start;
 		int rowCount = 0;
+		boolean failed = true;
+		try{
+			//creates a statement object
+			Statement stmt = conn.createStatement ();
+			try{
+				//issues the query instruction
+				ResultSet rs = stmt.executeQuery (query);
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+				//iterates through the result set and count nuber of results.
+				if(rs.next()){
+					rowCount++;
+				}//end while
+			}finally{
+				// closes the result set with it, also when the query failed
+				stmt.close ();
+			}
+			failed = false;
+			return rowCount;
+		}finally{
+			releaseConnection (conn);
+			this._metrics.record (query, null, start, waited, rowCount, 0, failed);
+		}
 	}
 	
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  currval belongs to
+	 * a session, so this only works on the pooled connection that called
+	 * nextval; new IDs come from IdAllocator instead.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -190,46 +722,152 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		Connection conn = getConnection ();
+		try{
+			PreparedStatement stmt = prepare (conn, "SELECT currval(?::regclass);");
+			stmt.setString (1, sequence);
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			}finally{
+				rs.close ();
+			}
+		}finally{
+			releaseConnection (conn);
+		}
+	}
+
+	/**
+	 * @return the allocator of new Doctor IDs
+	 */
+	public IdAllocator getDoctorIds () {
+		return this._doctorIds;
+	}
+
+	/**
+	 * @return the allocator of new Patient IDs
+	 */
+	public IdAllocator getPatientIds () {
+		return this._patientIds;
+	}
+
+	/**
+	 * @return the allocator of new Appointment IDs
+	 */
+	public IdAllocator getAppointmentIds () {
+		return this._appointmentIds;
+	}
+
+	/**
+	 * @return the backend of the menu operations
+	 */
+	public HospitalStore getStore () {
+		return this._store;
+	}
+
+	/**
+	 * @return the log of appointment changes, disabled unless db.events.dir is set
+	 */
+	public EventLog getEventLog () {
+		return this._events;
+	}
+
+	/**
+	 * @return the per statement shape metrics
+	 */
+	public QueryMetrics getQueryMetrics () {
+		return this._metrics;
+	}
+
+	/**
+	 * @return the cache of the Hospital, Department and Doctor tables
+	 */
+	public ReferenceCache getReferenceCache () {
+		return this._refs;
+	}
+
+	/**
+	 * @return the doctor -> status -> patients index used by option 8
+	 */
+	public PatientStatusIndex getPatientStatusIndex () {
+		return this._patientIndex;
+	}
+
+	/**
+	 * @return the per doctor and day slot index used by option 6
+	 */
+	public AvailabilityIndex getAvailabilityIndex () {
+		return this._availability;
+	}
+
+	/**
+	 * @return the scheduler of waitlist promotions
+	 */
+	public WaitlistScheduler getWaitlistScheduler () {
+		return this._waitlist;
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to close the pooled physical connections if they are open.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		if (this._store != null){
+			this._store.close ();
+		}//end if
+		if (this._waitlist != null){
+			this._waitlist.close ();
+		}//end if
+		if (this._async != null){
+			this._async.close ();
+		}//end if
+		if (this._events != null){
+			this._events.close ();
+		}//end if
+		if (this._replicas != null){
+			this._replicas.close ();
+		}//end if
+		if (this._metrics != null){
+			this._metrics.close ();
+		}//end if
+		if (this._refs != null){
+			this._refs.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
 	 * The main execution method
 	 * 
-	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+	 * @param args the command line arguments this inclues the <dbname> <port> <user>,
+	 *             optionally followed by --script <file|-> [--echo] to run a
+	 *             workload file instead of the interactive menu; with
+	 *             -Ddb.store=memory the arguments are optional and unused
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		boolean memory = STORE.equals("memory");
+		boolean scripted = args.length >= 5 && args[3].equals("--script");
+		boolean echo = scripted && args.length == 6 && args[5].equals("--echo");
+		if (memory ? args.length != 0 && args.length != 3 : args.length != 3 && !(scripted && (args.length == 5 || echo))) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [--script <file|-> [--echo]]\n" +
+		        "   or: java -Ddb.store=memory [-Ddb.store.dataDir=<dir>] [-classpath <classpath>] " + DBproject.class.getName () + " [<dbname> <port> <user>]");
 			return;
 		}//end if
 		
 		DBproject esql = null;
 		
 		try{
+			if(memory){
+				esql = new DBproject (InMemoryStore.fromProperties ());
+			}
 			System.out.println("(1)");
 			
 			try {
-				Class.forName("org.postgresql.Driver");
+				if(!memory) Class.forName("org.postgresql.Driver");
 			}catch(Exception e){
 
 				System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
@@ -238,11 +876,18 @@ public class DBproject{
 			}
 			
 			System.out.println("(2)");
-			String dbname = args[0];
-			String dbport = args[1];
-			String user = args[2];
+			if(!memory){
+				String dbname = args[0];
+				String dbport = args[1];
+				String user = args[2];
+				
+				esql = new DBproject (dbname, dbport, user, "");
+			}
 			
-			esql = new DBproject (dbname, dbport, user, "");
+			if(scripted){
+				new ScriptRunner (esql, echo).run (args[4]);
+				return;
+			}
 			
 			boolean keepon = true;
 			while(keepon){
@@ -256,7 +901,9 @@ public class DBproject{
 				System.out.println("6. List all available appointments of a given department");
 				System.out.println("7. List total number of different types of appointments per doctor in descending order");
 				System.out.println("8. Find total number of patients per doctor with a given status");
-				System.out.println("9. < EXIT");
+				System.out.println("9. Cancel an appointment");
+				System.out.println("10. Capacity report of staff per department and time slot");
+				System.out.println("11. < EXIT");
 				
 				switch (readChoice()){
 					case 1: AddDoctor(esql); break;
@@ -267,7 +914,9 @@ public class DBproject{
 					case 6: ListAvailableAppointmentsOfDepartment(esql); break;
 					case 7: ListStatusNumberOfAppointmentsPerDoctor(esql); break;
 					case 8: FindPatientsCountWithStatus(esql); break;
-					case 9: keepon = false; break;
+					case 9: CancelAppointment(esql); break;
+					case 10: CapacityReport(esql); break;
+					case 11: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -285,15 +934,45 @@ public class DBproject{
 		}
 	}
 
+	/**
+	 * Method to read one line of user input from the shared reader.  Every
+	 * prompt goes through here so that piped input is consumed line by line
+	 * by a single reader.
+	 * 
+	 * @return the line read, without its terminator
+	 * @throws java.io.UncheckedIOException when the input ends or fails
+	 */
+	public static String readLine() {
+		try{
+			String line = in.readLine();
+			if(line == null){
+				throw new UncheckedIOException(new EOFException("End of input"));
+			}
+			return line;
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}//end readLine
+
+	/**
+	 * @return the ID typed in, or null for a blank line, which lets the
+	 *         database generate the ID
+	 * @throws NumberFormatException when the input is not an integer
+	 */
+	static Integer parseOptionalId(String input) {
+		input = input.trim();
+		return input.isEmpty() ? null : Integer.valueOf(input);
+	}
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
 		do {
 			System.out.print("Please make your choice: ");
 			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+				input = Integer.parseInt(readLine());
 				break;
-			}catch (Exception e) {
+			}catch (NumberFormatException e) {
 				System.out.println("Your input is invalid!");
 				continue;
 			}//end try
@@ -302,42 +981,44 @@ public class DBproject{
 	}//end readChoice
 
 	public static void AddDoctor(DBproject esql) {//1/1
-		int doctor_ID;
+		Integer doctor_ID;
 		String name;
 		String specialty;
 		int did;
-		Scanner sc = new Scanner(System.in);	
 		do{
 			System.out.print("--------Add Doctor-------\n");
-			System.out.print("Dotor ID: ");
+			System.out.print("Dotor ID (blank for a new ID): ");
 			try{
-				doctor_ID = Integer.parseInt(in.readLine());
+				doctor_ID = parseOptionalId(readLine());
 				break;
-			}catch (Exception e){
+			}catch (NumberFormatException e){
 				System.out.println("Dotor ID must be an interger!\n");
 				continue;
 			}
 			
 		}while(true);
 		System.out.print("Name: ");
-		name = sc.nextLine();
+		name = readLine();
 		System.out.print("Specialty: ");
-		specialty = sc.nextLine();
-		System.out.print("Department ID: ");
+		specialty = readLine();
 		do{	
+			System.out.print("Department ID: ");
 			try{
-				did = Integer.parseInt(in.readLine());
-				break;
-			}catch (Exception e){
+				did = Integer.parseInt(readLine());
+				if(esql.getStore().hasDepartment(did)){
+					break;
+				}
+				System.out.println("Could not find Department " + did + ". Please Try Again!\n");
+			}catch (NumberFormatException e){
 				System.out.println("Department ID must be an interger!\n");
-				continue;
+			}catch (SQLException e){
+				System.out.println(e.getMessage());
+				return;
 			}
 		}while(true);
 	 
 		try{
-			String query  = "INSERT INTO Doctor (doctor_ID, name, specialty, did)\n";
-			       query += "VALUES ("+String.valueOf(doctor_ID)+",\'"+name+"\',\'"+specialty+"\',"+String.valueOf(did)+");";
-			esql.executeUpdate(query);
+			doctor_ID = esql.getStore().addDoctor(doctor_ID, name, specialty, did);
 			System.out.println("\nUpdate Dotor Information: ");
 			System.out.print("----Successfully Add Dotor info. as following to DataBase-----\n");
 			System.out.print("Dotor ID      : "+ doctor_ID + "\n");
@@ -349,23 +1030,22 @@ public class DBproject{
 		}	      
 	}
 	public static void AddPatient(DBproject esql) {//2/2
-            int patientID;
+            Integer patientID;
             String patientName;
             String gender;
             int age;
             String address;
             int numberOfAppointments;
 
-            Scanner sc = new Scanner(System.in);
            
       
                 do{
                         System.out.print("--------Add Patient-------\n");
-                        System.out.print("Patient ID: ");
+                        System.out.print("Patient ID (blank for a new ID): ");
                         try{
-                                patientID = Integer.parseInt(in.readLine());
+                                patientID = parseOptionalId(readLine());
                                 break;
-                        }catch (Exception e){
+                        }catch (NumberFormatException e){
                                 System.out.println("Patient ID must be an integer!\n");
                                 continue;
                         }
@@ -373,14 +1053,14 @@ public class DBproject{
                 }while(true);
 
                 System.out.print("Name: ");
-                patientName = sc.nextLine();
+                patientName = readLine();
                
 
                 do
                 {
                    System.out.print("Gender: ");
-                   gender = sc.nextLine();
-                   if(gender.equals("M") || gender.equals("F"))
+                   gender = readLine();
+                   if(RecordValidator.isValidGender(gender))
                    {
                        break;
                    }
@@ -393,32 +1073,30 @@ public class DBproject{
 
                  do{
                         try{
-                                age = Integer.parseInt(in.readLine());
+                                age = Integer.parseInt(readLine());
                                 break;
-                        }catch (Exception e){
+                        }catch (NumberFormatException e){
                                 System.out.println("Age must be an integer!");
                                 continue;
                         }
                 }while(true); 
 
                 System.out.print("Address: ");
-                address = sc.nextLine();
+                address = readLine();
                 
                 System.out.print("Number of Appointments: ");
 
                 do{
                         try{
-                                numberOfAppointments = Integer.parseInt(in.readLine());
+                                numberOfAppointments = Integer.parseInt(readLine());
                                 break;
-                        }catch (Exception e){
+                        }catch (NumberFormatException e){
                                 System.out.println("Number of Appointments must be an integer!");
                                 continue;
                         }
                 }while(true);      
                 try{
-                        String query  = "INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts)\n";
-                               query += "VALUES ("+String.valueOf(patientID)+",\'"+patientName+"\',\'"+gender+"\',"+String.valueOf(age)+ ",\'"+address+"\'," +String.valueOf(numberOfAppointments) +  ");\n";
-                        esql.executeUpdate(query);
+                        patientID = esql.getStore().addPatient(patientID, patientName, gender, age, address, numberOfAppointments);
 			System.out.print("\n----Successfully Add Patient info. as following to DataBase-----\n");
 			System.out.print("Patient ID   		 : "+ String.valueOf(patientID) + "\n");
 			System.out.print("Name          	 : "+ patientName + "\n");
@@ -432,26 +1110,18 @@ public class DBproject{
 }                    
 
 	public static void AddAppointment(DBproject esql) {//3/3
-		int appnt_ID;
+		Integer appnt_ID;
 		String status;
-		String adate;
+		LocalDate adate;
 		String time_slot;
-		ArrayList<String> status_opt = new ArrayList<String>();
-		status_opt.add("PA");
-		status_opt.add("AC");
-		status_opt.add("AV");
-		status_opt.add("WL");
-		Scanner sc = new Scanner(System.in);	
-		SimpleDateFormat sdf_date = new SimpleDateFormat("M/d/yyyy");
-		SimpleDateFormat sdf_time = new SimpleDateFormat("H:m-H:m");
 		
 		do{
 			System.out.print("--------Add Appointment-------\n");
-			System.out.print("Appointment ID: ");
+			System.out.print("Appointment ID (blank for a new ID): ");
 			try{
-				appnt_ID = Integer.parseInt(in.readLine());
+				appnt_ID = parseOptionalId(readLine());
 				break;
-			}catch (Exception e){
+			}catch (NumberFormatException e){
 				System.out.println("Doctor ID must be an interger!");
 				continue;
 			}
@@ -459,33 +1129,28 @@ public class DBproject{
 		}while(true);
 		
 		do{
-			try{	
-				System.out.print("Date: ");
-				adate = sc.nextLine();
-				sdf_date.parse(adate);
-				sdf_date.setLenient(false);
+			System.out.print("Date: ");
+			adate = RecordValidator.parseDate(readLine());
+			if(adate != null){
 				break;
-			}catch(ParseException e){
-				System.out.println("Invalid date! Try the format(mm/dd/yyyy)");
 			}
+			System.out.println("Invalid date! Try the format(mm/dd/yyyy)");
 		}while(true);
 
 		do{
-			try{
-				System.out.print("Time: ");
-				time_slot = sc.nextLine();
-				sdf_time.parse(time_slot);
+			System.out.print("Time: ");
+			time_slot = readLine();
+			if(RecordValidator.isValidTimeSlot(time_slot)){
 				break;
-			}catch(ParseException e){
-				System.out.println("Invalid time slot! Try the format(H:m-H:m)");
-				System.out.println("For example, 8:30a.m. - 10:00p.m. should be format (8:30-22:00)");
 			}
+			System.out.println("Invalid time slot! Try the format(H:m-H:m)");
+			System.out.println("For example, 8:30a.m. - 10:00p.m. should be format (8:30-22:00)");
 		}while(true);
 
 		do{	
 			System.out.print("Status: ");
-			status = sc.nextLine();
-			if(status_opt.contains(status)){
+			status = readLine();
+			if(RecordValidator.isValidStatus(status)){
 				break;
 			}else{
 				System.out.println("Appointment Status must be : PA(Past), AC(Active), AV(Available) and WL(Waitlisted).");
@@ -494,12 +1159,10 @@ public class DBproject{
 		}while(true);
 	 
 		try{
-			String query  = "INSERT INTO Appointment (appnt_ID, adate, time_slot, status)\n";
-			       query += "VALUES ("+String.valueOf(appnt_ID)+",\'"+adate+"\',\'"+time_slot+"\',\'"+status+"\');\n";
-			esql.executeUpdate(query);
+			appnt_ID = esql.getStore().addAppointment(appnt_ID, adate, time_slot, status);
 			System.out.print("\n----Successfully Add Appointment info. as following to DataBase-----\n");
 			System.out.print("Appointment ID: "+ String.valueOf(appnt_ID) + "\n");
-			System.out.print("Date          : "+ adate + "\n");
+			System.out.print("Date          : "+ adate.format(RecordValidator.DATE_FORMAT) + "\n");
 			System.out.print("Time Slot     : "+ time_slot + "\n");
 			System.out.print("Status        : "+ status + "\n\n");
 		}catch (Exception e){
@@ -510,55 +1173,106 @@ public class DBproject{
 
 	public static void MakeAppointment(DBproject esql) {//4
 		// Given a patient, a doctor and an appointment of the doctor that s/he wants to take, add an appointment to the DB
-			
+		int patient_ID;
+		int doctor_ID;
+		int appnt_ID;
+
+		System.out.print("--------Make Appointment-------\n");
+		do{
+			System.out.print("Patient ID: ");
+			try{
+				patient_ID = Integer.parseInt(readLine());
+				break;
+			}catch (NumberFormatException e){
+				System.out.println("Patient ID must be an integer!\n");
+				continue;
+			}
+		}while(true);
+
+		do{
+			System.out.print("Doctor ID: ");
+			try{
+				doctor_ID = Integer.parseInt(readLine());
+				break;
+			}catch (NumberFormatException e){
+				System.out.println("Doctor ID must be an integer!\n");
+				continue;
+			}
+		}while(true);
+
+		do{
+			System.out.print("Appointment ID: ");
+			try{
+				appnt_ID = Integer.parseInt(readLine());
+				break;
+			}catch (NumberFormatException e){
+				System.out.println("Appointment ID must be an integer!\n");
+				continue;
+			}
+		}while(true);
+
+		try{
+			AppointmentStatus status = esql.getStore().book(patient_ID, doctor_ID, appnt_ID);
+			if(status == AppointmentStatus.AC){
+				System.out.print("\n----Successfully booked appointment " + appnt_ID + " with doctor " + doctor_ID + "-----\n");
+			}else{
+				System.out.print("\n----Appointment " + appnt_ID + " is taken, patient " + patient_ID + " was added to the waitlist-----\n");
+			}
+			System.out.print("Patient ID    : "+ patient_ID + "\n");
+			System.out.print("Doctor ID     : "+ doctor_ID + "\n");
+			System.out.print("Appointment ID: "+ appnt_ID + "\n");
+			System.out.print("Status        : "+ status + "\n\n");
+		}catch (Exception e){
+			System.out.println(e.getMessage());
+		}
 	}
 
 	public static void ListAppointmentsOfDoctor(DBproject esql) {//5/5
-		// For a doctor ID and a date range, find the list of active and available appointments of the doctor
-		int doctor_ID;
-		String st_date_range, ed_date_range;
-		Scanner sc = new Scanner(System.in);
-		SimpleDateFormat sdf_date_range = new SimpleDateFormat("M/d/yyyy");
+		// For one or more doctor IDs and a date range, find the list of active and available appointments of the doctors
+		int[] doctor_IDs;
+		LocalDate st_date_range, ed_date_range;
 		
 		do{
 			System.out.println("\n----List Appointments of Doctor----");
-			System.out.print("Doctor ID: ");
+			System.out.print("Doctor ID (several separated by commas): ");
 			try{
-				doctor_ID = Integer.parseInt(in.readLine());
+				String[] ids = readLine().split(",");
+				doctor_IDs = new int[ids.length];
+				for(int i = 0; i < ids.length; i++){
+					doctor_IDs[i] = Integer.parseInt(ids[i].trim());
+				}
 				break;
-			}catch(Exception e){
+			}catch(NumberFormatException e){
 				System.out.println("Doctor ID must be an integer!\n");
 				continue;
 			}
 		}while(true);
 		
 		do{
-			try{
-				System.out.println("----Date Range----");
-				System.out.print("From: ");
-				st_date_range = sc.nextLine();
-				sdf_date_range.parse(st_date_range);
-				System.out.print("To  : ");
-			  	ed_date_range = sc.nextLine();
-				sdf_date_range.parse(ed_date_range);		
-				break;
-			}catch(ParseException e){
+			System.out.println("----Date Range----");
+			System.out.print("From: ");
+			st_date_range = RecordValidator.parseDate(readLine());
+			System.out.print("To  : ");
+			ed_date_range = RecordValidator.parseDate(readLine());
+			if(st_date_range == null || ed_date_range == null){
 				System.out.println("Invalid date range! Try the format(mm/dd/yyyy)");
 				continue;
 			}
+			if(ed_date_range.isBefore(st_date_range)){
+				System.out.println("Invalid date range! The end date is before the start date");
+				continue;
+			}
+			break;
 		}while(true);		
 		
 		try{
-			String query  = "SELECT D.doctor_ID, D.name, A.adate, A.status\n";
-			       query += "FROM Doctor D, Appointment A, has_appointment H\n";
-			       query += "WHERE D.doctor_ID = H.doctor_id AND H.appt_id = A.appnt_ID AND (A.status = 'AC' OR A.status = 'AV') AND D.doctor_ID = "+ doctor_ID +" AND A.adate BETWEEN \'" + st_date_range + "\' AND \'" + ed_date_range + "\';";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
-			for(int i = 0 ; i < result.size() ; i++){
-				System.out.println("\nDoctor ID   : "+result.get(i).get(0));
-				System.out.println("Doctor Name : "+result.get(i).get(1));
-				System.out.println("Time Slot   : "+result.get(i).get(2));
-				System.out.println("Status      : "+result.get(i).get(3));
+			ResultWriter out = openReportWriter();
+			if(doctor_IDs.length == 1){
+				esql.getStore().listDoctorAppointments(doctor_IDs[0], st_date_range, ed_date_range, out);
+			}else{
+				esql.getStore().listDoctorsAppointments(doctor_IDs, st_date_range, ed_date_range, out);
 			}
+			reportWritten(out);
 			System.out.println();
 		}catch (Exception e){
 			System.out.println(e.getMessage());
@@ -568,63 +1282,65 @@ public class DBproject{
 
 	public static void ListAvailableAppointmentsOfDepartment(DBproject esql) {//6
 		// For a department name and a specific date, find the list of available appointments of the Department
-		Scanner sc = new Scanner (System.in);
                 String departmentName;
-                String date;
-                SimpleDateFormat sdf_date = new SimpleDateFormat("M/d/yyyy");
-                List<String> dp_name = new ArrayList<String>();
+                LocalDate date;
+                TimeSlot window;
+                HospitalStore store = esql.getStore();
 		
 		// show all the department name
-		String q = "SELECT DISTINCT name\n FROM Department;";
 		try{
 			System.out.println("\n----List of All Department Names----");
-			List<List<String>> dn_result = esql.executeQueryAndReturnResult(q);
-			for(int i = 0 ; i < dn_result.size(); i++){
-			System.out.println(dn_result.get(i).get(0));
-			dp_name.add(dn_result.get(i).get(0));	
-		}
+			for(String name : store.departmentNames()){
+				System.out.println(name);
+			}
 		}catch (Exception e){
 			System.out.println(e.getMessage());
+			return;
 		}
 
 		System.out.println("\n----List Available Appointments of Department----");
 	       
         	do{
 			System.out.print("Department Name: ");                              
-                	departmentName = sc.nextLine();
-			if(dp_name.contains(departmentName)){
-				break;
-			}else{
+                	departmentName = readLine();
+			try{
+				if(store.hasDepartmentNamed(departmentName)){
+					break;
+				}
 				System.out.println("Could not find the following department " + departmentName + ". Please Try Again!");
-			}		
+			}catch (SQLException e){
+				System.out.println(e.getMessage());
+				return;
+			}
 		}while(true);
 
                do{
-                try{
                       System.out.print("Enter Date: ");
-                      date = sc.nextLine();
-                      sdf_date.parse(date);
-                      sdf_date.setLenient(false);
-                      break;
-                } catch (ParseException e){
+                      date = RecordValidator.parseDate(readLine());
+                      if(date != null){
+                            break;
+                      }
                       System.out.println("Invalid date! Try the format(mm/dd/yyyy)");
-                }
             } while (true);  
 
-              
-                try{
 
-                    String query = "SELECT DISTINCT A.appnt_ID, A.adate, A.time_slot, A.status\n";
-                    query = query + "FROM Appointment A, Department D\n";
-                    query = query + "WHERE D.name = " + "\'" + departmentName + "\'" + " AND A.adate = " + "\'" + date + "\'" + " AND A.status = 'AV';";
-                    List<List<String>> result = esql.executeQueryAndReturnResult(query);
-                    if(result.size() == 0){
-			System.out.println("Could not find any avalible appoinment for Department " + departmentName + " On " + date + "\n");
+               do{
+                      System.out.print("Time Window (H:m-H:m, blank for the whole day): ");
+                      String input = readLine().trim();
+                      window = input.isEmpty() ? null : TimeSlot.parse(input);
+                      if(input.isEmpty() || window != null){
+                            break;
+                      }
+                      System.out.println("Invalid time window! Try the format(H:m-H:m)");
+            } while (true);
+
+                try{
+                    ResultWriter out = openReportWriter();
+                    store.listAvailableAppointments(departmentName, date, window, out);
+                    reportWritten(out);
+                    if(out.getRowCount() == 0){
+			System.out.println("Could not find any avalible appoinment for Department " + departmentName + " On " + date.format(RecordValidator.DATE_FORMAT) + (window == null ? "" : " between " + window) + "\n");
 		    }
-		    for(int i = 0 ; i < result.size() ; i++){
-                         System.out.print("\n"+result.get(i));
-                         System.out.println("\n");
-                    }
                 } catch (Exception e){
                       System.out.println(e.getMessage());
                 }     
@@ -633,23 +1349,10 @@ public class DBproject{
 
 	public static void ListStatusNumberOfAppointmentsPerDoctor(DBproject esql) {//7
 		// Count number of different types of appointments per doctors and list them in descending order
-		String query =  "SELECT D.doctor_ID, D.name, "+
-			        "SUM(case when A.status = 'PA' then 1 else 0 end) AS \"PA\","+
-		                "SUM(case when A.status = 'AC' then 1 else 0 end) AS \"AC\","+
-			        "SUM(case when A.status = 'AV' then 1 else 0 end) AS \"AV\","+
-			        "SUM(case when A.status = 'WL' then 1 else 0 end) AS \"WL\""+
-			        "FROM Doctor D, Appointment A, has_appointment H\n"+
-				"WHERE D.doctor_ID = H.doctor_id\n"+
-				"AND H.appt_id = A.appnt_ID\n"+
-				"GROUP BY D.doctor_ID, A.status\n"+
-				"ORDER BY D.doctor_ID DESC;";
 		try{
-		    List<List<String>> result = esql.executeQueryAndReturnResult(query);
-		    for(int i = 0 ; i < result.size() ; i++){
-			System.out.println("\nDoctor ID           : " + result.get(i).get(0));
-			System.out.println("Doctor              : " + result.get(i).get(1));
-			System.out.println("Type of Appointment : PC: " + result.get(i).get(2) + " AC: " + result.get(i).get(3) + " AV : " + result.get(i).get(4) + " WL : " + result.get(i).get(5));
-                    }
+		    ResultWriter out = openReportWriter();
+		    esql.getStore().countStatusPerDoctor(out);
+		    reportWritten(out);
 		}catch (Exception e){
 			System.out.println(e.getMessage());
 		}
@@ -659,30 +1362,100 @@ public class DBproject{
 	
 	public static void FindPatientsCountWithStatus(DBproject esql) {//8
 		// Find how many patients per doctor there are with a given status (i.e. PA, AC, AV, WL) and list that number per doctor.
-		String query = "SELECT DISTINCT D.doctor_ID, D.name, " +
-                               "SUM(case when A.status IS NOT NULL then 1 else 0 end) AS \"PATIENT\""+                              
-                               "FROM Doctor D, Appointment A, Patient P, searches S, has_appointment H\n" +
-                               "WHERE S.aid = A.appnt_ID\n" +
-                               "AND S.pid = P.patient_ID\n" +
-                               "AND H.doctor_id = D.doctor_ID\n" +
-                               "GROUP BY D.doctor_ID, P.patient_ID\n" +
-                               "ORDER BY D.doctor_ID DESC;";
-
-                //String query = "SELECT DISTINCT D.doctor_ID, D.name, COUNT(P.name)\n" +
-                               //"FROM Doctor D, Appointment A, Patient P, searches S, has_appointment H\n" +
-                               //"WHERE S.aid = A.appnt_ID AND S.pid = P.patient_ID AND H.doctor_id = D.doctor_ID AND (A.status = 'PA' OR A.status = 'AC' OR A.status = 'AV' OR A.status = 'WL') AND H.doctor_id = D.doctor_ID\n" +
-                //"GROUP BY D.doctor_ID, COUNT(P.name);";   
+                String status;
+                do{
+                        System.out.print("Appointment Status: ");
+                        status = readLine();
+                        if(RecordValidator.isValidStatus(status)){
+                                break;
+                        }
+                        System.out.println("Appointment Status must be : PA(Past), AC(Active), AV(Available) and WL(Waitlisted).");
+                }while(true);
+
                 try{
-                   List<List<String>> result = esql.executeQueryAndReturnResult(query);
-                   for(int i = 0; i < result.size(); i++)
-                   {
-                        System.out.println("\nDoctor ID           : " + result.get(i).get(0));
-                        System.out.println("Doctor Name              : " + result.get(i).get(1));
-                        System.out.println("Number of Patients With A Given Status: " + result.get(i).get(2));
-	           }
+                   ResultWriter out = openReportWriter();
+                   esql.getStore().countPatientsPerDoctor(AppointmentStatus.fromCode(status), out);
+                   reportWritten(out);
                } catch (Exception e){
                       System.out.println(e.getMessage());
                 }
+                System.out.println();
         }
-}         
-       
+
+	public static void CancelAppointment(DBproject esql) {//9
+		// Given a patient and an appointment the patient booked, cancel the booking and promote the oldest waitlisted patient of the doctor and day
+		int patient_ID;
+		int appnt_ID;
+
+		System.out.print("--------Cancel Appointment-------\n");
+		do{
+			System.out.print("Patient ID: ");
+			try{
+				patient_ID = Integer.parseInt(readLine());
+				break;
+			}catch (NumberFormatException e){
+				System.out.println("Patient ID must be an integer!\n");
+				continue;
+			}
+		}while(true);
+
+		do{
+			System.out.print("Appointment ID: ");
+			try{
+				appnt_ID = Integer.parseInt(readLine());
+				break;
+			}catch (NumberFormatException e){
+				System.out.println("Appointment ID must be an integer!\n");
+				continue;
+			}
+		}while(true);
+
+		try{
+			AppointmentStatus status = esql.getStore().cancel(patient_ID, appnt_ID);
+			if(status == AppointmentStatus.AC){
+				System.out.print("\n----Cancelled appointment " + appnt_ID + " of patient " + patient_ID + ", it is offered to the waitlist-----\n\n");
+			}else{
+				System.out.print("\n----Removed patient " + patient_ID + " from the waitlist of appointment " + appnt_ID + "-----\n\n");
+			}
+		}catch (Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
+
+	public static void CapacityReport(DBproject esql) {//10
+		// For a date range, compare the booked load of every staff member's time slot with the capacity requested in request_maintenance
+		LocalDate st_date_range, ed_date_range;
+
+		System.out.println("\n----Capacity Report----");
+		// staff, schedules and request_maintenance live only in the database
+		if(!(esql.getStore() instanceof PostgresStore)){
+			System.out.println("The capacity report needs the Postgres backend (db.store=postgres)\n");
+			return;
+		}
+		do{
+			System.out.println("----Date Range----");
+			System.out.print("From: ");
+			st_date_range = RecordValidator.parseDate(readLine());
+			System.out.print("To  : ");
+			ed_date_range = RecordValidator.parseDate(readLine());
+			if(st_date_range == null || ed_date_range == null){
+				System.out.println("Invalid date range! Try the format(mm/dd/yyyy)");
+				continue;
+			}
+			if(ed_date_range.isBefore(st_date_range)){
+				System.out.println("Invalid date range! The end date is before the start date");
+				continue;
+			}
+			break;
+		}while(true);
+
+		try{
+			ResultWriter out = openReportWriter();
+			new CapacityAnalyzer(esql).write(st_date_range, ed_date_range, out);
+			reportWritten(out);
+			System.out.println();
+		}catch (Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
+}
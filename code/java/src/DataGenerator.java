@@ -0,0 +1,403 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * This class generates a referentially consistent dataset for all ten
+ * tables of sql/create.sql, in the same CSV layout as data/*.csv, at a
+ * configurable scale.  Scale 1 is one million appointments and a hundred
+ * thousand patients; scale 10 is ten million and one million.
+ *
+ * Every value is derived from a hash of (seed, table, row id) rather than
+ * from a shared random stream, so rows can be generated in any order on
+ * any number of threads and a given seed always yields the same files.
+ * Each table is cut into chunks that are generated in parallel and written
+ * in order through a bounded window, so memory use does not grow with the
+ * scale.
+ *
+ * Distribution:
+ *   - appointments span 2020-01-01 to 2022-12-31; the dataset's "today" is
+ *     2022-01-01, before which every appointment is PA, and after which
+ *     they are 50% AV, 35% AC and 15% WL
+ *   - most weekend appointments are moved to the following weekday
+ *   - busy doctors and frequent patients are favoured over quiet ones
+ *   - every appointment has a doctor (has_appointment) and a scheduled
+ *     staff member of the same hospital (schedules); every appointment
+ *     that is not AV has a patient (searches), and number_of_appts matches
+ *     the number of searches rows of the patient
+ */
+public class DataGenerator{
+	static final String[] FIRST_NAMES = {
+		"Alvin", "Carrie", "Calvin", "Armand", "Alberto", "Wyatt", "Camille", "Lindsey", "Maria", "James",
+		"Olivia", "Noah", "Emma", "Liam", "Sophia", "Mason", "Ava", "Ethan", "Mia", "Lucas",
+		"Harper", "Elijah", "Amelia", "Logan", "Evelyn", "Aiden", "Abigail", "Jackson", "Emily", "Daniel"
+	};
+	static final String[] LAST_NAMES = {
+		"Saunders", "Cortez", "Morrison", "Enderle", "Scarlett", "Ruoff", "Holmes", "Sullivan", "Newton", "Garcia",
+		"Smith", "Johnson", "Williams", "Brown", "Jones", "Miller", "Davis", "Lopez", "Wilson", "Anderson",
+		"Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White", "Harris"
+	};
+	static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Street", "Maple Ave.",
+		"Cedar Lane", "Park Road", "Sunset Blvd.", "River Road", "Hill Street"
+	};
+	static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Los Angeles",
+		"San Diego", "Irvine", "Fresno", "Sacramento", "Oakland"
+	};
+	static final String[] HOSPITAL_NAMES = {
+		"Medical Center", "General Hospital", "Community Hospital", "Regional Medical Center", "University Hospital"
+	};
+	static final String[] DEPARTMENTS = {
+		"Cardiology", "Finance", "Gastroenterology", "Neurology", "Oncology", "Pediatric", "Radiology",
+		"Orthopedics", "Dermatology", "Urology", "Psychiatry", "Pathology", "Anesthesiology", "Emergency",
+		"Obstetrics/Gynecology", "Allergy and Immunology", "Ophthalmology", "Nephrology", "Pulmonology",
+		"Endocrinology", "Rheumatology", "Hematology", "Physical Therapy", "Nutrition", "Surgery"
+	};
+	static final String[] SPECIALTIES = {
+		"Allergist", "Cardiologist", "Dermatologist", "Endocrinologist", "Gastroenterologist",
+		"Neurologist", "Oncologist", "Pediatrician", "Radiologist", "Surgeon", "Urologist", "Psychiatrist"
+	};
+	static final String[] TIME_SLOTS = {
+		"8:00-10:00", "10:00-12:00", "13:00-15:00", "15:00-17:00", "17:00-19:00"
+	};
+
+	static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+	static final LocalDate TODAY = LocalDate.of(2022, 1, 1);
+	static final int DAYS = 3 * 365;
+	static final int CHUNK_ROWS = 50000;
+
+	//independent hash streams, one per generated attribute
+	static final int S_DOCTOR_DEPT = 1, S_APPT_DOCTOR = 2, S_APPT_DAY = 3, S_APPT_WEEKEND = 4,
+		S_APPT_STATUS = 5, S_APPT_SLOT = 6, S_APPT_PATIENT = 7, S_APPT_STAFF = 8, S_NAME = 9,
+		S_AGE = 10, S_ADDRESS = 11, S_GENDER = 12, S_REQUEST = 13, S_SPECIALTY = 14;
+
+	final long seed;
+	final int hospitals;
+	final int departments;
+	final int staff;
+	final int doctors;
+	final int patients;
+	final int appointments;
+	private final ExecutorService _pool;
+	private final int _threads;
+
+	public DataGenerator(double scale, long seed, int threads) {
+		this.seed = seed;
+		this.hospitals = atLeastOne(10 * scale);
+		this.departments = this.hospitals * DEPARTMENTS.length;
+		this.staff = Math.max(this.hospitals, atLeastOne(20000 * scale));
+		this.doctors = atLeastOne(20000 * scale);
+		this.patients = atLeastOne(100000 * scale);
+		this.appointments = atLeastOne(1000000 * scale);
+		this._threads = threads;
+		this._pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Appends the CSV line of one row, or nothing to skip the row.
+	 */
+	interface RowWriter{
+		void write(int id, StringBuilder line);
+	}
+
+	/**
+	 * Method to write every table into a directory.
+	 *
+	 * @param dir the output directory, created if missing
+	 * @throws Exception when a file can not be written
+	 */
+	public void generate(File dir) throws Exception {
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Can not create " + dir);
+		}
+		long start = System.nanoTime();
+		try{
+			write(dir, "hospital.csv", this.hospitals, this::hospital);
+			write(dir, "department.csv", this.departments, this::department);
+			write(dir, "staff.csv", this.staff, this::staffMember);
+			write(dir, "doctor.csv", this.doctors, this::doctor);
+			final AtomicIntegerArray counts = appointmentsPerPatient();
+			write(dir, "patient.csv", this.patients, (id, line) -> patient(id, counts.get(id), line));
+			write(dir, "appointment.csv", this.appointments, this::appointment);
+			write(dir, "has_appointment.csv", this.appointments, this::hasAppointment);
+			write(dir, "searches.csv", this.appointments, this::searches);
+			write(dir, "schedules.csv", this.appointments, this::schedules);
+			write(dir, "request_maintenance.csv", this.doctors, this::requestMaintenance);
+		}finally{
+			this._pool.shutdownNow();
+		}
+		System.out.printf("Generated dataset in %.2f s%n", (System.nanoTime() - start) / 1e9);
+	}//end generate
+
+	/*
+	 * Generates a table chunk by chunk on the pool and writes the chunks in
+	 * order, keeping at most two chunks per thread in flight.
+	 */
+	private void write(File dir, String file, final int rows, final RowWriter rw) throws Exception {
+		long start = System.nanoTime();
+		long bytes = 0;
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, file)), 1 << 20);
+		try{
+			ArrayDeque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>>();
+			int maxInFlight = 2 * this._threads;
+			for(int first = 0; first < rows || !window.isEmpty(); ){
+				while(first < rows && window.size() < maxInFlight){
+					final int from = first;
+					final int to = (int) Math.min((long) rows, (long) first + CHUNK_ROWS);
+					window.add(this._pool.submit(() -> chunk(from, to, rw)));
+					first = to;
+				}
+				byte[] data;
+				try{
+					data = window.poll().get();
+				}catch(ExecutionException e){
+					Throwable cause = e.getCause();
+					throw cause instanceof Exception ? (Exception) cause : e;
+				}
+				out.write(data);
+				bytes += data.length;
+			}
+		}finally{
+			out.close();
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-24s %8.1f MB %8.2f s%n", file, bytes / 1048576.0, secs);
+	}//end write
+
+	private static byte[] chunk(int from, int to, RowWriter rw) {
+		StringBuilder sb = new StringBuilder((to - from) * 48);
+		for(int id = from; id < to; id++){
+			int mark = sb.length();
+			rw.write(id, sb);
+			if(sb.length() > mark) sb.append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Counts the searches rows of every patient up front, so the patient
+	 * file can carry a matching number_of_appts.
+	 */
+	private AtomicIntegerArray appointmentsPerPatient() {
+		final AtomicIntegerArray counts = new AtomicIntegerArray(this.patients);
+		IntStream.range(0, this.appointments).parallel().forEach(a -> {
+			if(status(a) != AppointmentStatus.AV) counts.incrementAndGet(patientOf(a));
+		});
+		return counts;
+	}
+
+	//----------------------------------------------------------------------
+	// row generators
+	//----------------------------------------------------------------------
+
+	void hospital(int id, StringBuilder line) {
+		line.append(id).append(',').append(CITIES[id % CITIES.length]).append(' ')
+			.append(HOSPITAL_NAMES[(id / CITIES.length) % HOSPITAL_NAMES.length]);
+		if(id >= CITIES.length * HOSPITAL_NAMES.length) line.append(' ').append(id);
+	}
+
+	void department(int id, StringBuilder line) {
+		line.append(id).append(',').append(DEPARTMENTS[id % DEPARTMENTS.length]).append(',').append(hospitalOfDepartment(id));
+	}
+
+	void staffMember(int id, StringBuilder line) {
+		line.append(id).append(',');
+		name(id, 0, line);
+		line.append(',').append(id % this.hospitals);
+	}
+
+	void doctor(int id, StringBuilder line) {
+		line.append(id).append(',');
+		name(id, 1, line);
+		line.append(',').append(SPECIALTIES[pick(1, S_SPECIALTY, id, SPECIALTIES.length)])
+			.append(',').append(departmentOf(id));
+	}
+
+	void patient(int id, int appts, StringBuilder line) {
+		line.append(id).append(',');
+		name(id, 2, line);
+		line.append(',').append(pick(2, S_GENDER, id, 2) == 0 ? 'M' : 'F')
+			.append(',').append(1 + pick(2, S_AGE, id, 95))
+			.append(',').append(1 + pick(2, S_ADDRESS, id, 9999)).append(' ')
+			.append(STREETS[pick(3, S_ADDRESS, id, STREETS.length)]).append(' ')
+			.append(CITIES[pick(4, S_ADDRESS, id, CITIES.length)])
+			.append(',').append(appts);
+	}
+
+	void appointment(int id, StringBuilder line) {
+		LocalDate d = dateOf(id);
+		line.append(id).append(',').append(d.getMonthValue()).append('/').append(d.getDayOfMonth()).append('/').append(d.getYear())
+			.append(',').append(TIME_SLOTS[slotOf(id)])
+			.append(',').append(status(id).name());
+	}
+
+	void hasAppointment(int id, StringBuilder line) {
+		line.append(id).append(',').append(doctorOf(id));
+	}
+
+	/*
+	 * AV appointments have no patient and get no searches row.
+	 */
+	void searches(int id, StringBuilder line) {
+		if(status(id) == AppointmentStatus.AV){
+			return;
+		}
+		line.append(hospitalOfDoctor(doctorOf(id))).append(',').append(patientOf(id)).append(',').append(id);
+	}
+
+	void schedules(int id, StringBuilder line) {
+		line.append(id).append(',').append(staffOfHospital(hospitalOfDoctor(doctorOf(id)), pick(0, S_APPT_STAFF, id, Integer.MAX_VALUE)));
+	}
+
+	void requestMaintenance(int id, StringBuilder line) {
+		int dept = departmentOf(id);
+		line.append(1 + pick(0, S_REQUEST, id, 4))
+			.append(',').append(DEPARTMENTS[dept % DEPARTMENTS.length])
+			.append(',').append(TIME_SLOTS[pick(1, S_REQUEST, id, TIME_SLOTS.length)])
+			.append(',').append(id)
+			.append(',').append(staffOfHospital(hospitalOfDepartment(dept), pick(2, S_REQUEST, id, Integer.MAX_VALUE)));
+	}
+
+	private void name(int id, int salt, StringBuilder line) {
+		line.append(FIRST_NAMES[pick(salt, S_NAME, id, FIRST_NAMES.length)]).append(' ')
+			.append(LAST_NAMES[pick(salt + 8, S_NAME, id, LAST_NAMES.length)]);
+	}
+
+	//----------------------------------------------------------------------
+	// relationships, all pure functions of the row id
+	//----------------------------------------------------------------------
+
+	int hospitalOfDepartment(int dept) {
+		return dept / DEPARTMENTS.length;
+	}
+
+	int departmentOf(int doctor) {
+		return pick(0, S_DOCTOR_DEPT, doctor, this.departments);
+	}
+
+	int hospitalOfDoctor(int doctor) {
+		return hospitalOfDepartment(departmentOf(doctor));
+	}
+
+	/*
+	 * Staff member i works at hospital i % hospitals; this picks one of the
+	 * staff of hospital h.
+	 */
+	int staffOfHospital(int h, int r) {
+		int perHospital = (this.staff - h + this.hospitals - 1) / this.hospitals;
+		return h + this.hospitals * (r % perHospital);
+	}
+
+	int doctorOf(int appt) {
+		return skewed(S_APPT_DOCTOR, appt, this.doctors);
+	}
+
+	int patientOf(int appt) {
+		return skewed(S_APPT_PATIENT, appt, this.patients);
+	}
+
+	int slotOf(int appt) {
+		double u = uniform(0, S_APPT_SLOT, appt);
+		return u < 0.35 ? 0 : u < 0.65 ? 1 : u < 0.85 ? 2 : u < 0.95 ? 3 : 4;
+	}
+
+	LocalDate dateOf(int appt) {
+		LocalDate d = FIRST_DAY.plusDays(pick(0, S_APPT_DAY, appt, DAYS));
+		DayOfWeek dow = d.getDayOfWeek();
+		if((dow == DayOfWeek.SATURDAY || dow == DayOfWeek.SUNDAY) && uniform(0, S_APPT_WEEKEND, appt) < 0.8){
+			d = d.plusDays(2);
+		}
+		return d;
+	}
+
+	AppointmentStatus status(int appt) {
+		if(dateOf(appt).isBefore(TODAY)) return AppointmentStatus.PA;
+		double u = uniform(0, S_APPT_STATUS, appt);
+		return u < 0.50 ? AppointmentStatus.AV : u < 0.85 ? AppointmentStatus.AC : AppointmentStatus.WL;
+	}
+
+	//----------------------------------------------------------------------
+	// hashing
+	//----------------------------------------------------------------------
+
+	/*
+	 * SplitMix64 finalizer over (seed, salt, stream, id).
+	 */
+	long hash(int salt, int stream, int id) {
+		long z = this.seed + 0x9E3779B97F4A7C15L * (((long) stream << 40) ^ ((long) salt << 32) ^ (id & 0xFFFFFFFFL));
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	double uniform(int salt, int stream, int id) {
+		return (hash(salt, stream, id) >>> 11) * 0x1.0p-53;
+	}
+
+	int pick(int salt, int stream, int id, int bound) {
+		return (int) (uniform(salt, stream, id) * bound);
+	}
+
+	/*
+	 * Draws ids with a linearly falling density, so the lowest ids are
+	 * picked about twice as often as the average and the highest rarely.
+	 */
+	int skewed(int stream, int id, int bound) {
+		double u = uniform(0, stream, id);
+		return Math.min(bound - 1, (int) ((1 - Math.sqrt(1 - u)) * bound));
+	}
+
+	private static int atLeastOne(double n) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(n)));
+	}
+
+	/**
+	 * The generator entry point
+	 *
+	 * @param args <output dir> [--scale F] [--seed N] [--threads N]
+	 */
+	public static void main(String[] args) {
+		double scale = 1;
+		long seed = 166;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean usage = args.length < 1 || args.length % 2 == 0;
+		for(int i = 1; !usage && i < args.length; i += 2){
+			try{
+				if(args[i].equals("--scale")) scale = Double.parseDouble(args[i + 1]);
+				else if(args[i].equals("--seed")) seed = Long.parseLong(args[i + 1]);
+				else if(args[i].equals("--threads")) threads = Math.max(1, Integer.parseInt(args[i + 1]));
+				else usage = true;
+			}catch(NumberFormatException e){
+				usage = true;
+			}
+		}
+		if (usage || scale <= 0) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + DataGenerator.class.getName () +
+		            " <output dir> [--scale F] [--seed N] [--threads N]");
+			return;
+		}//end if
+
+		try{
+			DataGenerator gen = new DataGenerator(scale, seed, threads);
+			System.out.printf("Scale %s, seed %d: %d hospitals, %d departments, %d staff, %d doctors, %d patients, %d appointments%n",
+				String.valueOf(scale), seed, gen.hospitals, gen.departments, gen.staff, gen.doctors, gen.patients, gen.appointments);
+			gen.generate(new File(args[0]));
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,459 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class records the appointment changes DBproject makes in an
+ * append-only log of memory-mapped segment files, so consumers such as
+ * reminders or dashboards can follow them without re-reading the tables:
+ *
+ *   STATUS   Appointment.status was set, by an insert or a booking
+ *   DOCTOR   has_appointment linked an appointment to a doctor
+ *   SEARCH   searches recorded a patient's booking of an appointment
+ *   UNLINK   searches no longer holds that booking: it was cancelled,
+ *            or moved to another appointment by a waitlist promotion
+ *
+ * Events are written after their transaction commits, numbered by a
+ * 64-bit offset that grows by one per event.  Every event is a fixed 32
+ * byte record, so the position of an offset is computed, not searched:
+ *
+ *   0  type      byte, 0 while the record is not written yet
+ *   1  status    byte, AppointmentStatus ordinal or -1
+ *   4  crc       CRC32 of the other 28 bytes
+ *   8  time      long, ms since the epoch
+ *   16 appt, 20 doctor, 24 patient, 28 hospital   int, -1 when not used
+ *
+ * A segment file, named after the offset of its first event, holds a
+ * 16 byte header (magic, version, base offset) and segmentMB worth of
+ * records.  When one is full the log moves on to a new segment and drops
+ * the oldest ones beyond the retention limits.  Readers (EventLog.Reader)
+ * map the segments on their own, possibly in another process, and tail
+ * the log from any offset still retained.
+ *
+ *   db.events.dir             directory of the log (default none, no events)
+ *   db.events.segmentMB       size of a segment file (default 64)
+ *   db.events.retentionHours  drop full segments older than this (default 168, 0 keeps all)
+ *   db.events.maxSegments     drop the oldest segments beyond this count (default 0, no limit)
+ *
+ * Changes made by other programs, by COPY loads (BulkLoader) or by
+ * triggers are not recorded.
+ */
+public class EventLog implements Closeable{
+	static final int MAGIC = 0x45564C47;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_SIZE = 32;
+	static final String SUFFIX = ".events";
+
+	/**
+	 * The kinds of event, stored as ordinal + 1.
+	 */
+	public enum Type{
+		STATUS, DOCTOR, SEARCH, UNLINK
+	}
+
+	/**
+	 * One event read back from the log.
+	 */
+	public static final class Event{
+		public final long offset;
+		public final Type type;
+		public final long timeMillis;
+		public final int apptId;
+		public final int doctorId;
+		public final int patientId;
+		public final int hospitalId;
+		public final AppointmentStatus status;
+
+		Event(long offset, Type type, long timeMillis, int apptId, int doctorId, int patientId, int hospitalId, AppointmentStatus status){
+			this.offset = offset;
+			this.type = type;
+			this.timeMillis = timeMillis;
+			this.apptId = apptId;
+			this.doctorId = doctorId;
+			this.patientId = patientId;
+			this.hospitalId = hospitalId;
+			this.status = status;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(this.offset).append(' ').append(Instant.ofEpochMilli(this.timeMillis)).append(' ').append(this.type);
+			sb.append(" appt=").append(this.apptId);
+			if(this.status != null) sb.append(" status=").append(this.status);
+			if(this.doctorId >= 0) sb.append(" doctor=").append(this.doctorId);
+			if(this.patientId >= 0) sb.append(" patient=").append(this.patientId);
+			if(this.hospitalId >= 0) sb.append(" hospital=").append(this.hospitalId);
+			return sb.toString();
+		}
+	}//end Event
+
+	private final File _dir;
+	private final int _capacity;
+	private final long _retentionMs;
+	private final int _maxSegments;
+	private final byte[] _record = new byte[RECORD_SIZE];
+	private final ByteBuffer _recordBuf = ByteBuffer.wrap(this._record);
+	private final CRC32 _crc = new CRC32();
+	//the segment written to; null when the log is off or closed
+	private MappedByteBuffer _active = null;
+	private long _activeBase = 0;
+	private long _next = 0;
+	private long _dropped = 0;
+
+	private EventLog(File dir, int capacity, long retentionMs, int maxSegments) throws IOException {
+		this._dir = dir;
+		this._capacity = capacity;
+		this._retentionMs = retentionMs;
+		this._maxSegments = maxSegments;
+		if(dir != null) open();
+	}
+
+	/**
+	 * Method to open the log configured by db.events.*.
+	 *
+	 * @return the log, disabled when db.events.dir is not set
+	 * @throws java.io.IOException when the directory or a segment can not
+	 *         be opened
+	 */
+	public static EventLog fromProperties() throws IOException {
+		String dir = System.getProperty("db.events.dir");
+		long segmentBytes = Math.max(1, Long.getLong("db.events.segmentMB", 64L)) << 20;
+		int capacity = (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE, (segmentBytes - HEADER_SIZE) / RECORD_SIZE);
+		long retentionMs = Long.getLong("db.events.retentionHours", 168L) * 3600 * 1000;
+		int maxSegments = Integer.getInteger("db.events.maxSegments", 0);
+		return new EventLog(dir == null || dir.isEmpty() ? null : new File(dir), capacity, retentionMs, maxSegments);
+	}
+
+	/**
+	 * @return true when events are recorded
+	 */
+	public boolean isEnabled() {
+		return this._dir != null;
+	}
+
+	/*
+	 * Continues the last segment after its last complete record, or starts
+	 * the first one.  A record torn by a crash is overwritten.
+	 */
+	private void open() throws IOException {
+		if(!this._dir.isDirectory() && !this._dir.mkdirs()){
+			throw new IOException("Can not create the event log directory " + this._dir);
+		}
+		List<Long> bases = segments(this._dir);
+		if(bases.isEmpty()){
+			startSegment(0);
+			return;
+		}
+		long base = bases.get(bases.size() - 1);
+		MappedByteBuffer map = map(this._dir, base, FileChannel.MapMode.READ_WRITE);
+		int capacity = capacityOf(map);
+		int index = 0;
+		while(index < capacity && read(map, base + index, index, this._crc) != null) index++;
+		this._active = map;
+		this._activeBase = base;
+		this._next = base + index;
+	}//end open
+
+	public void statusChanged(int apptId, AppointmentStatus status) {
+		append(Type.STATUS, status, apptId, -1, -1, -1);
+	}
+
+	public void doctorLinked(int apptId, int doctorId) {
+		append(Type.DOCTOR, null, apptId, doctorId, -1, -1);
+	}
+
+	public void patientLinked(int hospitalId, int patientId, int apptId) {
+		append(Type.SEARCH, null, apptId, -1, patientId, hospitalId);
+	}
+
+	public void patientUnlinked(int hospitalId, int patientId, int apptId) {
+		append(Type.UNLINK, null, apptId, -1, patientId, hospitalId);
+	}
+
+	/**
+	 * Method to append one event.  An event that can not be written is
+	 * reported on standard error and counted, but does not fail the
+	 * change it describes, which is committed already.
+	 *
+	 * @return the offset of the event, or -1 when it was not recorded
+	 */
+	public synchronized long append(Type type, AppointmentStatus status, int apptId, int doctorId, int patientId, int hospitalId) {
+		if(this._active == null) return -1;
+		try{
+			if(this._next - this._activeBase >= capacityOf(this._active)) rotate();
+		}catch(IOException e){
+			this._dropped++;
+			System.err.println("Event log: " + e.getMessage());
+			return -1;
+		}
+		ByteBuffer r = this._recordBuf;
+		r.clear();
+		r.put((byte) (type.ordinal() + 1));
+		r.put(status == null ? (byte) -1 : (byte) status.ordinal());
+		r.putShort((short) 0);
+		r.putInt(0);
+		r.putLong(System.currentTimeMillis());
+		r.putInt(apptId);
+		r.putInt(doctorId);
+		r.putInt(patientId);
+		r.putInt(hospitalId);
+		r.putInt(4, crc(this._crc, this._record));
+
+		int pos = HEADER_SIZE + (int) (this._next - this._activeBase) * RECORD_SIZE;
+		// everything but the type first, so a reader never sees half a record
+		this._active.position(pos + 1);
+		this._active.put(this._record, 1, RECORD_SIZE - 1);
+		VarHandle.releaseFence();
+		this._active.put(pos, this._record[0]);
+		return this._next++;
+	}//end append
+
+	/*
+	 * Flushes the full segment, starts the next one and applies retention.
+	 */
+	private void rotate() throws IOException {
+		this._active.force();
+		startSegment(this._next);
+		retain();
+	}
+
+	private void startSegment(long base) throws IOException {
+		File file = segmentFile(this._dir, base);
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+			raf.setLength(HEADER_SIZE + (long) this._capacity * RECORD_SIZE);
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			map.putInt(0, MAGIC);
+			map.putInt(4, VERSION);
+			map.putLong(8, base);
+			this._active = map;
+			this._activeBase = base;
+			this._next = base;
+		}
+	}//end startSegment
+
+	/*
+	 * Deletes the oldest full segments beyond maxSegments or older than
+	 * the retention time.  The active segment is always kept.
+	 */
+	private void retain() {
+		List<Long> bases = segments(this._dir);
+		long cutoff = System.currentTimeMillis() - this._retentionMs;
+		for(int i = 0; i < bases.size() - 1; i++){
+			File file = segmentFile(this._dir, bases.get(i));
+			boolean tooMany = this._maxSegments > 0 && bases.size() - i > this._maxSegments;
+			boolean tooOld = this._retentionMs > 0 && file.lastModified() < cutoff;
+			if(!tooMany && !tooOld) break;
+			if(!file.delete()) System.err.println("Event log: could not delete " + file);
+		}
+	}//end retain
+
+	/**
+	 * @return the offset the next event will get
+	 */
+	public synchronized long getNextOffset() {
+		return this._next;
+	}
+
+	/**
+	 * @return the events that could not be written
+	 */
+	public synchronized long getDropped() {
+		return this._dropped;
+	}
+
+	/**
+	 * Method to flush the active segment to disk and stop recording.
+	 */
+	@Override
+	public synchronized void close() {
+		if(this._active == null) return;
+		this._active.force();
+		this._active = null;
+	}
+
+	static int crc(CRC32 crc, byte[] record) {
+		crc.reset();
+		crc.update(record, 0, 4);
+		crc.update(record, 8, RECORD_SIZE - 8);
+		return (int) crc.getValue();
+	}
+
+	static File segmentFile(File dir, long base) {
+		return new File(dir, String.format("%020d%s", base, SUFFIX));
+	}
+
+	/*
+	 * The base offsets of the segments of a directory, ascending.
+	 */
+	static List<Long> segments(File dir) {
+		List<Long> bases = new ArrayList<Long>();
+		String[] names = dir.list();
+		if(names == null) return bases;
+		for(String name : names){
+			if(!name.endsWith(SUFFIX)) continue;
+			try{
+				bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+			}catch(NumberFormatException e){
+				// not a segment
+			}
+		}
+		Collections.sort(bases);
+		return bases;
+	}//end segments
+
+	static MappedByteBuffer map(File dir, long base, FileChannel.MapMode mode) throws IOException {
+		File file = segmentFile(dir, base);
+		try(RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")){
+			MappedByteBuffer map = raf.getChannel().map(mode, 0, raf.length());
+			if(raf.length() < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getLong(8) != base){
+				throw new IOException(file + " is not an event log segment");
+			}
+			return map;
+		}
+	}//end map
+
+	static int capacityOf(MappedByteBuffer map) {
+		return (map.capacity() - HEADER_SIZE) / RECORD_SIZE;
+	}
+
+	/*
+	 * Decodes the record at index of a segment, or null while it is not
+	 * completely written.
+	 */
+	static Event read(MappedByteBuffer map, long offset, int index, CRC32 crc) {
+		int pos = HEADER_SIZE + index * RECORD_SIZE;
+		byte type = map.get(pos);
+		if(type <= 0 || type > Type.values().length) return null;
+		VarHandle.acquireFence();
+		byte[] record = new byte[RECORD_SIZE];
+		for(int i = 0; i < RECORD_SIZE; i++) record[i] = map.get(pos + i);
+		ByteBuffer r = ByteBuffer.wrap(record);
+		if(r.getInt(4) != crc(crc, record)) return null;
+		byte status = r.get(1);
+		return new Event(offset, Type.values()[type - 1], r.getLong(8), r.getInt(16), r.getInt(20), r.getInt(24), r.getInt(28),
+			status < 0 ? null : AppointmentStatus.values()[status]);
+	}//end read
+
+	/**
+	 * A tailing reader of a log directory, independent of the writer and
+	 * usable from another process.  Not thread-safe.
+	 */
+	public static class Reader implements Closeable{
+		private final File _dir;
+		private final CRC32 _crc = new CRC32();
+		private long _offset;
+		private MappedByteBuffer _segment = null;
+		private long _base = 0;
+
+		/**
+		 * @param dir the log directory
+		 * @param offset the first event to read; when it was dropped by
+		 *        retention, reading starts at the oldest event retained
+		 */
+		public Reader(File dir, long offset) {
+			this._dir = dir;
+			this._offset = offset;
+		}
+
+		/**
+		 * @return the offset of the next event to be read
+		 */
+		public long getOffset() {
+			return this._offset;
+		}
+
+		/**
+		 * Method to read the next event, if it was written.
+		 *
+		 * @return the event, or null when the reader has caught up
+		 */
+		public Event next() throws IOException {
+			if(this._segment == null || this._offset - this._base >= capacityOf(this._segment)){
+				if(!openSegment()) return null;
+			}
+			Event e = read(this._segment, this._offset, (int) (this._offset - this._base), this._crc);
+			if(e != null) this._offset++;
+			return e;
+		}
+
+		/**
+		 * Method to wait for the next event.
+		 *
+		 * @param timeoutMs the longest wait
+		 * @return the event, or null when none arrived in time
+		 */
+		public Event poll(long timeoutMs) throws IOException, InterruptedException {
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			long pause = 1;
+			while(true){
+				Event e = next();
+				if(e != null) return e;
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0) return null;
+				Thread.sleep(Math.min(pause, left));
+				pause = Math.min(pause * 2, 50);
+			}
+		}//end poll
+
+		/*
+		 * Maps the segment holding the current offset; false when it does
+		 * not exist yet.
+		 */
+		private boolean openSegment() throws IOException {
+			List<Long> bases = segments(this._dir);
+			if(bases.isEmpty()) return false;
+			if(this._offset < bases.get(0)){
+				this._offset = bases.get(0);
+			}
+			for(int i = bases.size() - 1; i >= 0; i--){
+				long base = bases.get(i);
+				if(base > this._offset) continue;
+				if(this._segment != null && base == this._base) return false;
+				MappedByteBuffer map = map(this._dir, base, FileChannel.MapMode.READ_ONLY);
+				if(this._offset - base >= capacityOf(map)) return false;
+				this._segment = map;
+				this._base = base;
+				return true;
+			}
+			return false;
+		}//end openSegment
+
+		@Override
+		public void close() {
+			this._segment = null;
+		}
+	}//end Reader
+
+	/**
+	 * Prints the events of a log directory, optionally following it.
+	 *
+	 * @param args <dir> [from offset] [--follow]
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1 || args.length > 3){
+			System.err.println("Usage: java EventLog <dir> [from offset] [--follow]");
+			return;
+		}
+		boolean follow = args[args.length - 1].equals("--follow");
+		long from = args.length > (follow ? 2 : 1) ? Long.parseLong(args[1]) : 0;
+		try(Reader reader = new Reader(new File(args[0]), from)){
+			while(true){
+				Event e = follow ? reader.poll(1000) : reader.next();
+				if(e != null) System.out.println(e);
+				else if(!follow) break;
+			}
+		}
+	}//end main
+}
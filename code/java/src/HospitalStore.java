@@ -0,0 +1,110 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The data operations behind the DBproject menu, one per option, so the
+ * menu runs unchanged against either backend:
+ *   - PostgresStore, the database through DBproject and its caches, and
+ *   - InMemoryStore, an in-process copy of the code/data tables.
+ *
+ * The report methods write the same columns, in the same order, as the
+ * queries of options 5-8 and close the writer when they are done.
+ * StoreConformance compares the two backends.  Option 10 is not here: it
+ * reads the staff tables, which only the database holds, so the menu runs
+ * CapacityAnalyzer directly on the Postgres backend.
+ */
+public interface HospitalStore extends AutoCloseable{
+
+	/**
+	 * Methods to add a doctor, patient or appointment.  A null ID is
+	 * generated by the store.
+	 *
+	 * @return the ID of the new row
+	 * @throws java.sql.SQLException when the row is refused
+	 */
+	int addDoctor(Integer doctorId, String name, String specialty, int deptId) throws SQLException;
+
+	int addPatient(Integer patientId, String name, String gender, int age, String address, int numberOfAppts) throws SQLException;
+
+	int addAppointment(Integer apptId, LocalDate date, String timeSlot, String status) throws SQLException;
+
+	/**
+	 * Method to book an appointment of a doctor for a patient, with the
+	 * rules of BookingEngine.
+	 *
+	 * @return AC when the patient got the appointment, WL when waitlisted
+	 * @throws java.sql.SQLException when the booking is refused or fails
+	 */
+	AppointmentStatus book(int patientId, int doctorId, int apptId) throws SQLException;
+
+	/**
+	 * Method to cancel a patient's booking of an appointment, with the
+	 * rules of WaitlistScheduler.
+	 *
+	 * @return the status the booking had: AC when it held the appointment,
+	 *         WL when it was waitlisted
+	 * @throws java.sql.SQLException when there is no such booking or the
+	 *         cancellation fails
+	 */
+	AppointmentStatus cancel(int patientId, int apptId) throws SQLException;
+
+	/**
+	 * @return true when the department exists
+	 */
+	boolean hasDepartment(int deptId) throws SQLException;
+
+	/**
+	 * @return true when at least one department has this name
+	 */
+	boolean hasDepartmentNamed(String name) throws SQLException;
+
+	/**
+	 * @return the distinct department names, sorted
+	 */
+	List<String> departmentNames() throws SQLException;
+
+	/**
+	 * Option 5: the active and available appointments of a doctor between
+	 * two dates, both included.
+	 *
+	 * @return the number of rows written
+	 */
+	long listDoctorAppointments(int doctorId, LocalDate from, LocalDate to, ResultWriter out) throws SQLException;
+
+	/**
+	 * Option 5 for several doctors in one report, their rows in the order
+	 * the doctors are given.
+	 *
+	 * @return the number of rows written
+	 */
+	long listDoctorsAppointments(int[] doctorIds, LocalDate from, LocalDate to, ResultWriter out) throws SQLException;
+
+	/**
+	 * Option 6: the available appointments of the departments with this
+	 * name on a date, each appointment once.
+	 *
+	 * @param window only slots overlapping it, or null for the whole day
+	 * @return the number of rows written
+	 */
+	long listAvailableAppointments(String deptName, LocalDate date, TimeSlot window, ResultWriter out) throws SQLException;
+
+	/**
+	 * Option 7: the appointments of every doctor per status, highest
+	 * doctor ID first.
+	 *
+	 * @return the number of rows written
+	 */
+	long countStatusPerDoctor(ResultWriter out) throws SQLException;
+
+	/**
+	 * Option 8: the distinct patients of every doctor over appointments
+	 * with the given status, highest doctor ID first.
+	 *
+	 * @return the number of rows written
+	 */
+	long countPatientsPerDoctor(AppointmentStatus status, ResultWriter out) throws SQLException;
+
+	@Override
+	void close();
+}
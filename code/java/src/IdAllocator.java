@@ -0,0 +1,77 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class hands out IDs for new rows from blocks reserved on one of the
+ * sequences of sql/sequences.sql (hi-lo allocation).  nextval returns the
+ * first ID of a block as wide as the sequence INCREMENT, and the calling
+ * thread owns the whole block: only the first insert of every block makes
+ * a round trip, and concurrent writers never wait for each other.
+ *
+ * IDs left in a block when the program ends are skipped, never reused, so
+ * generated IDs are unique but not dense, and only roughly ordered across
+ * threads.
+ */
+public class IdAllocator{
+	//the first ID of the next block and the block size, in one round trip
+	static final String NEXT_BLOCK =
+		"SELECT nextval(?::regclass), S.increment_by FROM pg_sequences S\n" +
+		"WHERE S.schemaname = current_schema() AND S.sequencename = ?;";
+
+	private final DBproject _esql;
+	private final String _sequence;
+	//next ID and end of the block of each thread, empty at first
+	private final ThreadLocal<long[]> _block = ThreadLocal.withInitial(() -> new long[2]);
+
+	/**
+	 * @param esql the database, whose primary pool is used
+	 * @param sequence the sequence, e.g. doctor_id_seq
+	 */
+	public IdAllocator(DBproject esql, String sequence) {
+		this._esql = esql;
+		this._sequence = sequence;
+	}
+
+	/**
+	 * Method to take the next ID of the calling thread's block, reserving
+	 * a new block when it is used up.
+	 *
+	 * @return an ID no other caller gets
+	 * @throws java.sql.SQLException when no block could be reserved, e.g.
+	 *         because sql/sequences.sql was not run
+	 */
+	public int next() throws SQLException {
+		long[] block = this._block.get();
+		if(block[0] >= block[1]) reserve(block);
+		long id = block[0]++;
+		if(id > Integer.MAX_VALUE) throw new SQLException("Sequence " + this._sequence + " is past the largest INTEGER");
+		return (int) id;
+	}
+
+	private void reserve(long[] block) throws SQLException {
+		Connection conn = this._esql.getConnection();
+		try{
+			PreparedStatement stmt = this._esql.prepareStatement(conn, NEXT_BLOCK);
+			DBproject.bindParameters(stmt, this._sequence, this._sequence);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				if(!rs.next()) throw new SQLException("Sequence " + this._sequence + " not found, run sql/sequences.sql");
+				block[0] = rs.getLong(1);
+				block[1] = block[0] + Math.max(1, rs.getLong(2));
+			}finally{
+				rs.close();
+			}
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+	}//end reserve
+
+	/**
+	 * @return the sequence the IDs come from
+	 */
+	public String getSequence() {
+		return this._sequence;
+	}
+}
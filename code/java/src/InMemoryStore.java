@@ -0,0 +1,754 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * HospitalStore held entirely in this process, loaded from the CSV files
+ * of code/data (the same files sql/load.sql copies into Postgres).  Only
+ * the tables the menu reads are loaded: Department, Doctor, Patient,
+ * Appointment, has_appointment and searches.
+ *
+ * Every table is stored column by column in primitive arrays (ints for
+ * IDs, epoch days and slot minutes, a byte per status), with strings only
+ * for the text columns.  The join keys are indexed:
+ *   - hash indexes on Doctor.doctor_ID, Department.dept_ID,
+ *     Patient.patient_ID and Appointment.appnt_ID,
+ *   - hash multi-indexes on has_appointment.doctor_id, .appt_id and
+ *     searches.aid, chained through an int array per index, and
+ *   - a sorted index on Appointment.adate,
+ * so each report touches only the rows it returns.
+ *
+ * Waitlisted bookings queue per doctor and day in booking order, as in
+ * WaitlistScheduler, and a cancelled booking that held its appointment
+ * promotes the head of its queue at once.  Bookings waitlisted in the CSV
+ * files are not queued, like the rows the waitlist table does not have.
+ *
+ * Changes live as long as the process; nothing is written back.  All
+ * methods are synchronized, which serializes writers and readers.
+ *
+ *   db.store          memory to run DBproject on this store (default postgres)
+ *   db.store.dataDir  directory of the CSV files (default ../data)
+ */
+public class InMemoryStore implements HospitalStore{
+	private static final AppointmentStatus[] STATUSES = AppointmentStatus.values();
+	private static final byte NO_STATUS = -1;
+	private static final int DELETED = -1;
+
+	/**
+	 * A growable column of ints.
+	 */
+	static final class IntColumn{
+		private int[] _values = new int[256];
+		private int _size = 0;
+
+		int add(int v) {
+			if(this._size == this._values.length) this._values = Arrays.copyOf(this._values, this._size * 2);
+			this._values[this._size] = v;
+			return this._size++;
+		}
+
+		int get(int row) {
+			return this._values[row];
+		}
+
+		void set(int row, int v) {
+			this._values[row] = v;
+		}
+
+		int size() {
+			return this._size;
+		}
+	}//end IntColumn
+
+	/**
+	 * A growable column of small codes.
+	 */
+	static final class ByteColumn{
+		private byte[] _values = new byte[256];
+		private int _size = 0;
+
+		int add(byte v) {
+			if(this._size == this._values.length) this._values = Arrays.copyOf(this._values, this._size * 2);
+			this._values[this._size] = v;
+			return this._size++;
+		}
+
+		byte get(int row) {
+			return this._values[row];
+		}
+
+		void set(int row, byte v) {
+			this._values[row] = v;
+		}
+	}//end ByteColumn
+
+	/**
+	 * Open addressing hash index from an int key to a row, with linear
+	 * probing.  Rows are stored plus one so that 0 marks a free slot.
+	 */
+	static final class IntIndex{
+		private int[] _keys = new int[512];
+		private int[] _rows = new int[512];
+		private int _size = 0;
+
+		/**
+		 * @return the row of key, or -1 when it is not indexed
+		 */
+		int get(int key) {
+			int mask = this._keys.length - 1;
+			for(int i = mix(key) & mask; this._rows[i] != 0; i = (i + 1) & mask){
+				if(this._keys[i] == key) return this._rows[i] - 1;
+			}
+			return -1;
+		}
+
+		/**
+		 * Method to map key to row, replacing the row it had.
+		 */
+		void put(int key, int row) {
+			if(2 * (this._size + 1) > this._keys.length) grow();
+			int mask = this._keys.length - 1;
+			int i = mix(key) & mask;
+			while(this._rows[i] != 0 && this._keys[i] != key) i = (i + 1) & mask;
+			if(this._rows[i] == 0) this._size++;
+			this._keys[i] = key;
+			this._rows[i] = row + 1;
+		}
+
+		private void grow() {
+			int[] keys = this._keys;
+			int[] rows = this._rows;
+			this._keys = new int[keys.length * 2];
+			this._rows = new int[keys.length * 2];
+			this._size = 0;
+			for(int i = 0; i < keys.length; i++){
+				if(rows[i] != 0) put(keys[i], rows[i] - 1);
+			}
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}//end IntIndex
+
+	/**
+	 * Hash index from an int key to any number of rows: the index holds
+	 * the last row added for the key and every row links to the one added
+	 * before it.
+	 */
+	static final class IntMultiIndex{
+		private final IntIndex _last = new IntIndex();
+		private final IntColumn _previous = new IntColumn();
+
+		/**
+		 * Method to index a row; rows must be added in order 0, 1, 2...
+		 */
+		void add(int key, int row) {
+			this._previous.add(this._last.get(key));
+			this._last.put(key, row);
+		}
+
+		/**
+		 * @return the last row added for key, or -1 when there is none
+		 */
+		int first(int key) {
+			return this._last.get(key);
+		}
+
+		/**
+		 * @return the row added for the same key before row, or -1
+		 */
+		int next(int row) {
+			return this._previous.get(row);
+		}
+	}//end IntMultiIndex
+
+	/**
+	 * Index of the rows ordered by an int key, as key << 32 | row in one
+	 * sorted long array.  Rows added out of order are inserted in place.
+	 */
+	static final class SortedIntIndex{
+		private long[] _entries = new long[256];
+		private int _size = 0;
+
+		void add(int key, int row) {
+			long entry = ((long) key << 32) | (row & 0xFFFFFFFFL);
+			int at = this._size;
+			if(at > 0 && this._entries[at - 1] > entry){
+				at = -Arrays.binarySearch(this._entries, 0, this._size, entry) - 1;
+			}
+			if(this._size == this._entries.length) this._entries = Arrays.copyOf(this._entries, this._size * 2);
+			System.arraycopy(this._entries, at, this._entries, at + 1, this._size - at);
+			this._entries[at] = entry;
+			this._size++;
+		}
+
+		/**
+		 * @return the position of the first entry with a key of at least key
+		 */
+		int lowerBound(int key) {
+			int at = Arrays.binarySearch(this._entries, 0, this._size, (long) key << 32);
+			return at < 0 ? -at - 1 : at;
+		}
+
+		int size() {
+			return this._size;
+		}
+
+		int keyAt(int pos) {
+			return (int) (this._entries[pos] >> 32);
+		}
+
+		int rowAt(int pos) {
+			return (int) this._entries[pos];
+		}
+	}//end SortedIntIndex
+
+	//Department
+	private final IntColumn _deptId = new IntColumn();
+	private final List<String> _deptName = new ArrayList<String>();
+	private final IntColumn _deptHospital = new IntColumn();
+	private final IntIndex _deptById = new IntIndex();
+	//Doctor
+	private final IntColumn _doctorId = new IntColumn();
+	private final List<String> _doctorName = new ArrayList<String>();
+	private final List<String> _doctorSpecialty = new ArrayList<String>();
+	private final IntColumn _doctorDept = new IntColumn();
+	private final IntIndex _doctorById = new IntIndex();
+	//Patient
+	private final IntColumn _patientId = new IntColumn();
+	private final List<String> _patientName = new ArrayList<String>();
+	private final List<String> _patientGender = new ArrayList<String>();
+	private final IntColumn _patientAge = new IntColumn();
+	private final List<String> _patientAddress = new ArrayList<String>();
+	private int[] _patientAppts = new int[256];
+	private final IntIndex _patientById = new IntIndex();
+	//Appointment; the slot is kept as text for output and as minutes to compare
+	private final IntColumn _apptId = new IntColumn();
+	private final IntColumn _apptDay = new IntColumn();
+	private final List<String> _apptSlot = new ArrayList<String>();
+	private final IntColumn _apptStart = new IntColumn();
+	private final IntColumn _apptEnd = new IntColumn();
+	private final ByteColumn _apptStatus = new ByteColumn();
+	private final IntIndex _apptById = new IntIndex();
+	private final SortedIntIndex _apptByDay = new SortedIntIndex();
+	//has_appointment
+	private final IntColumn _haAppt = new IntColumn();
+	private final IntColumn _haDoctor = new IntColumn();
+	private final IntMultiIndex _haByDoctor = new IntMultiIndex();
+	private final IntMultiIndex _haByAppt = new IntMultiIndex();
+	//searches; a deleted row keeps its place with patient DELETED
+	private final IntColumn _searchHospital = new IntColumn();
+	private final IntColumn _searchPatient = new IntColumn();
+	private final IntColumn _searchAppt = new IntColumn();
+	private final IntMultiIndex _searchByAppt = new IntMultiIndex();
+	//waitlisted bookings as { appnt_ID, patient_ID }, per doctor << 32 | day, oldest first
+	private final Map<Long, ArrayDeque<int[]>> _waitlist = new HashMap<Long, ArrayDeque<int[]>>();
+	//IDs given to rows added without one: one past the largest in use
+	private int _nextDoctorId = 0;
+	private int _nextPatientId = 0;
+	private int _nextApptId = 0;
+
+	private InMemoryStore() {
+	}
+
+	/**
+	 * Method to load the store from the CSV files of a directory.
+	 *
+	 * @param dir the directory holding department.csv, doctor.csv,
+	 *        patient.csv, appointment.csv, has_appointment.csv and
+	 *        searches.csv
+	 * @return the loaded store
+	 * @throws java.io.IOException when a file can not be read or a record
+	 *         is malformed or breaks a key
+	 */
+	public static InMemoryStore load(File dir) throws IOException {
+		InMemoryStore store = new InMemoryStore();
+		try{
+			for(String[] f : read(dir, "department.csv", 3)){
+				store.insertDepartment(Integer.parseInt(f[0]), f[1], Integer.parseInt(f[2]));
+			}
+			for(String[] f : read(dir, "doctor.csv", 4)){
+				store.addDoctor(Integer.parseInt(f[0]), f[1], f[2], Integer.parseInt(f[3]));
+			}
+			for(String[] f : read(dir, "patient.csv", 6)){
+				store.addPatient(Integer.parseInt(f[0]), f[1], f[2], Integer.parseInt(f[3]), f[4], Integer.parseInt(f[5]));
+			}
+			for(String[] f : read(dir, "appointment.csv", 4)){
+				LocalDate date = RecordValidator.parseDate(f[1]);
+				if(date == null) throw new IOException("appointment.csv: invalid date " + f[1]);
+				store.addAppointment(Integer.parseInt(f[0]), date, f[2], f[3]);
+			}
+			for(String[] f : read(dir, "has_appointment.csv", 2)){
+				store.insertHasAppointment(Integer.parseInt(f[0]), Integer.parseInt(f[1]));
+			}
+			for(String[] f : read(dir, "searches.csv", 3)){
+				store.insertSearch(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+			}
+		}catch(NumberFormatException | SQLException e){
+			throw new IOException(e.getMessage(), e);
+		}
+		return store;
+	}//end load
+
+	/**
+	 * Method to load the store from db.store.dataDir.
+	 */
+	public static InMemoryStore fromProperties() throws IOException {
+		File dir = new File(System.getProperty("db.store.dataDir", "../data"));
+		long start = System.nanoTime();
+		InMemoryStore store = load(dir);
+		System.out.printf("Loaded %s in %.1f ms%n", dir, (System.nanoTime() - start) / 1e6);
+		return store;
+	}
+
+	/*
+	 * Reads the records of one file, split like COPY ... DELIMITER ','.
+	 */
+	private static List<String[]> read(File dir, String file, int fields) throws IOException {
+		List<String[]> records = new ArrayList<String[]>();
+		try(BufferedReader reader = Files.newBufferedReader(new File(dir, file).toPath(), StandardCharsets.UTF_8)){
+			String line;
+			int lineNo = 0;
+			while((line = reader.readLine()) != null){
+				lineNo++;
+				if(line.isEmpty()) continue;
+				String[] f = line.split(",", -1);
+				if(f.length != fields){
+					throw new IOException(file + ":" + lineNo + ": expected " + fields + " fields, found " + f.length);
+				}
+				records.add(f);
+			}
+		}
+		return records;
+	}//end read
+
+	private void insertDepartment(int deptId, String name, int hospitalId) throws SQLException {
+		if(this._deptById.get(deptId) >= 0) throw new SQLException("Department " + deptId + " already exists");
+		int row = this._deptId.add(deptId);
+		this._deptName.add(name);
+		this._deptHospital.add(hospitalId);
+		this._deptById.put(deptId, row);
+	}
+
+	private void insertHasAppointment(int apptId, int doctorId) throws SQLException {
+		for(int r = this._haByAppt.first(apptId); r >= 0; r = this._haByAppt.next(r)){
+			if(this._haDoctor.get(r) == doctorId){
+				throw new SQLException("Appointment " + apptId + " is already linked to doctor " + doctorId);
+			}
+		}
+		int row = this._haAppt.add(apptId);
+		this._haDoctor.add(doctorId);
+		this._haByDoctor.add(doctorId, row);
+		this._haByAppt.add(apptId, row);
+	}
+
+	/*
+	 * Adds a searches row; false when the same row exists already.
+	 */
+	private boolean insertSearch(int hospitalId, int patientId, int apptId) {
+		for(int r = this._searchByAppt.first(apptId); r >= 0; r = this._searchByAppt.next(r)){
+			if(this._searchPatient.get(r) == patientId && this._searchHospital.get(r) == hospitalId) return false;
+		}
+		int row = this._searchHospital.add(hospitalId);
+		this._searchPatient.add(patientId);
+		this._searchAppt.add(apptId);
+		this._searchByAppt.add(apptId, row);
+		return true;
+	}
+
+	@Override
+	public synchronized int addDoctor(Integer doctorId, String name, String specialty, int deptId) throws SQLException {
+		if(doctorId == null) doctorId = this._nextDoctorId;
+		if(this._doctorById.get(doctorId) >= 0) throw new SQLException("Doctor " + doctorId + " already exists");
+		if(this._deptById.get(deptId) < 0) throw new SQLException("Department " + deptId + " does not exist");
+		int row = this._doctorId.add(doctorId);
+		this._doctorName.add(name);
+		this._doctorSpecialty.add(specialty);
+		this._doctorDept.add(deptId);
+		this._doctorById.put(doctorId, row);
+		this._nextDoctorId = Math.max(this._nextDoctorId, doctorId + 1);
+		return doctorId;
+	}
+
+	@Override
+	public synchronized int addPatient(Integer patientId, String name, String gender, int age, String address, int numberOfAppts) throws SQLException {
+		if(patientId == null) patientId = this._nextPatientId;
+		if(this._patientById.get(patientId) >= 0) throw new SQLException("Patient " + patientId + " already exists");
+		if(!RecordValidator.isValidGender(gender)) throw new SQLException("Invalid gender " + gender);
+		int row = this._patientId.add(patientId);
+		this._patientName.add(name);
+		this._patientGender.add(gender);
+		this._patientAge.add(age);
+		this._patientAddress.add(address);
+		if(row == this._patientAppts.length) this._patientAppts = Arrays.copyOf(this._patientAppts, row * 2);
+		this._patientAppts[row] = numberOfAppts;
+		this._patientById.put(patientId, row);
+		this._nextPatientId = Math.max(this._nextPatientId, patientId + 1);
+		return patientId;
+	}
+
+	@Override
+	public synchronized int addAppointment(Integer apptId, LocalDate date, String timeSlot, String status) throws SQLException {
+		if(apptId == null) apptId = this._nextApptId;
+		if(this._apptById.get(apptId) >= 0) throw new SQLException("Appointment " + apptId + " already exists");
+		TimeSlot slot = timeSlot == null ? null : TimeSlot.parse(timeSlot);
+		if(timeSlot != null && slot == null) throw new SQLException("Invalid time slot " + timeSlot);
+		if(status != null && !RecordValidator.isValidStatus(status)) throw new SQLException("Invalid status " + status);
+		int row = this._apptId.add(apptId);
+		int day = (int) date.toEpochDay();
+		this._apptDay.add(day);
+		this._apptSlot.add(timeSlot);
+		this._apptStart.add(slot == null ? -1 : slot.getStartMinute());
+		this._apptEnd.add(slot == null ? -1 : slot.getEndMinute());
+		this._apptStatus.add(status == null ? NO_STATUS : (byte) AppointmentStatus.fromCode(status).ordinal());
+		this._apptById.put(apptId, row);
+		this._apptByDay.add(day, row);
+		this._nextApptId = Math.max(this._nextApptId, apptId + 1);
+		return apptId;
+	}//end addAppointment
+
+	/**
+	 * Books in the order BookingEngine checks: the doctor, the owner of the
+	 * appointment, its status, the patient's earlier booking and the
+	 * patient.  Nothing changes unless every check passes.
+	 */
+	@Override
+	public synchronized AppointmentStatus book(int patientId, int doctorId, int apptId) throws SQLException {
+		int doctor = this._doctorById.get(doctorId);
+		int dept = doctor < 0 ? -1 : this._deptById.get(this._doctorDept.get(doctor));
+		if(dept < 0){
+			throw new SQLException("Doctor " + doctorId + " does not exist");
+		}
+		int hid = this._deptHospital.get(dept);
+		boolean linked = false;
+		for(int r = this._haByAppt.first(apptId); r >= 0; r = this._haByAppt.next(r)){
+			if(this._haDoctor.get(r) != doctorId){
+				throw new SQLException("Appointment " + apptId + " belongs to doctor " + this._haDoctor.get(r));
+			}
+			linked = true;
+		}
+		int appt = this._apptById.get(apptId);
+		if(appt < 0){
+			throw new SQLException("Appointment " + apptId + " does not exist");
+		}
+		byte current = this._apptStatus.get(appt);
+		if(current == NO_STATUS || current == AppointmentStatus.PA.ordinal()){
+			throw new SQLException("Appointment " + apptId + " can not be booked, its status is " + (current == NO_STATUS ? null : STATUSES[current]));
+		}
+		AppointmentStatus status = current == AppointmentStatus.AV.ordinal() ? AppointmentStatus.AC : AppointmentStatus.WL;
+		for(int r = this._searchByAppt.first(apptId); r >= 0; r = this._searchByAppt.next(r)){
+			if(this._searchPatient.get(r) == patientId && this._searchHospital.get(r) == hid){
+				throw new SQLException("Patient " + patientId + " already booked appointment " + apptId);
+			}
+		}
+		int patient = this._patientById.get(patientId);
+		if(patient < 0){
+			throw new SQLException("Patient " + patientId + " does not exist");
+		}
+
+		this._apptStatus.set(appt, (byte) status.ordinal());
+		if(!linked){
+			insertHasAppointment(apptId, doctorId);
+		}
+		insertSearch(hid, patientId, apptId);
+		this._patientAppts[patient]++;
+		if(status == AppointmentStatus.WL){
+			this._waitlist.computeIfAbsent(waitlistKey(doctorId, this._apptDay.get(appt)), k -> new ArrayDeque<int[]>())
+				.add(new int[]{ apptId, patientId });
+		}
+		return status;
+	}//end book
+
+	/**
+	 * Cancels in the order WaitlistScheduler does: the appointment's
+	 * doctor, the patient's request, the patient's booking.  A booking
+	 * that held the appointment makes it AV and then hands it to the
+	 * oldest request of the doctor and day, which the database does on a
+	 * worker thread a moment later.
+	 */
+	@Override
+	public synchronized AppointmentStatus cancel(int patientId, int apptId) throws SQLException {
+		int appt = this._apptById.get(apptId);
+		int link = appt < 0 ? -1 : this._haByAppt.first(apptId);
+		if(link < 0){
+			throw new SQLException("Appointment " + apptId + " is not booked with any doctor");
+		}
+		int doctorId = this._haDoctor.get(link);
+		int search = findSearch(patientId, apptId);
+		if(search < 0){
+			throw new SQLException("Patient " + patientId + " has no booking of appointment " + apptId);
+		}
+		ArrayDeque<int[]> queue = this._waitlist.get(waitlistKey(doctorId, this._apptDay.get(appt)));
+		boolean waitlisted = false;
+		if(queue != null){
+			for(Iterator<int[]> it = queue.iterator(); it.hasNext(); ){
+				int[] r = it.next();
+				if(r[0] == apptId && r[1] == patientId){
+					it.remove();
+					waitlisted = true;
+					break;
+				}
+			}
+		}
+		this._searchPatient.set(search, DELETED);
+		int patient = this._patientById.get(patientId);
+		if(patient >= 0) this._patientAppts[patient] = Math.max(this._patientAppts[patient] - 1, 0);
+		if(waitlisted){
+			settle(appt, queue);
+			return AppointmentStatus.WL;
+		}
+		this._apptStatus.set(appt, (byte) AppointmentStatus.AV.ordinal());
+		int[] head = queue == null ? null : queue.poll();
+		if(head != null){
+			//the patient moves from the appointment waited for to the freed one
+			int held = findSearch(head[1], head[0]);
+			int hid = this._searchHospital.get(held);
+			this._searchPatient.set(held, DELETED);
+			insertSearch(hid, head[1], apptId);
+			this._apptStatus.set(appt, (byte) AppointmentStatus.AC.ordinal());
+			settle(appt, queue);
+			if(head[0] != apptId) settle(this._apptById.get(head[0]), queue);
+		}
+		return AppointmentStatus.AC;
+	}//end cancel
+
+	/*
+	 * An AC or WL appointment is WL while a request for it is queued, AC
+	 * otherwise.
+	 */
+	private void settle(int appt, ArrayDeque<int[]> queue) {
+		byte status = this._apptStatus.get(appt);
+		if(status != AppointmentStatus.AC.ordinal() && status != AppointmentStatus.WL.ordinal()) return;
+		int apptId = this._apptId.get(appt);
+		boolean waiting = false;
+		for(int[] r : queue){
+			if(r[0] == apptId){
+				waiting = true;
+				break;
+			}
+		}
+		this._apptStatus.set(appt, (byte) (waiting ? AppointmentStatus.WL : AppointmentStatus.AC).ordinal());
+	}
+
+	/*
+	 * The searches row of a patient's booking of an appointment, or -1.
+	 */
+	private int findSearch(int patientId, int apptId) {
+		for(int r = this._searchByAppt.first(apptId); r >= 0; r = this._searchByAppt.next(r)){
+			if(this._searchPatient.get(r) == patientId) return r;
+		}
+		return -1;
+	}
+
+	private static long waitlistKey(int doctorId, int day) {
+		return ((long) doctorId << 32) | (day & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public synchronized boolean hasDepartment(int deptId) {
+		return this._deptById.get(deptId) >= 0;
+	}
+
+	@Override
+	public synchronized boolean hasDepartmentNamed(String name) {
+		return this._deptName.contains(name);
+	}
+
+	@Override
+	public synchronized List<String> departmentNames() {
+		return new ArrayList<String>(new TreeSet<String>(this._deptName));
+	}
+
+	@Override
+	public synchronized long listDoctorAppointments(int doctorId, LocalDate from, LocalDate to, ResultWriter out) {
+		return listDoctorsAppointments(new int[]{ doctorId }, from, to, out);
+	}
+
+	@Override
+	public synchronized long listDoctorsAppointments(int[] doctorIds, LocalDate from, LocalDate to, ResultWriter out) {
+		try{
+			out.columns(new String[]{ "doctor_id", "name", "adate", "status" }, new boolean[]{ true, false, false, false });
+			long lo = from.toEpochDay(), hi = to.toEpochDay();
+			for(int doctorId : doctorIds){
+				int doctor = this._doctorById.get(doctorId);
+				if(doctor < 0) continue;
+				String id = String.valueOf(doctorId);
+				String name = this._doctorName.get(doctor);
+				for(int r = this._haByDoctor.first(doctorId); r >= 0; r = this._haByDoctor.next(r)){
+					int appt = this._apptById.get(this._haAppt.get(r));
+					if(appt < 0) continue;
+					byte status = this._apptStatus.get(appt);
+					int day = this._apptDay.get(appt);
+					if((status == AppointmentStatus.AC.ordinal() || status == AppointmentStatus.AV.ordinal()) && day >= lo && day <= hi){
+						out.row(id, name, LocalDate.ofEpochDay(day).toString(), STATUSES[status].name());
+					}
+				}
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end listDoctorsAppointments
+
+	@Override
+	public synchronized long listAvailableAppointments(String deptName, LocalDate date, TimeSlot window, ResultWriter out) {
+		try{
+			out.columns(new String[]{ "appnt_id", "adate", "time_slot", "status" }, new boolean[]{ true, false, false, false });
+			int day = (int) date.toEpochDay();
+			String adate = date.toString();
+			for(int pos = this._apptByDay.lowerBound(day); pos < this._apptByDay.size() && this._apptByDay.keyAt(pos) == day; pos++){
+				int appt = this._apptByDay.rowAt(pos);
+				if(this._apptStatus.get(appt) != AppointmentStatus.AV.ordinal()) continue;
+				if(window != null && !(this._apptStart.get(appt) >= 0
+						&& this._apptStart.get(appt) < window.getEndMinute() && window.getStartMinute() < this._apptEnd.get(appt))) continue;
+				int apptId = this._apptId.get(appt);
+				//any doctor of the appointment in a department of that name, each appointment once
+				for(int r = this._haByAppt.first(apptId); r >= 0; r = this._haByAppt.next(r)){
+					int doctor = this._doctorById.get(this._haDoctor.get(r));
+					int dept = doctor < 0 ? -1 : this._deptById.get(this._doctorDept.get(doctor));
+					if(dept >= 0 && this._deptName.get(dept).equals(deptName)){
+						out.row(String.valueOf(apptId), adate, this._apptSlot.get(appt), AppointmentStatus.AV.name());
+						break;
+					}
+				}
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end listAvailableAppointments
+
+	@Override
+	public synchronized long countStatusPerDoctor(ResultWriter out) {
+		try{
+			out.columns(new String[]{ "doctor_id", "name", "PA", "AC", "AV", "WL" }, new boolean[]{ true, false, true, true, true, true });
+			int[] counts = new int[this._doctorId.size() * STATUSES.length];
+			for(int r = 0; r < this._haAppt.size(); r++){
+				int doctor = this._doctorById.get(this._haDoctor.get(r));
+				int appt = this._apptById.get(this._haAppt.get(r));
+				if(doctor < 0 || appt < 0 || this._apptStatus.get(appt) == NO_STATUS) continue;
+				counts[doctor * STATUSES.length + this._apptStatus.get(appt)]++;
+			}
+			int[] doctorIds = new int[this._doctorId.size()];
+			int n = 0;
+			for(int doctor = 0; doctor < doctorIds.length; doctor++){
+				int total = 0;
+				for(int s = 0; s < STATUSES.length; s++) total += counts[doctor * STATUSES.length + s];
+				if(total > 0) doctorIds[n++] = this._doctorId.get(doctor);
+			}
+			Arrays.sort(doctorIds, 0, n);
+			for(int i = n - 1; i >= 0; i--){
+				int doctor = this._doctorById.get(doctorIds[i]);
+				int at = doctor * STATUSES.length;
+				out.row(String.valueOf(doctorIds[i]), this._doctorName.get(doctor),
+					String.valueOf(counts[at + AppointmentStatus.PA.ordinal()]), String.valueOf(counts[at + AppointmentStatus.AC.ordinal()]),
+					String.valueOf(counts[at + AppointmentStatus.AV.ordinal()]), String.valueOf(counts[at + AppointmentStatus.WL.ordinal()]));
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end countStatusPerDoctor
+
+	/**
+	 * Collects every (doctor, patient) pair as doctor << 32 | patient and
+	 * counts the distinct pairs per doctor after one sort.
+	 */
+	@Override
+	public synchronized long countPatientsPerDoctor(AppointmentStatus status, ResultWriter out) {
+		try{
+			out.columns(new String[]{ "doctor_id", "name", "PATIENTS" }, new boolean[]{ true, false, true });
+			long[] pairs = new long[64];
+			int n = 0;
+			for(int r = 0; r < this._haAppt.size(); r++){
+				int doctorId = this._haDoctor.get(r);
+				int apptId = this._haAppt.get(r);
+				int appt = this._apptById.get(apptId);
+				if(appt < 0 || this._apptStatus.get(appt) != status.ordinal() || this._doctorById.get(doctorId) < 0) continue;
+				for(int s = this._searchByAppt.first(apptId); s >= 0; s = this._searchByAppt.next(s)){
+					if(this._searchPatient.get(s) == DELETED) continue;
+					if(n == pairs.length) pairs = Arrays.copyOf(pairs, n * 2);
+					pairs[n++] = ((long) doctorId << 32) | (this._searchPatient.get(s) & 0xFFFFFFFFL);
+				}
+			}
+			Arrays.sort(pairs, 0, n);
+			int end = n;
+			while(end > 0){
+				int doctorId = (int) (pairs[end - 1] >> 32);
+				int patients = 0;
+				int i = end - 1;
+				for(; i >= 0 && (int) (pairs[i] >> 32) == doctorId; i--){
+					if(i == end - 1 || pairs[i] != pairs[i + 1]) patients++;
+				}
+				out.row(String.valueOf(doctorId), this._doctorName.get(this._doctorById.get(doctorId)), String.valueOf(patients));
+				end = i + 1;
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end countPatientsPerDoctor
+
+	/**
+	 * @return the IDs of every doctor, in load order
+	 */
+	synchronized int[] doctorIds() {
+		return Arrays.copyOf(this._doctorId._values, this._doctorId.size());
+	}
+
+	/**
+	 * @return the IDs of every patient, in load order
+	 */
+	synchronized int[] patientIds() {
+		return Arrays.copyOf(this._patientId._values, this._patientId.size());
+	}
+
+	/**
+	 * @return { appnt_ID, doctor_ID } of the first AV appointment linked to
+	 *         a doctor that no patient is booked on, or null
+	 */
+	synchronized int[] bookableAppointment() {
+		for(int r = 0; r < this._haAppt.size(); r++){
+			int apptId = this._haAppt.get(r);
+			int appt = this._apptById.get(apptId);
+			if(appt < 0 || this._apptStatus.get(appt) != AppointmentStatus.AV.ordinal()) continue;
+			boolean booked = false;
+			for(int s = this._searchByAppt.first(apptId); s >= 0; s = this._searchByAppt.next(s)){
+				if(this._searchPatient.get(s) != DELETED) booked = true;
+			}
+			if(!booked) return new int[]{ apptId, this._haDoctor.get(r) };
+		}
+		return null;
+	}
+
+	/**
+	 * @return the distinct appointment dates, ascending
+	 */
+	synchronized List<LocalDate> appointmentDates() {
+		List<LocalDate> dates = new ArrayList<LocalDate>();
+		for(int pos = 0; pos < this._apptByDay.size(); pos++){
+			if(pos == 0 || this._apptByDay.keyAt(pos) != this._apptByDay.keyAt(pos - 1)){
+				dates.add(LocalDate.ofEpochDay(this._apptByDay.keyAt(pos)));
+			}
+		}
+		return dates;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes results as a JSON array with one object per row, keyed
+ * by column name, one row per line.  Numeric columns are written as JSON
+ * numbers and NULL as null; an empty result is [].
+ */
+public class JsonResultWriter extends ResultWriter{
+
+	public JsonResultWriter(Writer out, boolean closeOut) {
+		super(out, closeOut);
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		this._out.write('[');
+	}
+
+	@Override
+	protected void writeRow(String[] values) throws IOException {
+		this._out.write(getRowCount() == 0 ? "\n{" : ",\n{");
+		for(int i = 0; i < values.length; i++){
+			if(i > 0) this._out.write(',');
+			string(this._columns[i]);
+			this._out.write(':');
+			if(values[i] == null) this._out.write("null");
+			else if(this._numeric[i]) this._out.write(values[i]);
+			else string(values[i]);
+		}
+		this._out.write('}');
+	}
+
+	@Override
+	protected void writeFooter() throws IOException {
+		if(this._columns == null) this._out.write('[');
+		this._out.write(getRowCount() == 0 ? "]\n" : "\n]\n");
+	}
+
+	private void string(String v) throws IOException {
+		this._out.write('"');
+		for(int i = 0; i < v.length(); i++){
+			char c = v.charAt(i);
+			switch(c){
+				case '"': this._out.write("\\\""); break;
+				case '\\': this._out.write("\\\\"); break;
+				case '\n': this._out.write("\\n"); break;
+				case '\r': this._out.write("\\r"); break;
+				case '\t': this._out.write("\\t"); break;
+				default:
+					if(c < 0x20) this._out.write(String.format("\\u%04x", (int) c));
+					else this._out.write(c);
+			}
+		}
+		this._out.write('"');
+	}
+}
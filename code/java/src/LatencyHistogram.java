@@ -0,0 +1,131 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a fixed-size, log-linear latency histogram in the style of
+ * HdrHistogram.  Values are nanoseconds from 0 up to Long.MAX_VALUE and are
+ * kept with a relative error below 1/64 (about 1.6%), in a few thousand
+ * counters, whatever the number of recorded values.  Recording is lock-free
+ * and may be done from any number of threads.
+ *
+ * Values below 128 get a bucket each; above that every power of two is
+ * split into 64 equal sub-buckets.
+ */
+public class LatencyHistogram{
+	static final int LINEAR = 128;
+	static final int SUB_BUCKETS = 64;
+	static final int SUB_BITS = 6;
+	static final int SIZE = LINEAR + (63 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(SIZE);
+	private final AtomicLong _total = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one latency.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long v = Math.max(0, nanos);
+		this._counts.incrementAndGet(indexOf(v));
+		this._total.incrementAndGet();
+		this._sum.addAndGet(v);
+		long m;
+		while(v > (m = this._max.get()) && !this._max.compareAndSet(m, v)) { }
+	}//end record
+
+	/**
+	 * Method to add every value recorded by another histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < SIZE; i++){
+			long c = other._counts.get(i);
+			if(c != 0) this._counts.addAndGet(i, c);
+		}
+		this._total.addAndGet(other._total.get());
+		this._sum.addAndGet(other._sum.get());
+		long v = other._max.get(), m;
+		while(v > (m = this._max.get()) && !this._max.compareAndSet(m, v)) { }
+	}
+
+	public long getCount() {
+		return this._total.get();
+	}
+
+	public long getMax() {
+		return this._max.get();
+	}
+
+	public double getMean() {
+		long n = this._total.get();
+		return n == 0 ? 0 : (double) this._sum.get() / n;
+	}
+
+	/**
+	 * Method to find the value at a percentile.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the highest value equivalent to the percentile's bucket, in
+	 *         nanoseconds, capped at the recorded maximum
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = this._total.get();
+		if(n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for(int i = 0; i < SIZE; i++){
+			seen += this._counts.get(i);
+			if(seen >= rank) return Math.min(highestEquivalent(i), this._max.get());
+		}
+		return this._max.get();
+	}//end getValueAtPercentile
+
+	/**
+	 * Method to print the percentile distribution in the text layout of
+	 * HdrHistogram's outputPercentileDistribution, so it can be plotted
+	 * with the usual HdrHistogram tools.
+	 *
+	 * @param out the stream to print to
+	 * @param unitRatio the nanoseconds per output unit, e.g. 1e6 for ms
+	 */
+	public void outputPercentileDistribution(PrintStream out, double unitRatio) {
+		out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+		long n = this._total.get();
+		if(n == 0) return;
+		long seen = 0;
+		for(int i = 0; i < SIZE; i++){
+			long c = this._counts.get(i);
+			if(c == 0) continue;
+			seen += c;
+			double p = (double) seen / n;
+			long value = Math.min(highestEquivalent(i), this._max.get());
+			if(seen < n){
+				out.printf("%12.3f %2.12f %10d %14.2f%n", value / unitRatio, p, seen, 1 / (1 - p));
+			}else{
+				out.printf("%12.3f %2.12f %10d%n", value / unitRatio, p, seen);
+			}
+		}
+		out.printf("#[Mean    = %12.3f, StdDeviation   = %12s]%n", getMean() / unitRatio, "n/a");
+		out.printf("#[Max     = %12.3f, Total count    = %12d]%n", this._max.get() / unitRatio, n);
+		out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", SIZE, SUB_BUCKETS);
+	}//end outputPercentileDistribution
+
+	static int indexOf(long v) {
+		if(v < LINEAR) return (int) v;
+		int msb = 63 - Long.numberOfLeadingZeros(v);
+		int shift = msb - SUB_BITS;
+		int sub = (int) (v >>> shift) - SUB_BUCKETS;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + sub;
+	}
+
+	static long highestEquivalent(int index) {
+		if(index < LINEAR) return index;
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		long high = ((sub + 1) << shift) - 1;
+		return high < 0 ? Long.MAX_VALUE : high;
+	}
+}
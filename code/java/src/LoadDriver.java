@@ -0,0 +1,303 @@
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a multi-client load driver for DBproject.  It simulates a
+ * population of concurrent clients, each playing one role:
+ *
+ *   patient  books an available appointment (option 4)
+ *   staff    lists the appointments of a doctor over a month (option 5)
+ *   admin    runs a per-doctor report, options 7 and 8 in turn
+ *
+ * Every client issues requests as a Poisson process at the arrival rate of
+ * its role (--patient-rate, --staff-rate, --admin-rate, per second).  Latency is
+ * measured from the moment a request was due, not from when the client got
+ * round to sending it, so a stalled database shows up in the percentiles
+ * instead of silently lowering the offered load.  Latencies go into one
+ * LatencyHistogram per operation, reported as p50/p95/p99/max and
+ * throughput, with the full percentile distributions written to --output.
+ *
+ * Clients run on virtual threads when the JVM provides them (Java 21 and
+ * later) and on one platform thread each otherwise.  Concurrency against
+ * PostgreSQL itself is bounded by the connection pool (db.pool.maxSize).
+ * Clients waiting for a connection park on the pool's lock and release
+ * their carrier thread; the driver still holds a monitor for each round
+ * trip, so at most pool size carriers are pinned, by clients that are
+ * running a query anyway.
+ *
+ * Booking changes the data, so run the driver against a scratch copy.
+ */
+public class LoadDriver{
+	/**
+	 * Counters of one operation.
+	 */
+	static class OpResult{
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+	}
+
+	private final DBproject _esql;
+	private final Map<String, OpResult> _results = new LinkedHashMap<String, OpResult>();
+
+	//sampled targets: AV appointments with their doctor, doctors, date range
+	private int[] _apptIds;
+	private int[] _apptDoctors;
+	private int[] _doctors;
+	private int _maxPatient;
+	private LocalDate _firstDay;
+	private int _days;
+
+	public LoadDriver(DBproject esql) {
+		this._esql = esql;
+		this._results.put("book", new OpResult());
+		this._results.put("option5", new OpResult());
+		this._results.put("option7", new OpResult());
+		this._results.put("option8", new OpResult());
+	}
+
+	/**
+	 * Method to sample the ids the simulated clients pick from.
+	 *
+	 * @param maxAppointments upper bound on the AV appointments sampled
+	 * @throws java.sql.SQLException when the data can not be read
+	 */
+	public void prepare(int maxAppointments) throws SQLException {
+		Connection conn = this._esql.getConnection();
+		try{
+			Statement stmt = conn.createStatement();
+			List<int[]> appts = new ArrayList<int[]>();
+			ResultSet rs = stmt.executeQuery(
+				"SELECT H.appt_id, H.doctor_id FROM has_appointment H, Appointment A\n" +
+				"WHERE H.appt_id = A.appnt_ID AND A.status = 'AV' LIMIT " + maxAppointments + ";");
+			while(rs.next()) appts.add(new int[]{ rs.getInt(1), rs.getInt(2) });
+			rs.close();
+			this._apptIds = new int[appts.size()];
+			this._apptDoctors = new int[appts.size()];
+			for(int i = 0; i < appts.size(); i++){
+				this._apptIds[i] = appts.get(i)[0];
+				this._apptDoctors[i] = appts.get(i)[1];
+			}
+
+			List<Integer> doctors = new ArrayList<Integer>();
+			rs = stmt.executeQuery("SELECT DISTINCT doctor_id FROM has_appointment;");
+			while(rs.next()) doctors.add(rs.getInt(1));
+			rs.close();
+			this._doctors = new int[doctors.size()];
+			for(int i = 0; i < doctors.size(); i++) this._doctors[i] = doctors.get(i);
+
+			rs = stmt.executeQuery(
+				"SELECT (SELECT COALESCE(max(patient_ID), 0) FROM Patient), min(adate), max(adate) FROM Appointment;");
+			rs.next();
+			this._maxPatient = rs.getInt(1);
+			this._firstDay = rs.getDate(2) == null ? LocalDate.now() : rs.getDate(2).toLocalDate();
+			LocalDate last = rs.getDate(3) == null ? this._firstDay : rs.getDate(3).toLocalDate();
+			this._days = (int) Math.max(1, last.toEpochDay() - this._firstDay.toEpochDay());
+			rs.close();
+			stmt.close();
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+		if(this._doctors.length == 0){
+			throw new SQLException("No doctors with appointments found; load a dataset first");
+		}
+		System.out.printf("Sampled %d available appointments, %d doctors, %d patients%n",
+			this._apptIds.length, this._doctors.length, this._maxPatient + 1);
+	}//end prepare
+
+	/**
+	 * Method to run the simulation.
+	 *
+	 * @param patients number of booking clients
+	 * @param staff number of schedule listing clients
+	 * @param admins number of reporting clients
+	 * @param rates requests per second issued by one client of each role,
+	 *              in the order patient, staff, admin
+	 * @param seconds duration of the run
+	 * @return the elapsed time in nanoseconds
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	public long run(int patients, int staff, int admins, final double[] rates, int seconds) throws InterruptedException {
+		ExecutorService clients = newClientExecutor();
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		for(int i = 0; i < patients + staff + admins; i++){
+			final int role = i < patients ? 0 : i < patients + staff ? 1 : 2;
+			clients.execute(() -> client(role, rates[role], start, end));
+		}
+		clients.shutdown();
+		clients.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+		clients.shutdownNow();
+		return System.nanoTime() - start;
+	}//end run
+
+	/*
+	 * One simulated client: waits for its next exponentially distributed
+	 * arrival, issues the request and records the latency since the
+	 * arrival was due.
+	 */
+	private void client(int role, double rate, long start, long end) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		long due = start + (long) (-Math.log(1 - rnd.nextDouble()) / rate * 1e9);
+		int turn = 0;
+		while(due < end){
+			long wait = due - System.nanoTime();
+			if(wait > 0){
+				try{
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}catch(InterruptedException e){
+					return;
+				}
+			}
+			String op = role == 0 ? "book" : role == 1 ? "option5" : (turn++ % 2 == 0 ? "option7" : "option8");
+			OpResult result = this._results.get(op);
+			try{
+				request(op, rnd);
+				result.latency.record(System.nanoTime() - due);
+			}catch(SQLException e){
+				result.errors.incrementAndGet();
+			}
+			due += (long) (-Math.log(1 - rnd.nextDouble()) / rate * 1e9);
+		}
+	}//end client
+
+	private void request(String op, ThreadLocalRandom rnd) throws SQLException {
+		switch(op){
+			case "book":{
+				if(this._apptIds.length == 0) throw new SQLException("No available appointments sampled");
+				int i = rnd.nextInt(this._apptIds.length);
+				new BookingEngine(this._esql).book(rnd.nextInt(this._maxPatient + 1), this._apptDoctors[i], this._apptIds[i]);
+				break;
+			}
+			case "option5":{
+				LocalDate from = this._firstDay.plusDays(rnd.nextInt(this._days));
+				this._esql.executeQueryStreaming(DBproject.LIST_DOCTOR_APPOINTMENTS, row -> { },
+					this._doctors[rnd.nextInt(this._doctors.length)], from, from.plusDays(30));
+				break;
+			}
+			case "option7":
+				this._esql.executeQueryStreaming(DBproject.COUNT_STATUS_PER_DOCTOR, row -> { });
+				break;
+			default:
+				AppointmentStatus[] statuses = AppointmentStatus.values();
+				this._esql.executeQueryStreaming(DBproject.COUNT_PATIENTS_PER_DOCTOR, row -> { },
+					statuses[rnd.nextInt(statuses.length)].name());
+				break;
+		}
+	}//end request
+
+	/**
+	 * Method to print the per operation summary and, when out is not null,
+	 * the full percentile distribution of every operation.
+	 */
+	public void report(long elapsedNanos, PrintStream out) {
+		double secs = elapsedNanos / 1e9;
+		System.out.printf("%n%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+			"operation", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+		for(Map.Entry<String, OpResult> e : this._results.entrySet()){
+			LatencyHistogram h = e.getValue().latency;
+			System.out.printf("%-10s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f%n",
+				e.getKey(), h.getCount(), e.getValue().errors.get(), h.getCount() / secs,
+				h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(95) / 1e6,
+				h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6);
+			if(out != null && h.getCount() > 0){
+				out.println("# operation: " + e.getKey() + " (milliseconds)");
+				h.outputPercentileDistribution(out, 1e6);
+				out.println();
+			}
+		}
+	}//end report
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor exists from Java 21 on; it
+	 * is looked up reflectively so the driver still builds and runs on
+	 * older JVMs.
+	 */
+	static ExecutorService newClientExecutor() {
+		try{
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			System.out.println("Clients run on virtual threads");
+			return (ExecutorService) m.invoke(null);
+		}catch(ReflectiveOperationException e){
+			System.out.println("Virtual threads unavailable, clients run on platform threads");
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "load-client");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * The load driver entry point
+	 *
+	 * @param args <dbname> <port> <user> [--patients N] [--staff N] [--admins N]
+	 *             [--patient-rate R] [--staff-rate R] [--admin-rate R]
+	 *             [--duration S] [--output file]
+	 */
+	public static void main(String[] args) {
+		int patients = 1000, staff = 200, admins = 10, seconds = 60;
+		double[] rates = { 0.5, 1.0, 0.1 };
+		String output = null;
+		boolean usage = args.length < 3 || args.length % 2 == 0;
+		for(int i = 3; !usage && i < args.length; i += 2){
+			try{
+				switch(args[i]){
+					case "--patients": patients = Integer.parseInt(args[i + 1]); break;
+					case "--staff": staff = Integer.parseInt(args[i + 1]); break;
+					case "--admins": admins = Integer.parseInt(args[i + 1]); break;
+					case "--patient-rate": rates[0] = Double.parseDouble(args[i + 1]); break;
+					case "--staff-rate": rates[1] = Double.parseDouble(args[i + 1]); break;
+					case "--admin-rate": rates[2] = Double.parseDouble(args[i + 1]); break;
+					case "--duration": seconds = Integer.parseInt(args[i + 1]); break;
+					case "--output": output = args[i + 1]; break;
+					default: usage = true;
+				}
+			}catch(NumberFormatException e){
+				usage = true;
+			}
+		}
+		if (usage || rates[0] <= 0 || rates[1] <= 0 || rates[2] <= 0) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + LoadDriver.class.getName () +
+		            " <dbname> <port> <user> [--patients N] [--staff N] [--admins N]" +
+		            " [--patient-rate R] [--staff-rate R] [--admin-rate R] [--duration S] [--output file]");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			LoadDriver driver = new LoadDriver(esql);
+			driver.prepare(100000);
+			System.out.printf("Running %d patients at %.2f, %d staff at %.2f, %d admins at %.2f req/s each for %d s%n",
+				patients, rates[0], staff, rates[1], admins, rates[2], seconds);
+			long elapsed = driver.run(patients, staff, admins, rates, seconds);
+			PrintStream out = output == null ? null : new PrintStream(new FileOutputStream(output), true, "UTF-8");
+			try{
+				driver.report(elapsed, out);
+			}finally{
+				if(out != null) out.close();
+			}
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a precomputed doctor -> status -> set of patients index,
+ * built from the searches -> Appointment -> has_appointment path, that
+ * answers option 8 of DBproject without touching the database.
+ *
+ * Every patient set is stored in whichever of two containers is smaller,
+ * in the manner of a compressed bitmap: a sorted int array for sparse sets
+ * (4 bytes a patient) or a BitSet over the range of the set for dense ones
+ * (1 bit per ID in the range).
+ *
+ * The index is a snapshot: it is rebuilt by refresh() and does not follow
+ * later bookings.  DBproject uses it only while it is younger than
+ * db.patientIndex.maxAgeMs milliseconds (default 0, i.e. never) and runs
+ * COUNT_PATIENTS_PER_DOCTOR otherwise.
+ */
+public class PatientStatusIndex{
+	//every (doctor, status, patient) triple, grouped and sorted for the build
+	static final String SELECT_DOCTOR_STATUS_PATIENTS =
+		"SELECT H.doctor_id, A.status, S.pid\n" +
+		"FROM has_appointment H, Appointment A, searches S\n" +
+		"WHERE H.appt_id = A.appnt_ID AND S.aid = A.appnt_ID AND A.status IS NOT NULL\n" +
+		"ORDER BY 1, 2, 3;";
+
+	/**
+	 * An immutable set of patient IDs.
+	 */
+	static class PatientSet{
+		final int size;
+		//exactly one of the two is set
+		final int[] sorted;
+		final BitSet bits;
+		final int base;
+
+		/*
+		 * @param ids sorted, distinct patient IDs; ids[0..n) is used
+		 */
+		PatientSet(int[] ids, int n){
+			this.size = n;
+			long range = n == 0 ? 0 : (long) ids[n - 1] - ids[0] + 1;
+			if(n > 0 && range / 8 < (long) n * 4){
+				this.base = ids[0];
+				this.bits = new BitSet((int) range);
+				for(int i = 0; i < n; i++) this.bits.set(ids[i] - this.base);
+				this.sorted = null;
+			}else{
+				this.base = 0;
+				this.bits = null;
+				this.sorted = Arrays.copyOf(ids, n);
+			}
+		}
+
+		boolean contains(int pid) {
+			if(this.bits != null){
+				return pid >= this.base && this.bits.get(pid - this.base);
+			}
+			return Arrays.binarySearch(this.sorted, pid) >= 0;
+		}
+
+		long bytes() {
+			return this.bits != null ? this.bits.size() / 8 : this.sorted.length * 4L;
+		}
+	}//end PatientSet
+
+	private final DBproject _esql;
+	private final long _maxAgeMs;
+	//doctor ID -> patient sets indexed by AppointmentStatus.ordinal()
+	private volatile Map<Integer, PatientSet[]> _sets = Collections.emptyMap();
+	private volatile long _builtAt = 0;
+
+	public PatientStatusIndex(DBproject esql) {
+		this._esql = esql;
+		this._maxAgeMs = Long.getLong("db.patientIndex.maxAgeMs", 0L);
+	}
+
+	/**
+	 * @return true when the index is enabled and may be rebuilt or used
+	 */
+	public boolean isEnabled() {
+		return this._maxAgeMs > 0;
+	}
+
+	/**
+	 * @return true when the last build is recent enough to answer queries
+	 */
+	public boolean isFresh() {
+		return isEnabled() && System.currentTimeMillis() - this._builtAt < this._maxAgeMs;
+	}
+
+	/**
+	 * Method to rebuild the index from the database, streaming the rows so
+	 * that only the finished sets are held in memory.
+	 *
+	 * @throws java.sql.SQLException when the rows can not be read
+	 */
+	public synchronized void refresh() throws SQLException {
+		long start = System.nanoTime();
+		final Map<Integer, PatientSet[]> sets = new HashMap<Integer, PatientSet[]>();
+		final int[][] buffer = { new int[1024] };
+		final int[] group = { -1, -1, 0 }; // doctor, status ordinal, size
+		long rows = this._esql.executeQueryStreaming(SELECT_DOCTOR_STATUS_PATIENTS, row -> {
+			int doctor = row.getInt(1);
+			int status = row.getStatus(2).ordinal();
+			int pid = row.getInt(3);
+			if(doctor != group[0] || status != group[1]){
+				close(sets, group, buffer[0]);
+				group[0] = doctor;
+				group[1] = status;
+				group[2] = 0;
+			}
+			int n = group[2];
+			if(n > 0 && buffer[0][n - 1] == pid) return;
+			if(n == buffer[0].length) buffer[0] = Arrays.copyOf(buffer[0], n * 2);
+			buffer[0][n] = pid;
+			group[2] = n + 1;
+		});
+		close(sets, group, buffer[0]);
+		this._sets = sets;
+		this._builtAt = System.currentTimeMillis();
+
+		long bytes = 0;
+		for(PatientSet[] s : sets.values()){
+			for(PatientSet p : s) if(p != null) bytes += p.bytes();
+		}
+		System.err.printf("Patient status index: %d rows, %d doctors, %d KB in %.2f s%n",
+			rows, sets.size(), bytes / 1024, (System.nanoTime() - start) / 1e9);
+	}//end refresh
+
+	private static void close(Map<Integer, PatientSet[]> sets, int[] group, int[] buffer) {
+		if(group[0] < 0 || group[2] == 0) return;
+		PatientSet[] byStatus = sets.get(group[0]);
+		if(byStatus == null){
+			byStatus = new PatientSet[AppointmentStatus.values().length];
+			sets.put(group[0], byStatus);
+		}
+		byStatus[group[1]] = new PatientSet(buffer, group[2]);
+	}
+
+	/**
+	 * Method to count the distinct patients of every doctor that have an
+	 * appointment of the given status.
+	 *
+	 * @param status the appointment status
+	 * @return doctor ID and patient count pairs for the doctors with at
+	 *         least one such patient, in descending doctor ID order
+	 */
+	public List<int[]> countPatients(AppointmentStatus status) {
+		List<int[]> counts = new ArrayList<int[]>();
+		for(Map.Entry<Integer, PatientSet[]> e : this._sets.entrySet()){
+			PatientSet p = e.getValue()[status.ordinal()];
+			if(p != null && p.size > 0) counts.add(new int[]{ e.getKey(), p.size });
+		}
+		counts.sort((a, b) -> Integer.compare(b[0], a[0]));
+		return counts;
+	}//end countPatients
+
+	/**
+	 * @return true when the patient has an appointment of the given status
+	 *         with the doctor, as of the last build
+	 */
+	public boolean hasPatient(int doctorId, AppointmentStatus status, int patientId) {
+		PatientSet[] byStatus = this._sets.get(doctorId);
+		PatientSet p = byStatus == null ? null : byStatus[status.ordinal()];
+		return p != null && p.contains(patientId);
+	}
+}
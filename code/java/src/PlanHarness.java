@@ -0,0 +1,243 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is a query plan regression check for every statement that
+ * DBproject issues.  Each statement is run under EXPLAIN (ANALYZE, BUFFERS)
+ * with sample parameters taken from the loaded data, and the check fails
+ * when a plan contains a sequential scan of a large table or when a query
+ * runs over its latency budget.  Write statements are only planned, never
+ * executed, and everything runs in a transaction that is rolled back.
+ *
+ * It is meant to be run against a scaled dataset (see DataGenerator); on
+ * the few hundred seed rows the planner rightly prefers sequential scans,
+ * which is why only tables with at least --min-rows rows are guarded.
+ */
+public class PlanHarness{
+	/**
+	 * One statement to check.
+	 */
+	static class QueryCase{
+		final String name;
+		final String sql;
+		final Object[] params;
+		final boolean analyze;
+		final boolean allowSeqScan;
+
+		QueryCase(String name, String sql, boolean analyze, boolean allowSeqScan, Object... params){
+			this.name = name;
+			this.sql = sql;
+			this.params = params;
+			this.analyze = analyze;
+			this.allowSeqScan = allowSeqScan;
+		}
+	}//end QueryCase
+
+	static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	static final Pattern EXEC_TIME = Pattern.compile("(?:Execution Time|Total runtime): ([0-9.]+) ms");
+
+	private final DBproject _esql;
+	private final double _budgetMs;
+	private final long _minRows;
+
+	public PlanHarness(DBproject esql, double budgetMs, long minRows) {
+		this._esql = esql;
+		this._budgetMs = budgetMs;
+		this._minRows = minRows;
+	}
+
+	/**
+	 * Method to check every statement and print a report.
+	 *
+	 * @return the number of failed statements
+	 * @throws java.sql.SQLException when the database can not be queried
+	 */
+	public int run() throws SQLException {
+		int failures = 0;
+		Connection conn = this._esql.getConnection();
+		try{
+			conn.setAutoCommit(false);
+			Set<String> guarded = largeTables(conn);
+			System.out.println("Guarded tables (>= " + this._minRows + " rows): " + guarded);
+			for(QueryCase qc : cases(conn)){
+				if(!check(conn, qc, guarded)) failures++;
+			}
+			conn.rollback();
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+		return failures;
+	}//end run
+
+	/*
+	 * The statements DBproject issues, with parameters sampled from the
+	 * data so that they select a realistic number of rows.
+	 */
+	List<QueryCase> cases(Connection conn) throws SQLException {
+		String[] busy = sample(conn,
+			"SELECT H.doctor_id, to_char(min(A.adate), 'FMMM/FMDD/YYYY'), to_char(max(A.adate), 'FMMM/FMDD/YYYY')\n" +
+			"FROM has_appointment H, Appointment A WHERE H.appt_id = A.appnt_ID\n" +
+			"GROUP BY H.doctor_id ORDER BY count(*) DESC LIMIT 1;", "0", "1/1/2020", "12/31/2021");
+		String[] available = sample(conn,
+			"SELECT D.name, to_char(A.adate, 'FMMM/FMDD/YYYY')\n" +
+			"FROM Appointment A, has_appointment H, Doctor Dr, Department D\n" +
+			"WHERE A.appnt_ID = H.appt_id AND H.doctor_id = Dr.doctor_ID AND Dr.did = D.dept_ID AND A.status = 'AV' LIMIT 1;",
+			"Cardiology", "1/1/2021");
+		String[] ids = sample(conn,
+			"SELECT (SELECT max(patient_ID) FROM Patient), (SELECT max(appnt_ID) FROM Appointment);", "0", "0");
+		int doctor = Integer.parseInt(busy[0]);
+		int patient = Integer.parseInt(ids[0]);
+		int appt = Integer.parseInt(ids[1]);
+
+		List<QueryCase> cases = new ArrayList<QueryCase>();
+		cases.add(new QueryCase("insert doctor", DBproject.INSERT_DOCTOR, false, false, -1, "x", "x", 0));
+		cases.add(new QueryCase("insert patient", DBproject.INSERT_PATIENT, false, false, -1, "x", "M", 1, "x", 0));
+		cases.add(new QueryCase("insert appointment", DBproject.INSERT_APPOINTMENT, false, false, -1, RecordValidator.parseDate("1/1/2021"), "8:00-10:00", "AV"));
+		cases.add(new QueryCase("book: doctor hospital", BookingEngine.SELECT_DOCTOR_HOSPITAL, true, false, doctor));
+		cases.add(new QueryCase("book: appointment doctor", BookingEngine.SELECT_APPOINTMENT_DOCTOR, true, false, appt));
+		cases.add(new QueryCase("book: claim", BookingEngine.CLAIM_APPOINTMENT, false, false, appt));
+		cases.add(new QueryCase("book: link doctor", BookingEngine.LINK_DOCTOR, false, false, appt, doctor));
+		cases.add(new QueryCase("book: link patient", BookingEngine.LINK_PATIENT, false, false, 0, patient, appt));
+		cases.add(new QueryCase("book: count patient", BookingEngine.COUNT_PATIENT_APPOINTMENT, false, false, patient));
+		cases.add(new QueryCase("option 5", DBproject.LIST_DOCTOR_APPOINTMENTS, true, false, doctor,
+			RecordValidator.parseDate(busy[1]), RecordValidator.parseDate(busy[2])));
+		cases.add(new QueryCase("option 6", DBproject.LIST_AVAILABLE_APPOINTMENTS, true, false, available[0],
+			RecordValidator.parseDate(available[1])));
+		// reports over every doctor; a full scan of the counters is the expected plan
+		cases.add(new QueryCase("option 7", DBproject.COUNT_STATUS_PER_DOCTOR, true, true));
+		// aggregates every appointment of a status; the in-memory PatientStatusIndex is the fast path
+		cases.add(new QueryCase("option 8", DBproject.COUNT_PATIENTS_PER_DOCTOR, true, true, "WL"));
+		cases.add(new QueryCase("option 8: index build", PatientStatusIndex.SELECT_DOCTOR_STATUS_PATIENTS, false, true));
+		// option 10 reads every request and the booked appointments of a hospital
+		cases.add(new QueryCase("option 10: requests", CapacityAnalyzer.SELECT_REQUESTS, true, true));
+		cases.add(new QueryCase("option 10: load", CapacityAnalyzer.SELECT_LOAD, true, true, 0,
+			RecordValidator.parseDate(busy[1]), RecordValidator.parseDate(busy[2])));
+		return cases;
+	}//end cases
+
+	/*
+	 * Explains one statement and prints its verdict, followed by the plan
+	 * when it failed.
+	 */
+	private boolean check(Connection conn, QueryCase qc, Set<String> guarded) throws SQLException {
+		String sql = qc.sql.trim();
+		if(sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+		String explain = (qc.analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql;
+
+		List<String> plan = new ArrayList<String>();
+		List<String> problems = new ArrayList<String>();
+		double execMs = -1;
+		PreparedStatement stmt = conn.prepareStatement(explain);
+		try{
+			DBproject.bindParameters(stmt, qc.params);
+			ResultSet rs = stmt.executeQuery();
+			while(rs.next()){
+				String line = rs.getString(1);
+				plan.add(line);
+				Matcher m = SEQ_SCAN.matcher(line);
+				if(m.find() && !qc.allowSeqScan && guarded.contains(m.group(1).toLowerCase())){
+					problems.add("sequential scan on " + m.group(1));
+				}
+				m = EXEC_TIME.matcher(line);
+				if(m.find()){
+					execMs = Double.parseDouble(m.group(1));
+				}
+			}
+			rs.close();
+		}finally{
+			stmt.close();
+		}
+		if(execMs > this._budgetMs){
+			problems.add(String.format("%.2f ms over the %.2f ms budget", execMs, this._budgetMs));
+		}
+
+		String time = execMs < 0 ? "planned" : String.format("%.2f ms", execMs);
+		System.out.printf("%-4s %-26s %s%n", problems.isEmpty() ? "OK" : "FAIL", qc.name, time);
+		if(!problems.isEmpty()){
+			for(String p : problems) System.out.println("     " + p);
+			for(String line : plan) System.out.println("     | " + line);
+		}
+		return problems.isEmpty();
+	}//end check
+
+	private Set<String> largeTables(Connection conn) throws SQLException {
+		Set<String> tables = new HashSet<String>();
+		PreparedStatement stmt = conn.prepareStatement(
+			"SELECT relname FROM pg_class WHERE relkind IN ('r', 'p') " +
+			"AND relnamespace = current_schema()::regnamespace AND reltuples >= ?;");
+		try{
+			stmt.setLong(1, this._minRows);
+			ResultSet rs = stmt.executeQuery();
+			while(rs.next()) tables.add(rs.getString(1));
+			rs.close();
+		}finally{
+			stmt.close();
+		}
+		return tables;
+	}
+
+	private static String[] sample(Connection conn, String sql, String... defaults) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		try{
+			ResultSet rs = stmt.executeQuery();
+			if(rs.next()){
+				String[] row = new String[defaults.length];
+				for(int i = 0; i < row.length; i++){
+					row[i] = rs.getString(i + 1) == null ? defaults[i] : rs.getString(i + 1);
+				}
+				return row;
+			}
+			return defaults;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	/**
+	 * The harness entry point.  Exits with status 1 when any check fails.
+	 *
+	 * @param args <dbname> <port> <user> [--budget-ms N] [--min-rows N]
+	 */
+	public static void main(String[] args) {
+		double budgetMs = 50;
+		long minRows = 10000;
+		boolean usage = args.length < 3 || args.length % 2 == 0;
+		for(int i = 3; !usage && i < args.length; i += 2){
+			try{
+				if(args[i].equals("--budget-ms")) budgetMs = Double.parseDouble(args[i + 1]);
+				else if(args[i].equals("--min-rows")) minRows = Long.parseLong(args[i + 1]);
+				else usage = true;
+			}catch(NumberFormatException e){
+				usage = true;
+			}
+		}
+		if (usage) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + PlanHarness.class.getName () +
+		            " <dbname> <port> <user> [--budget-ms N] [--min-rows N]");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		int failures = 1;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			failures = new PlanHarness(esql, budgetMs, minRows).run();
+			System.out.println(failures == 0 ? "All plans OK" : failures + " plan check(s) failed");
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,193 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * HospitalStore on the Postgres database of a DBproject.  Reports are
+ * answered by the in-memory indexes when those are enabled and current,
+ * otherwise by the queries of DBproject; look-ups of departments and
+ * doctors go through the ReferenceCache.
+ */
+public class PostgresStore implements HospitalStore{
+	private final DBproject _esql;
+
+	public PostgresStore(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * A doctor without an ID gets the next one of the IdAllocator, and the
+	 * insert returns it; likewise for patients and appointments.  The
+	 * column defaults are not used, since each of them takes a whole block.
+	 */
+	@Override
+	public int addDoctor(Integer doctorId, String name, String specialty, int deptId) throws SQLException {
+		int id;
+		if(doctorId == null){
+			id = this._esql.executeInsertReturningId(DBproject.INSERT_DOCTOR_RETURNING, this._esql.getDoctorIds().next(), name, specialty, deptId);
+		}else{
+			this._esql.executeUpdate(DBproject.INSERT_DOCTOR, doctorId, name, specialty, deptId);
+			id = doctorId;
+		}
+		// the notification would do the same, a moment later
+		this._esql.getReferenceCache().invalidate("Doctor");
+		return id;
+	}
+
+	@Override
+	public int addPatient(Integer patientId, String name, String gender, int age, String address, int numberOfAppts) throws SQLException {
+		if(patientId == null){
+			return this._esql.executeInsertReturningId(DBproject.INSERT_PATIENT_RETURNING, this._esql.getPatientIds().next(), name, gender, age, address, numberOfAppts);
+		}
+		this._esql.executeUpdate(DBproject.INSERT_PATIENT, patientId, name, gender, age, address, numberOfAppts);
+		return patientId;
+	}
+
+	@Override
+	public int addAppointment(Integer apptId, LocalDate date, String timeSlot, String status) throws SQLException {
+		int id;
+		if(apptId == null){
+			id = this._esql.executeInsertReturningId(DBproject.INSERT_APPOINTMENT_RETURNING, this._esql.getAppointmentIds().next(), date, timeSlot, status);
+		}else{
+			this._esql.executeUpdate(DBproject.INSERT_APPOINTMENT, apptId, date, timeSlot, status);
+			id = apptId;
+		}
+		if(status != null) this._esql.getEventLog().statusChanged(id, AppointmentStatus.fromCode(status));
+		return id;
+	}
+
+	@Override
+	public AppointmentStatus book(int patientId, int doctorId, int apptId) throws SQLException {
+		return new BookingEngine(this._esql).book(patientId, doctorId, apptId);
+	}
+
+	@Override
+	public AppointmentStatus cancel(int patientId, int apptId) throws SQLException {
+		return this._esql.getWaitlistScheduler().cancel(patientId, apptId);
+	}
+
+	@Override
+	public boolean hasDepartment(int deptId) throws SQLException {
+		return this._esql.getReferenceCache().department(deptId) != null;
+	}
+
+	@Override
+	public boolean hasDepartmentNamed(String name) throws SQLException {
+		return !this._esql.getReferenceCache().departmentsNamed(name).isEmpty();
+	}
+
+	@Override
+	public List<String> departmentNames() throws SQLException {
+		return this._esql.getReferenceCache().departmentNames();
+	}
+
+	@Override
+	public long listDoctorAppointments(int doctorId, LocalDate from, LocalDate to, ResultWriter out) throws SQLException {
+		return this._esql.executeQueryAndWrite(DBproject.LIST_DOCTOR_APPOINTMENTS, out, doctorId, from, to);
+	}
+
+	/**
+	 * The query of each doctor runs through executeQueryAsync, so they
+	 * overlap on connections of their own; the rows are written in doctor
+	 * order as the queries finish.  When one fails or times out, the rest
+	 * are cancelled.
+	 */
+	@Override
+	public long listDoctorsAppointments(int[] doctorIds, LocalDate from, LocalDate to, ResultWriter out) throws SQLException {
+		List<CompletableFuture<List<List<String>>>> pending = new ArrayList<CompletableFuture<List<List<String>>>>();
+		try{
+			for(int doctorId : doctorIds){
+				pending.add(this._esql.executeQueryAsync(DBproject.LIST_DOCTOR_APPOINTMENTS, doctorId, from, to));
+			}
+			out.columns(new String[]{ "doctor_id", "name", "adate", "status" }, new boolean[]{ true, false, false, false });
+			for(CompletableFuture<List<List<String>>> f : pending){
+				for(List<String> row : await(f)){
+					out.row(row.toArray(new String[row.size()]));
+				}
+			}
+		}finally{
+			for(CompletableFuture<List<List<String>>> f : pending) f.cancel(true);
+			out.close();
+		}
+		return out.getRowCount();
+	}//end listDoctorsAppointments
+
+	private static <T> T await(CompletableFuture<T> f) throws SQLException {
+		try{
+			return f.get();
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof SQLException) throw (SQLException) cause;
+			throw new SQLException(cause.getMessage(), cause);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a query");
+		}
+	}
+
+	@Override
+	public long listAvailableAppointments(String deptName, final LocalDate date, final TimeSlot window, final ResultWriter out) throws SQLException {
+		AvailabilityIndex index = this._esql.getAvailabilityIndex();
+		try{
+			if(index.ensureCovers(date)){
+				out.columns(new String[]{ "appnt_id", "adate", "time_slot", "status" }, new boolean[]{ true, false, false, false });
+				//an appointment shared by several doctors is shown once, as with DISTINCT
+				Set<Integer> shown = new HashSet<Integer>();
+				for(ReferenceCache.Ref dept : this._esql.getReferenceCache().departmentsNamed(deptName)){
+					for(AvailabilityIndex.Entry e : index.available(dept.id, date, window)){
+						if(shown.add(e.apptId)){
+							out.row(String.valueOf(e.apptId), e.date.toString(), e.slot.toString(), e.getStatus().name());
+						}
+					}
+				}
+			}else{
+				this._esql.executeQueryStreaming(DBproject.LIST_AVAILABLE_APPOINTMENTS, row -> {
+					TimeSlot slot = TimeSlot.parse(row.getString(3));
+					if(window == null || (slot != null && slot.overlaps(window))) out.handle(row);
+				}, deptName, date);
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end listAvailableAppointments
+
+	@Override
+	public long countStatusPerDoctor(ResultWriter out) throws SQLException {
+		return this._esql.executeQueryAndWrite(DBproject.COUNT_STATUS_PER_DOCTOR, out);
+	}
+
+	@Override
+	public long countPatientsPerDoctor(AppointmentStatus status, ResultWriter out) throws SQLException {
+		PatientStatusIndex index = this._esql.getPatientStatusIndex();
+		if(index.isEnabled() && !index.isFresh()){
+			index.refresh();
+		}
+		if(!index.isFresh()){
+			return this._esql.executeQueryAndWrite(DBproject.COUNT_PATIENTS_PER_DOCTOR, out, status.name());
+		}
+		ReferenceCache refs = this._esql.getReferenceCache();
+		try{
+			out.columns(new String[]{ "doctor_id", "name", "PATIENTS" }, new boolean[]{ true, false, true });
+			for(int[] count : index.countPatients(status)){
+				ReferenceCache.Ref doctor = refs.doctor(count[0]);
+				out.row(String.valueOf(count[0]), doctor == null ? null : doctor.name, String.valueOf(count[1]));
+			}
+		}finally{
+			out.close();
+		}
+		return out.getRowCount();
+	}//end countPatientsPerDoctor
+
+	/**
+	 * The connections belong to the DBproject, which closes them in cleanup.
+	 */
+	@Override
+	public void close() {
+	}
+}
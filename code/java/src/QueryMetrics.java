@@ -0,0 +1,376 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects timings of every statement DBproject runs, grouped
+ * by statement shape: the SQL text with string and number literals
+ * replaced by ? and blanks collapsed, so that the same query with other
+ * values is counted once.  For every shape it keeps a latency histogram
+ * and the number of calls, errors, rows, bytes fetched and the time spent
+ * waiting for a pooled connection.
+ *
+ * The metrics are registered with the platform MBean server as
+ * DBproject:type=QueryMetrics and can be dumped as text.  Configured with
+ * system properties:
+ *
+ *   db.metrics             false turns collection off (default true)
+ *   db.metrics.dumpSec     seconds between dumps to standard error (default 0, never)
+ *   db.metrics.slowMs      statements slower than this are logged with their
+ *                          EXPLAIN plan (default 0, never)
+ *   db.metrics.slowLog     file the slow statements are appended to
+ *                          (default standard error)
+ *   db.metrics.explainMs   least time between two plans of one shape (default 60000)
+ *   db.metrics.maxShapes   shapes kept apart; later ones are counted as
+ *                          "(other)" (default 500)
+ */
+public class QueryMetrics implements QueryMetricsMXBean{
+	static final String OTHER = "(other)";
+
+	/**
+	 * Counters of one statement shape.
+	 */
+	static class Shape{
+		final String shape;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder errors = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder waitNanos = new LongAdder();
+		final AtomicLong lastExplained = new AtomicLong();
+
+		Shape(String shape){
+			this.shape = shape;
+		}
+	}//end Shape
+
+	/**
+	 * Immutable snapshot of one shape, as shown through JMX.
+	 */
+	public static class ShapeStats{
+		private final String _shape;
+		private final long _calls, _errors, _rows, _bytes;
+		private final double _totalMs, _meanMs, _p50Ms, _p95Ms, _p99Ms, _maxMs, _waitMs;
+
+		ShapeStats(Shape s){
+			LatencyHistogram h = s.latency;
+			this._shape = s.shape;
+			this._calls = h.getCount();
+			this._errors = s.errors.sum();
+			this._rows = s.rows.sum();
+			this._bytes = s.bytes.sum();
+			this._totalMs = h.getMean() * h.getCount() / 1e6;
+			this._meanMs = h.getMean() / 1e6;
+			this._p50Ms = h.getValueAtPercentile(50) / 1e6;
+			this._p95Ms = h.getValueAtPercentile(95) / 1e6;
+			this._p99Ms = h.getValueAtPercentile(99) / 1e6;
+			this._maxMs = h.getMax() / 1e6;
+			this._waitMs = s.waitNanos.sum() / 1e6;
+		}
+
+		public String getShape() { return this._shape; }
+		public long getCalls() { return this._calls; }
+		public long getErrors() { return this._errors; }
+		public long getRows() { return this._rows; }
+		public long getBytes() { return this._bytes; }
+		public double getTotalMs() { return this._totalMs; }
+		public double getMeanMs() { return this._meanMs; }
+		public double getP50Ms() { return this._p50Ms; }
+		public double getP95Ms() { return this._p95Ms; }
+		public double getP99Ms() { return this._p99Ms; }
+		public double getMaxMs() { return this._maxMs; }
+		public double getConnectionWaitMs() { return this._waitMs; }
+	}//end ShapeStats
+
+	private final DBproject _esql;
+	private final boolean _enabled;
+	private final long _dumpSec;
+	private final long _slowNanos;
+	private final long _explainMs;
+	private final int _maxShapes;
+	private final String _slowLogFile;
+
+	//SQL text -> shape; constant SQL strings hit the same entry every time
+	private final ConcurrentHashMap<String, Shape> _bySql = new ConcurrentHashMap<String, Shape>();
+	private final ConcurrentHashMap<String, Shape> _byShape = new ConcurrentHashMap<String, Shape>();
+	private final LongAdder _slow = new LongAdder();
+	private ScheduledThreadPoolExecutor _executor = null;
+	private PrintStream _slowLog = System.err;
+	private ObjectName _name = null;
+
+	public QueryMetrics(DBproject esql) {
+		this._esql = esql;
+		this._enabled = Boolean.parseBoolean(System.getProperty("db.metrics", "true"));
+		this._dumpSec = Long.getLong("db.metrics.dumpSec", 0L);
+		this._slowNanos = Long.getLong("db.metrics.slowMs", 0L) * 1000000L;
+		this._explainMs = Long.getLong("db.metrics.explainMs", 60000L);
+		this._maxShapes = Integer.getInteger("db.metrics.maxShapes", 500);
+		this._slowLogFile = System.getProperty("db.metrics.slowLog");
+	}
+
+	/**
+	 * Method to register the MBean and start the periodic dump and the
+	 * slow statement log, as configured.
+	 */
+	public void start() {
+		if(!this._enabled) return;
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("DBproject:type=QueryMetrics");
+			if(server.isRegistered(name)){
+				name = new ObjectName("DBproject:type=QueryMetrics,id=" + Integer.toHexString(System.identityHashCode(this)));
+			}
+			server.registerMBean(this, name);
+			this._name = name;
+		}catch(JMException e){
+			System.err.println("Query metrics are not available through JMX: " + e.getMessage());
+		}
+		if(this._slowNanos > 0 && this._slowLogFile != null){
+			try{
+				this._slowLog = new PrintStream(new FileOutputStream(this._slowLogFile, true), true, "UTF-8");
+			}catch(IOException e){
+				System.err.println("Can not open slow query log " + this._slowLogFile + ": " + e.getMessage());
+			}
+		}
+		if(this._dumpSec > 0 || this._slowNanos > 0){
+			this._executor = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread t = new Thread(r, "query-metrics");
+				t.setDaemon(true);
+				return t;
+			});
+			if(this._dumpSec > 0){
+				this._executor.scheduleAtFixedRate(() -> System.err.print(dump()), this._dumpSec, this._dumpSec, TimeUnit.SECONDS);
+			}
+		}
+	}//end start
+
+	/**
+	 * Method to record one finished statement.
+	 *
+	 * @param sql the SQL text as executed
+	 * @param params the bound parameters, used to explain a slow statement
+	 * @param startNanos System.nanoTime() before the connection was borrowed
+	 * @param waitNanos time spent borrowing the connection
+	 * @param rows rows returned or affected
+	 * @param bytes bytes of column data fetched
+	 * @param failed true when the statement threw
+	 */
+	public void record(String sql, Object[] params, long startNanos, long waitNanos, long rows, long bytes, boolean failed) {
+		if(!this._enabled) return;
+		long elapsed = System.nanoTime() - startNanos;
+		Shape s = shapeFor(sql);
+		s.latency.record(elapsed);
+		s.waitNanos.add(waitNanos);
+		s.rows.add(rows);
+		s.bytes.add(bytes);
+		if(failed) s.errors.increment();
+		if(this._slowNanos > 0 && elapsed >= this._slowNanos){
+			this._slow.increment();
+			logSlow(s, sql, params, elapsed);
+		}
+	}//end record
+
+	/**
+	 * @return true when statements are being recorded
+	 */
+	public boolean isEnabled() {
+		return this._enabled;
+	}
+
+	private Shape shapeFor(String sql) {
+		Shape s = this._bySql.get(sql);
+		if(s != null) return s;
+		String shape = shapeOf(sql);
+		if(this._byShape.size() >= this._maxShapes && !this._byShape.containsKey(shape)) shape = OTHER;
+		s = this._byShape.computeIfAbsent(shape, Shape::new);
+		// only texts without literals are remembered, so ad hoc SQL can not fill the map
+		if(count(shape, '?') == count(sql, '?') && this._bySql.size() < this._maxShapes) this._bySql.putIfAbsent(sql, s);
+		return s;
+	}
+
+	/**
+	 * Method to compute the shape of an SQL text: string and number
+	 * literals become ?, runs of blanks become one space.
+	 */
+	static String shapeOf(String sql) {
+		StringBuilder sb = new StringBuilder(sql.length());
+		int n = sql.length();
+		for(int i = 0; i < n; i++){
+			char c = sql.charAt(i);
+			if(c == '\''){
+				// skips the literal, including doubled quotes
+				i++;
+				while(i < n && !(sql.charAt(i) == '\'' && (i + 1 >= n || sql.charAt(i + 1) != '\''))){
+					if(sql.charAt(i) == '\'') i++;
+					i++;
+				}
+				sb.append('?');
+			}else if(Character.isDigit(c) && (sb.length() == 0 || !isWordChar(sb.charAt(sb.length() - 1)))){
+				while(i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) i++;
+				sb.append('?');
+			}else if(Character.isWhitespace(c)){
+				if(sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+			}else{
+				sb.append(c);
+			}
+		}
+		int end = sb.length();
+		while(end > 0 && sb.charAt(end - 1) == ' ') end--;
+		sb.setLength(end);
+		return sb.toString();
+	}//end shapeOf
+
+	private static int count(String s, char c) {
+		int n = 0;
+		for(int i = 0; i < s.length(); i++) if(s.charAt(i) == c) n++;
+		return n;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	/*
+	 * Logs a slow statement, with its plan when the shape was not explained
+	 * recently.  The plan is obtained on the metrics thread so the caller
+	 * is not delayed further.
+	 */
+	private void logSlow(final Shape s, final String sql, final Object[] params, final long elapsed) {
+		long now = System.currentTimeMillis();
+		long last = s.lastExplained.get();
+		final boolean explain = explainable(sql) && now - last >= this._explainMs && s.lastExplained.compareAndSet(last, now);
+		final Object[] values = params == null ? new Object[0] : params.clone();
+		Runnable log = () -> {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.ROOT, "slow query: %.3f ms: %s%n", elapsed / 1e6, s.shape));
+			if(explain){
+				try{
+					for(String line : explain(sql, values)) sb.append("    ").append(line).append('\n');
+				}catch(SQLException e){
+					sb.append("    EXPLAIN failed: ").append(e.getMessage()).append('\n');
+				}
+			}
+			this._slowLog.print(sb);
+		};
+		if(this._executor != null) this._executor.execute(log);
+		else log.run();
+	}//end logSlow
+
+	private static boolean explainable(String sql) {
+		String s = sql.trim().toLowerCase(Locale.ROOT);
+		return s.startsWith("select") || s.startsWith("with") || s.startsWith("insert")
+			|| s.startsWith("update") || s.startsWith("delete");
+	}
+
+	/*
+	 * Plans a statement without running it, on a connection of its own and
+	 * outside the instrumented methods.
+	 */
+	private List<String> explain(String sql, Object[] params) throws SQLException {
+		List<String> plan = new ArrayList<String>();
+		Connection conn = this._esql.getConnection();
+		try{
+			PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql);
+			try{
+				DBproject.bindParameters(stmt, params);
+				ResultSet rs = stmt.executeQuery();
+				while(rs.next()) plan.add(rs.getString(1));
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+		return plan;
+	}//end explain
+
+	@Override
+	public List<ShapeStats> getStatements() {
+		List<ShapeStats> list = new ArrayList<ShapeStats>();
+		for(Shape s : this._byShape.values()) list.add(new ShapeStats(s));
+		list.sort((a, b) -> Double.compare(b.getTotalMs(), a.getTotalMs()));
+		return list;
+	}
+
+	@Override
+	public long getTotalCalls() {
+		long n = 0;
+		for(Shape s : this._byShape.values()) n += s.latency.getCount();
+		return n;
+	}
+
+	@Override
+	public long getTotalErrors() {
+		long n = 0;
+		for(Shape s : this._byShape.values()) n += s.errors.sum();
+		return n;
+	}
+
+	@Override
+	public long getSlowQueries() {
+		return this._slow.sum();
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "%n%8s %6s %10s %10s %10s %10s %10s %10s %10s %10s  %s%n",
+			"calls", "errors", "rows", "KB", "total ms", "mean ms", "p95 ms", "p99 ms", "max ms", "wait ms", "statement"));
+		for(ShapeStats s : getStatements()){
+			String shape = s.getShape();
+			if(shape.length() > 100) shape = shape.substring(0, 97) + "...";
+			sb.append(String.format(Locale.ROOT, "%8d %6d %10d %10d %10.1f %10.3f %10.3f %10.3f %10.3f %10.1f  %s%n",
+				s.getCalls(), s.getErrors(), s.getRows(), s.getBytes() / 1024, s.getTotalMs(), s.getMeanMs(),
+				s.getP95Ms(), s.getP99Ms(), s.getMaxMs(), s.getConnectionWaitMs(), shape));
+		}
+		return sb.toString();
+	}//end dump
+
+	@Override
+	public void reset() {
+		this._bySql.clear();
+		this._byShape.clear();
+		this._slow.reset();
+	}
+
+	/**
+	 * Method to stop the dump thread, write a last dump when dumps were
+	 * requested, and unregister the MBean.
+	 */
+	public void close() {
+		if(this._executor != null){
+			this._executor.shutdown();
+			try{
+				this._executor.awaitTermination(5, TimeUnit.SECONDS);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			if(this._dumpSec > 0) System.err.print(dump());
+		}
+		if(this._slowLog != System.err) this._slowLog.close();
+		if(this._name != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._name);
+			}catch(JMException e){
+				// already gone
+			}
+			this._name = null;
+		}
+	}//end close
+}
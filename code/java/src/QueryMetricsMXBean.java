@@ -0,0 +1,24 @@
+import java.util.List;
+
+/**
+ * JMX view of QueryMetrics, registered as DBproject:type=QueryMetrics.
+ */
+public interface QueryMetricsMXBean{
+	/**
+	 * @return one entry per statement shape, slowest total time first
+	 */
+	List<QueryMetrics.ShapeStats> getStatements();
+
+	long getTotalCalls();
+
+	long getTotalErrors();
+
+	long getSlowQueries();
+
+	/**
+	 * @return the text dump also written periodically
+	 */
+	String dump();
+
+	void reset();
+}
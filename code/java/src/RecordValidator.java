@@ -0,0 +1,70 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * This class holds the input rules shared by the interactive prompts of
+ * DBproject and the bulk import path, so both accept exactly the same
+ * doctors, patients and appointments.
+ */
+public class RecordValidator{
+	//immutable and thread-safe; STRICT rejects dates such as 2/30/2021
+	static final DateTimeFormatter DATE_FORMAT =
+		DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+	private RecordValidator() {}
+
+	/**
+	 * @return true when gender is M(Male) or F(Female)
+	 */
+	public static boolean isValidGender(String gender) {
+		return "M".equals(gender) || "F".equals(gender);
+	}
+
+	/**
+	 * @return true when status is PA, AC, AV or WL
+	 */
+	public static boolean isValidStatus(String status) {
+		return AppointmentStatus.isValid(status);
+	}
+
+	/**
+	 * @return true when date is a real calendar date in the format mm/dd/yyyy
+	 */
+	public static boolean isValidDate(String date) {
+		return parseDate(date) != null;
+	}
+
+	/**
+	 * @return the date written as mm/dd/yyyy, or null when text is not a
+	 *         real calendar date in that format
+	 */
+	public static LocalDate parseDate(String text) {
+		if(text == null) return null;
+		try{
+			return LocalDate.parse(text.trim(), DATE_FORMAT);
+		}catch(DateTimeParseException e){
+			return null;
+		}
+	}
+
+	/**
+	 * @return true when slot looks like H:m-H:m, e.g. 8:30-22:00, and ends
+	 *         after it starts
+	 */
+	public static boolean isValidTimeSlot(String slot) {
+		return TimeSlot.parse(slot) != null;
+	}
+
+	/**
+	 * @return the integer value of text, or null when it is not an integer
+	 */
+	public static Integer parseInteger(String text) {
+		try{
+			return Integer.valueOf(text.trim());
+		}catch(Exception e){
+			return null;
+		}
+	}
+}
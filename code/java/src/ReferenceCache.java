@@ -0,0 +1,405 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class caches the Hospital, Department and Doctor reference tables in
+ * process, with hash lookups by ID and by name, so that validating a
+ * department name or finding a doctor's hospital does not reach the
+ * database.
+ *
+ * A table is loaded in full on first use.  A table with more rows than
+ * db.refCache.maxEntries is not held in full; its rows are then cached by
+ * ID in an LRU map of that size and lookups by name go to the database.
+ *
+ * The triggers of sql/notify.sql send NOTIFY reference_changed with the
+ * table name as payload whenever one of the tables changes.  A dedicated
+ * connection LISTENs on that channel and is polled every db.refCache.pollMs
+ * milliseconds (the 42.1.x driver only delivers notifications after a
+ * round trip); a notification drops the cached copy of its table.  While
+ * the listener is not connected, or when the triggers are not installed,
+ * every lookup goes to the database so a stale row is never served.
+ *
+ *   db.refCache            set to false to bypass the cache (default true)
+ *   db.refCache.maxEntries rows held per table (default 100000)
+ *   db.refCache.pollMs     notification polling interval (default 250)
+ */
+public class ReferenceCache{
+	static final String CHANNEL = "reference_changed";
+	static final String CHECK_TRIGGERS =
+		"SELECT count(*) FROM pg_trigger WHERE tgname IN ('hospital_notify', 'department_notify', 'doctor_notify');";
+
+	/**
+	 * One cached row: its ID, its name and the ID of the row it belongs to
+	 * (the hospital of a department, the department of a doctor, or -1).
+	 */
+	public static class Ref{
+		public final int id;
+		public final String name;
+		public final int parent;
+
+		Ref(int id, String name, int parent){
+			this.id = id;
+			this.name = name;
+			this.parent = parent;
+		}
+	}//end Ref
+
+	/**
+	 * The cached copy of one table.  Loads and invalidations of a table are
+	 * serialized on the Table object, so an invalidation that arrives
+	 * during a load always clears the result of that load.
+	 */
+	class Table{
+		final String name;
+		final String loadSql;
+		final String byIdSql;
+		final String byNameSql;
+		final String namesSql;
+
+		boolean loaded = false;
+		//true when every row of the table is in byId and byName
+		boolean complete = false;
+		Map<Integer, Ref> byId = new HashMap<Integer, Ref>();
+		Map<String, List<Ref>> byName = new HashMap<String, List<Ref>>();
+
+		Table(String table, String id, String name, String parent){
+			this.name = table.toLowerCase();
+			String select = "SELECT " + id + ", " + name + ", " + parent + " FROM " + table;
+			this.loadSql = select + " LIMIT ?;";
+			this.byIdSql = select + " WHERE " + id + " = ?;";
+			this.byNameSql = select + " WHERE " + name + " = ?;";
+			this.namesSql = "SELECT DISTINCT " + name + " FROM " + table + " ORDER BY 1;";
+		}
+
+		synchronized void invalidate() {
+			this.loaded = false;
+			this.complete = false;
+			this.byId = new HashMap<Integer, Ref>();
+			this.byName = new HashMap<String, List<Ref>>();
+		}
+
+		/*
+		 * Loads the whole table, or switches to an LRU map of single rows
+		 * when it has more than maxEntries rows.
+		 */
+		synchronized void ensureLoaded() throws SQLException {
+			if(this.loaded) return;
+			List<Ref> rows = query(this.loadSql, _maxEntries + 1);
+			if(rows.size() <= _maxEntries){
+				for(Ref r : rows){
+					this.byId.put(r.id, r);
+					List<Ref> named = this.byName.get(r.name);
+					if(named == null){
+						named = new ArrayList<Ref>(1);
+						this.byName.put(r.name, named);
+					}
+					named.add(r);
+				}
+				this.complete = true;
+			}else{
+				this.byId = new LinkedHashMap<Integer, Ref>(16, 0.75f, true){
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<Integer, Ref> eldest) {
+						return size() > _maxEntries;
+					}
+				};
+				this.complete = false;
+			}
+			this.loaded = true;
+		}//end ensureLoaded
+
+		Ref get(int id) throws SQLException {
+			if(!_listening) return first(query(this.byIdSql, id));
+			synchronized(this){
+				ensureLoaded();
+				if(this.complete || this.byId.containsKey(id)){
+					Ref r = this.byId.get(id);
+					_hits.incrementAndGet();
+					return r == MISSING ? null : r;
+				}
+				_misses.incrementAndGet();
+				Ref r = first(query(this.byIdSql, id));
+				this.byId.put(id, r == null ? MISSING : r);
+				return r;
+			}
+		}
+
+		List<Ref> named(String name) throws SQLException {
+			if(_listening){
+				synchronized(this){
+					ensureLoaded();
+					if(this.complete){
+						_hits.incrementAndGet();
+						List<Ref> named = this.byName.get(name);
+						return named == null ? Collections.<Ref>emptyList() : Collections.unmodifiableList(named);
+					}
+				}
+			}
+			_misses.incrementAndGet();
+			return query(this.byNameSql, name);
+		}
+
+		List<String> names() throws SQLException {
+			if(_listening){
+				synchronized(this){
+					ensureLoaded();
+					if(this.complete){
+						_hits.incrementAndGet();
+						return new ArrayList<String>(new TreeSet<String>(this.byName.keySet()));
+					}
+				}
+			}
+			_misses.incrementAndGet();
+			List<String> names = new ArrayList<String>();
+			_esql.executeQueryStreamingOnPrimary(this.namesSql, row -> names.add(row.getString(1)));
+			return names;
+		}
+	}//end Table
+
+	//marks an ID known not to exist in an LRU-cached table
+	static final Ref MISSING = new Ref(-1, null, -1);
+
+	private final DBproject _esql;
+	private final String _url;
+	private final Properties _props;
+	private final boolean _enabled;
+	private final int _maxEntries;
+	private final long _pollMs;
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+
+	private final Table _hospitals = new Table("Hospital", "hospital_ID", "name", "-1");
+	private final Table _departments = new Table("Department", "dept_ID", "name", "hid");
+	private final Table _doctors = new Table("Doctor", "doctor_ID", "name", "did");
+
+	private Connection _listener = null;
+	private volatile boolean _listening = false;
+	private boolean _warned = false;
+	private ScheduledExecutorService _poller = null;
+
+	public ReferenceCache(DBproject esql, String url, String user, String passwd) {
+		this._esql = esql;
+		this._url = url;
+		this._props = new Properties();
+		this._props.setProperty("user", user);
+		this._props.setProperty("password", passwd);
+		this._enabled = Boolean.parseBoolean(System.getProperty("db.refCache", "true"));
+		this._maxEntries = Math.max(1, Integer.getInteger("db.refCache.maxEntries", 100000));
+		this._pollMs = Math.max(10L, Long.getLong("db.refCache.pollMs", 250L));
+	}
+
+	/**
+	 * Method to connect the listener and start polling for notifications.
+	 * Does nothing when the cache is disabled.
+	 */
+	public void start() {
+		if(!this._enabled) return;
+		this._poller = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "db-refcache-listener");
+			t.setDaemon(true);
+			return t;
+		});
+		poll();
+		this._poller.scheduleWithFixedDelay(this::poll, this._pollMs, this._pollMs, TimeUnit.MILLISECONDS);
+	}//end start
+
+	public Ref hospital(int id) throws SQLException {
+		return this._hospitals.get(id);
+	}
+
+	public Ref department(int id) throws SQLException {
+		return this._departments.get(id);
+	}
+
+	public Ref doctor(int id) throws SQLException {
+		return this._doctors.get(id);
+	}
+
+	public List<Ref> hospitalsNamed(String name) throws SQLException {
+		return this._hospitals.named(name);
+	}
+
+	public List<Ref> departmentsNamed(String name) throws SQLException {
+		return this._departments.named(name);
+	}
+
+	public List<Ref> doctorsNamed(String name) throws SQLException {
+		return this._doctors.named(name);
+	}
+
+	/**
+	 * @return the distinct department names, sorted
+	 */
+	public List<String> departmentNames() throws SQLException {
+		return this._departments.names();
+	}
+
+	/**
+	 * Method to find the hospital a doctor works at, through the doctor's
+	 * department.
+	 *
+	 * @param doctorId the doctor
+	 * @return the hospital ID, or null when the doctor or its department
+	 *         does not exist
+	 */
+	public Integer hospitalOfDoctor(int doctorId) throws SQLException {
+		Ref doctor = doctor(doctorId);
+		if(doctor == null) return null;
+		Ref department = department(doctor.parent);
+		return department == null ? null : department.parent;
+	}
+
+	/**
+	 * Method to drop the cached copy of a table, e.g. right after this
+	 * process changed it, without waiting for the notification.
+	 *
+	 * @param table Hospital, Department or Doctor, in any case
+	 */
+	public void invalidate(String table) {
+		for(Table t : tables()){
+			if(t.name.equalsIgnoreCase(table)) t.invalidate();
+		}
+	}
+
+	public void invalidateAll() {
+		for(Table t : tables()) t.invalidate();
+	}
+
+	public boolean isListening() {
+		return this._listening;
+	}
+
+	public long getHits() {
+		return this._hits.get();
+	}
+
+	public long getMisses() {
+		return this._misses.get();
+	}
+
+	/**
+	 * Method to stop polling and close the listener connection.
+	 */
+	public void close() {
+		if(this._poller != null){
+			this._poller.shutdownNow();
+			try{
+				this._poller.awaitTermination(1, TimeUnit.SECONDS);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		this._listening = false;
+		closeListener();
+	}//end close
+
+	private Table[] tables() {
+		return new Table[]{ this._hospitals, this._departments, this._doctors };
+	}
+
+	/*
+	 * Runs on the poller thread: (re)connects the listener when needed and
+	 * applies the notifications received since the last poll.  Any failure
+	 * turns the cache off until the listener is back, and the tables are
+	 * dropped since changes may have been missed in between.
+	 */
+	private void poll() {
+		try{
+			if(this._listener == null){
+				connectListener();
+				if(this._listener == null) return;
+			}
+			Statement stmt = this._listener.createStatement();
+			stmt.execute("SELECT 1;");
+			stmt.close();
+			PGNotification[] notes = this._listener.unwrap(PGConnection.class).getNotifications();
+			if(notes == null) return;
+			for(PGNotification n : notes){
+				if(CHANNEL.equals(n.getName())) invalidate(n.getParameter());
+			}
+		}catch(SQLException | RuntimeException e){
+			this._listening = false;
+			invalidateAll();
+			closeListener();
+		}
+	}//end poll
+
+	private void connectListener() throws SQLException {
+		Connection conn = DriverManager.getConnection(this._url, this._props);
+		try{
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(CHECK_TRIGGERS);
+			rs.next();
+			boolean installed = rs.getInt(1) == 3;
+			rs.close();
+			if(!installed){
+				stmt.close();
+				conn.close();
+				if(!this._warned){
+					System.err.println("Reference cache disabled: run sql/notify.sql to install its triggers");
+					this._warned = true;
+				}
+				return;
+			}
+			stmt.execute("LISTEN " + CHANNEL + ";");
+			stmt.close();
+		}catch(SQLException e){
+			conn.close();
+			throw e;
+		}
+		this._listener = conn;
+		invalidateAll();
+		this._listening = true;
+	}//end connectListener
+
+	private void closeListener() {
+		if(this._listener == null) return;
+		try{
+			this._listener.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+		this._listener = null;
+	}
+
+	private List<Ref> query(String sql, Object... params) throws SQLException {
+		List<Ref> rows = new ArrayList<Ref>();
+		Connection conn = this._esql.getConnection();
+		try{
+			PreparedStatement stmt = this._esql.prepareStatement(conn, sql);
+			DBproject.bindParameters(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				while(rs.next()) rows.add(new Ref(rs.getInt(1), rs.getString(2), rs.getInt(3)));
+			}finally{
+				rs.close();
+			}
+		}finally{
+			this._esql.releaseConnection(conn);
+		}
+		return rows;
+	}
+
+	private static Ref first(List<Ref> rows) {
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+}
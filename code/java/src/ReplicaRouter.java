@@ -0,0 +1,259 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends the read-only queries of DBproject to streaming
+ * replicas of the primary database, round robin over the replicas that
+ * passed their last health check, and falls back to the primary when none
+ * can serve a read.  Every replica has a ConnectionPool of its own with
+ * the db.pool.* settings of the primary.
+ *
+ * With read-your-writes on, every write records the WAL position of the
+ * primary after it, and a later read goes to a replica only once the
+ * replica has replayed up to that position, waiting up to db.replicas.waitMs
+ * for it.  The position belongs to the session, i.e. the DBproject, not to
+ * a thread: writes made for it on worker threads, such as the promotions
+ * of the WaitlistScheduler, are seen by the next read of any thread.  With
+ * many clients on one DBproject (LoadDriver) a read thus waits for the
+ * latest write of any client.
+ *
+ *   db.replicas                comma separated host:port of the replicas
+ *                              (default none, everything goes to the primary)
+ *   db.replicas.readYourWrites wait for the session's last write (default false)
+ *   db.replicas.waitMs         longest wait for a replica to catch up (default 500)
+ *   db.replicas.checkMs        time between health checks (default 5000)
+ *   db.replicas.maxLagMs       replicas further behind are skipped (default 0, no limit)
+ */
+public class ReplicaRouter{
+	static final String SELECT_WRITE_LSN = "SELECT pg_current_wal_lsn()::text;";
+	static final String SELECT_REPLAY_LSN = "SELECT pg_last_wal_replay_lsn()::text;";
+	//replay lag in ms; 0 when everything received has been replayed
+	static final String SELECT_REPLICA_LAG =
+		"SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0\n" +
+		"ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END;";
+
+	/**
+	 * One replica endpoint.
+	 */
+	static class Replica{
+		final String endpoint;
+		final ConnectionPool pool;
+		volatile boolean healthy = true;
+
+		Replica(String endpoint, ConnectionPool pool){
+			this.endpoint = endpoint;
+			this.pool = pool;
+		}
+	}//end Replica
+
+	private final Replica[] _replicas;
+	private final AtomicInteger _next = new AtomicInteger();
+	private final boolean _readYourWrites;
+	private final long _waitMs;
+	private final long _maxLagMs;
+	//WAL position after the last write of the session, 0 before any and
+	//Long.MAX_VALUE when it could not be read
+	private final AtomicLong _lastWrite = new AtomicLong();
+	private final ScheduledExecutorService _checker;
+
+	private ReplicaRouter(List<Replica> replicas) {
+		this._replicas = replicas.toArray(new Replica[0]);
+		this._readYourWrites = Boolean.getBoolean("db.replicas.readYourWrites");
+		this._waitMs = Long.getLong("db.replicas.waitMs", 500L);
+		this._maxLagMs = Long.getLong("db.replicas.maxLagMs", 0L);
+		long checkMs = Math.max(100L, Long.getLong("db.replicas.checkMs", 5000L));
+		this._checker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "db-replica-check");
+			t.setDaemon(true);
+			return t;
+		});
+		this._checker.scheduleWithFixedDelay(this::check, checkMs, checkMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to create the router configured by db.replicas.
+	 *
+	 * @param dbname the database, the same on every replica
+	 * @return the router, or null when no replica is configured
+	 */
+	public static ReplicaRouter fromProperties(String dbname, String user, String passwd) {
+		String list = System.getProperty("db.replicas", "").trim();
+		if(list.isEmpty()) return null;
+		List<Replica> replicas = new ArrayList<Replica>();
+		for(String endpoint : list.split(",")){
+			endpoint = endpoint.trim();
+			if(endpoint.isEmpty()) continue;
+			String url = "jdbc:postgresql://" + endpoint + "/" + dbname;
+			replicas.add(new Replica(endpoint, new ConnectionPool(url, user, passwd)));
+		}
+		if(replicas.isEmpty()) return null;
+		System.out.println("Read replicas: " + list);
+		return new ReplicaRouter(replicas);
+	}//end fromProperties
+
+	/**
+	 * Method to borrow a connection for a read from the next healthy
+	 * replica that is recent enough for the session.
+	 *
+	 * @return a replica connection, or null when the read should go to
+	 *         the primary
+	 */
+	public Connection borrow() {
+		long lsn = this._readYourWrites ? this._lastWrite.get() : 0;
+		if(lsn == Long.MAX_VALUE) return null;
+		for(int i = 0; i < this._replicas.length; i++){
+			Replica r = this._replicas[Math.floorMod(this._next.getAndIncrement(), this._replicas.length)];
+			if(!r.healthy) continue;
+			Connection conn;
+			try{
+				conn = r.pool.borrow();
+			}catch(SQLException e){
+				markDown(r, e.getMessage());
+				continue;
+			}
+			try{
+				if(lsn == 0 || caughtUp(r.pool, conn, lsn)) return conn;
+			}catch(SQLException e){
+				markDown(r, e.getMessage());
+			}
+			r.pool.release(conn);
+		}
+		return null;
+	}//end borrow
+
+	/**
+	 * @return the replica pool a connection was borrowed from, or null
+	 *         when it is not a replica connection
+	 */
+	public ConnectionPool poolOf(Connection conn) {
+		for(Replica r : this._replicas){
+			if(r.pool.owns(conn)) return r.pool;
+		}
+		return null;
+	}
+
+	/**
+	 * Method to give a connection back to its replica pool.
+	 *
+	 * @return false when it is not a replica connection
+	 */
+	public boolean release(Connection conn) {
+		ConnectionPool pool = poolOf(conn);
+		if(pool == null) return false;
+		pool.release(conn);
+		return true;
+	}
+
+	/**
+	 * Method to note a write through a primary connection, which must not
+	 * be inside an open transaction, on any thread.  When the WAL position
+	 * can not be read, reads go to the primary until the next write.
+	 *
+	 * @param pool the pool of the primary
+	 * @param primary the primary connection the write was made on
+	 */
+	public void noteWrite(ConnectionPool pool, Connection primary) {
+		if(!this._readYourWrites) return;
+		try{
+			PreparedStatement stmt = pool.prepare(primary, SELECT_WRITE_LSN);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				if(rs.next()){
+					final long lsn = parseLsn(rs.getString(1));
+					// later positions cover the earlier writes as well
+					this._lastWrite.updateAndGet(last -> last == Long.MAX_VALUE ? lsn : Math.max(last, lsn));
+				}
+			}finally{
+				rs.close();
+			}
+		}catch(SQLException e){
+			this._lastWrite.set(Long.MAX_VALUE);
+		}
+	}//end noteWrite
+
+	/*
+	 * Waits until the replica has replayed the WAL up to lsn, polling with
+	 * a growing pause, for at most db.replicas.waitMs.
+	 */
+	private boolean caughtUp(ConnectionPool pool, Connection conn, long lsn) throws SQLException {
+		long deadline = System.currentTimeMillis() + this._waitMs;
+		long pause = 1;
+		PreparedStatement stmt = pool.prepare(conn, SELECT_REPLAY_LSN);
+		while(true){
+			ResultSet rs = stmt.executeQuery();
+			try{
+				// a promoted replica has no replay position and is current
+				if(!rs.next() || rs.getString(1) == null || parseLsn(rs.getString(1)) >= lsn) return true;
+			}finally{
+				rs.close();
+			}
+			if(System.currentTimeMillis() + pause > deadline) return false;
+			try{
+				Thread.sleep(pause);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			pause = Math.min(pause * 2, 20);
+		}
+	}//end caughtUp
+
+	/*
+	 * Health check of every replica: reachable and, when maxLagMs is set,
+	 * not too far behind.
+	 */
+	private void check() {
+		for(Replica r : this._replicas){
+			Connection conn = null;
+			try{
+				conn = r.pool.borrow();
+				PreparedStatement stmt = r.pool.prepare(conn, SELECT_REPLICA_LAG);
+				ResultSet rs = stmt.executeQuery();
+				double lag = rs.next() ? rs.getDouble(1) : 0;
+				rs.close();
+				if(this._maxLagMs > 0 && lag > this._maxLagMs){
+					markDown(r, String.format("%.0f ms behind the primary", lag));
+				}else if(!r.healthy){
+					r.healthy = true;
+					System.err.println("Replica " + r.endpoint + " is back in service");
+				}
+			}catch(SQLException e){
+				markDown(r, e.getMessage());
+			}finally{
+				r.pool.release(conn);
+			}
+		}
+	}//end check
+
+	private static void markDown(Replica r, String reason) {
+		if(r.healthy){
+			r.healthy = false;
+			System.err.println("Replica " + r.endpoint + " taken out of service: " + reason);
+		}
+	}
+
+	/**
+	 * @return the WAL position written as X/Y in hex as one number
+	 */
+	static long parseLsn(String lsn) {
+		int slash = lsn.indexOf('/');
+		return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+	}
+
+	/**
+	 * Method to stop the health checks and close every replica pool.
+	 */
+	public void close() {
+		this._checker.shutdownNow();
+		for(Replica r : this._replicas) r.pool.close();
+	}
+}
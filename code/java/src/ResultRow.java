@@ -0,0 +1,91 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class gives typed, read-only access to the current row of a
+ * streamed ResultSet.  A single instance is reused for every row, so
+ * handlers must copy out the values they want to keep.
+ */
+public class ResultRow{
+	private final ResultSet _rs;
+	private final int _numCol;
+	private long _rowNumber = 0;
+
+	ResultRow(ResultSet rs) throws SQLException {
+		this._rs = rs;
+		this._numCol = rs.getMetaData().getColumnCount();
+	}
+
+	void advance() {
+		this._rowNumber++;
+	}
+
+	/**
+	 * @return the 1-based position of this row in the result
+	 */
+	public long getRowNumber() {
+		return this._rowNumber;
+	}
+
+	public int getColumnCount() {
+		return this._numCol;
+	}
+
+	public String getColumnName(int column) throws SQLException {
+		return this._rs.getMetaData().getColumnName(column);
+	}
+
+	/**
+	 * @return the SQL type of the column, one of java.sql.Types
+	 */
+	public int getColumnType(int column) throws SQLException {
+		return this._rs.getMetaData().getColumnType(column);
+	}
+
+	public String getString(int column) throws SQLException {
+		return this._rs.getString(column);
+	}
+
+	/**
+	 * @return the column value, or 0 when it is SQL NULL
+	 */
+	public int getInt(int column) throws SQLException {
+		return this._rs.getInt(column);
+	}
+
+	public long getLong(int column) throws SQLException {
+		return this._rs.getLong(column);
+	}
+
+	public boolean wasNull() throws SQLException {
+		return this._rs.wasNull();
+	}
+
+	public LocalDate getDate(int column) throws SQLException {
+		Date d = this._rs.getDate(column);
+		return d == null ? null : d.toLocalDate();
+	}
+
+	public AppointmentStatus getStatus(int column) throws SQLException {
+		return AppointmentStatus.fromCode(this._rs.getString(column));
+	}
+
+	public int getInt(String column) throws SQLException {
+		return this._rs.getInt(column);
+	}
+
+	public String getString(String column) throws SQLException {
+		return this._rs.getString(column);
+	}
+
+	public LocalDate getDate(String column) throws SQLException {
+		Date d = this._rs.getDate(column);
+		return d == null ? null : d.toLocalDate();
+	}
+
+	public AppointmentStatus getStatus(String column) throws SQLException {
+		return AppointmentStatus.fromCode(this._rs.getString(column));
+	}
+}
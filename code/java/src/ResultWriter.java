@@ -0,0 +1,165 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * This class writes query results in one output format.  It is a
+ * RowHandler, so it can be passed to DBproject.executeQueryStreaming and
+ * write every row as it arrives, and rows computed in memory can be
+ * written with row().  The header is taken from the first streamed row
+ * unless columns() is called first.
+ *
+ * Output goes through one large buffer and is flushed by close(), so a
+ * result costs a write call per buffer rather than per cell.  Closing a
+ * writer on standard output flushes it but leaves the stream open.
+ *
+ * Subclasses: TableResultWriter, CsvResultWriter and JsonResultWriter.
+ */
+public abstract class ResultWriter implements RowHandler, Closeable{
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	protected final Writer _out;
+	private final boolean _closeOut;
+	protected String[] _columns = null;
+	protected boolean[] _numeric = null;
+	private long _rows = 0;
+	private boolean _closed = false;
+
+	protected ResultWriter(Writer out, boolean closeOut) {
+		this._out = out;
+		this._closeOut = closeOut;
+	}
+
+	/**
+	 * Method to create a writer of the given format.
+	 *
+	 * @param format table, csv or json
+	 * @param file the file to write, or null or - for standard output
+	 * @return the writer
+	 * @throws java.io.IOException when the file can not be created
+	 */
+	public static ResultWriter open(String format, String file) throws IOException {
+		boolean stdout = file == null || file.equals("-");
+		OutputStream stream = stdout ? System.out : new FileOutputStream(file);
+		Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+		switch(format.toLowerCase()){
+			case "table":
+				return new TableResultWriter(out, !stdout);
+			case "csv":
+				return new CsvResultWriter(out, !stdout);
+			case "json":
+				return new JsonResultWriter(out, !stdout);
+			default:
+				if(!stdout) stream.close();
+				throw new IllegalArgumentException("Unknown output format " + format + ", expected table, csv or json");
+		}
+	}//end open
+
+	/**
+	 * Method to set the header explicitly, e.g. for rows that do not come
+	 * from a query.  Must be called before the first row.
+	 *
+	 * @param names the column names
+	 * @param numeric which columns hold numbers; those are right-aligned
+	 *        in tables and unquoted in JSON
+	 */
+	public void columns(String[] names, boolean[] numeric) {
+		if(this._columns != null) throw new IllegalStateException("columns already set");
+		this._columns = names.clone();
+		this._numeric = numeric.clone();
+		try{
+			writeHeader();
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Method to write one row; null values are SQL NULL.
+	 */
+	public void row(String... values) {
+		if(this._columns == null) throw new IllegalStateException("columns not set");
+		try{
+			writeRow(values);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		this._rows++;
+	}
+
+	@Override
+	public void handle(ResultRow row) throws SQLException {
+		int n = row.getColumnCount();
+		if(this._columns == null){
+			String[] names = new String[n];
+			boolean[] numeric = new boolean[n];
+			for(int i = 0; i < n; i++){
+				names[i] = row.getColumnName(i + 1);
+				numeric[i] = isNumeric(row.getColumnType(i + 1));
+			}
+			columns(names, numeric);
+		}
+		String[] values = new String[n];
+		for(int i = 0; i < n; i++) values[i] = row.getString(i + 1);
+		row(values);
+	}//end handle
+
+	/**
+	 * @return the number of rows written so far
+	 */
+	public long getRowCount() {
+		return this._rows;
+	}
+
+	/**
+	 * Method to finish the output and flush it.  Closes the underlying
+	 * file, but not standard output.
+	 */
+	@Override
+	public void close() {
+		if(this._closed) return;
+		this._closed = true;
+		try{
+			writeFooter();
+			this._out.flush();
+			if(this._closeOut) this._out.close();
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}//end close
+
+	protected abstract void writeHeader() throws IOException;
+
+	protected abstract void writeRow(String[] values) throws IOException;
+
+	/*
+	 * Called once by close(), also when no row was written and
+	 * _columns is still null.
+	 */
+	protected abstract void writeFooter() throws IOException;
+
+	static boolean isNumeric(int sqlType) {
+		switch(sqlType){
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
@@ -0,0 +1,8 @@
+import java.sql.SQLException;
+
+/**
+ * Callback invoked once per row by DBproject.executeQueryStreaming.
+ */
+public interface RowHandler{
+	void handle(ResultRow row) throws SQLException;
+}
@@ -0,0 +1,399 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs DBproject operations non-interactively from a workload
+ * file or standard input, one command per line:
+ *
+ *   add-doctor <doctor_ID|-> <name> <specialty> <did>
+ *   add-patient <patient_ID|-> <name> <M|F> <age> <address> <number_of_appts>
+ *   add-appointment <appnt_ID|-> <mm/dd/yyyy> <H:m-H:m> <PA|AC|AV|WL>
+ *   book <patient_ID> <doctor_ID> <appnt_ID>
+ *   cancel <patient_ID> <appnt_ID>
+ *   list-doctor-appointments <doctor_ID> <from mm/dd/yyyy> <to mm/dd/yyyy>
+ *   list-available <department name> <mm/dd/yyyy>
+ *   status-per-doctor
+ *   patients-per-doctor <PA|AC|AV|WL>
+ *   capacity <from mm/dd/yyyy> <to mm/dd/yyyy>
+ *
+ * Arguments are separated by blanks; use double quotes around arguments
+ * that contain blanks.  Blank lines and lines starting with # are ignored.
+ * Arguments are checked with the same rules as the interactive prompts.
+ * An ID of - is generated from the block of IDs the runner holds (see
+ * IdAllocator), so generated IDs cost no round trip and keep the batch.
+ *
+ * Runs of the same add-* command are pipelined: they are sent as one JDBC
+ * batch of up to BATCH_SIZE rows, in one round trip and one transaction.
+ * When the database refuses a row of a batch, the batch is replayed row by
+ * row so only that command fails.  At the end a report gives the count,
+ * errors and latency percentiles of every operation and the overall
+ * throughput.
+ */
+public class ScriptRunner{
+	static final int BATCH_SIZE = 500;
+
+	/**
+	 * Latencies and errors of one operation.
+	 */
+	static class OpStats{
+		final LatencyHistogram latency = new LatencyHistogram();
+		int errors = 0;
+		long rows = 0;
+
+		void record(long elapsed) {
+			this.latency.record(elapsed);
+		}
+	}//end OpStats
+
+	/**
+	 * A parsed add-* command waiting in the current batch.
+	 */
+	static class Pending{
+		final int lineNumber;
+		final Object[] params;
+
+		Pending(int lineNumber, Object[] params){
+			this.lineNumber = lineNumber;
+			this.params = params;
+		}
+	}//end Pending
+
+	private final DBproject _esql;
+	private final boolean _echo;
+	private final Map<String, OpStats> _stats = new LinkedHashMap<String, OpStats>();
+
+	private String _batchOp = null;
+	private String _batchSql = null;
+	private final List<Pending> _batch = new ArrayList<Pending>();
+
+	public ScriptRunner(DBproject esql, boolean echo) {
+		this._esql = esql;
+		this._echo = echo;
+	}
+
+	/**
+	 * Method to run every command of a workload and print the report.
+	 *
+	 * @param source a file name, or - for standard input
+	 * @throws IOException when the workload can not be read
+	 */
+	public void run(String source) throws IOException {
+		InputStream stream = source.equals("-") ? System.in : new FileInputStream(source);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+		long start = System.nanoTime();
+		try{
+			String line;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null){
+				lineNumber++;
+				String trimmed = line.trim();
+				if(trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+				execute(lineNumber, tokenize(trimmed));
+			}
+			flush();
+		}finally{
+			if(stream != System.in) reader.close();
+		}
+		report(System.nanoTime() - start);
+	}//end run
+
+	/*
+	 * Runs one command, or queues it when it can join the current batch.
+	 */
+	private void execute(int lineNumber, List<String> cmd) {
+		String op = cmd.get(0);
+		List<String> args = cmd.subList(1, cmd.size());
+		Object[] params;
+		String insert = null;
+		try{
+			switch(op){
+				case "add-doctor":
+					arity(args, 4);
+					insert = DBproject.INSERT_DOCTOR;
+					params = new Object[]{ id(args.get(0), this._esql.getDoctorIds()), args.get(1), args.get(2), integer(args.get(3)) };
+					break;
+				case "add-patient":
+					arity(args, 6);
+					if(!RecordValidator.isValidGender(args.get(2))) throw new IllegalArgumentException("Gender must be M(Male) or F(Female)");
+					insert = DBproject.INSERT_PATIENT;
+					params = new Object[]{ id(args.get(0), this._esql.getPatientIds()), args.get(1), args.get(2), integer(args.get(3)), args.get(4), integer(args.get(5)) };
+					break;
+				case "add-appointment":
+					arity(args, 4);
+					if(!RecordValidator.isValidTimeSlot(args.get(2))) throw new IllegalArgumentException("Invalid time slot! Try the format(H:m-H:m)");
+					if(!RecordValidator.isValidStatus(args.get(3))) throw new IllegalArgumentException("Appointment Status must be : PA(Past), AC(Active), AV(Available) and WL(Waitlisted).");
+					insert = DBproject.INSERT_APPOINTMENT;
+					params = new Object[]{ id(args.get(0), this._esql.getAppointmentIds()), date(args.get(1)), args.get(2), args.get(3) };
+					break;
+				case "book":
+					arity(args, 3);
+					params = new Object[]{ integer(args.get(0)), integer(args.get(1)), integer(args.get(2)) };
+					break;
+				case "cancel":
+					arity(args, 2);
+					params = new Object[]{ integer(args.get(0)), integer(args.get(1)) };
+					break;
+				case "list-doctor-appointments":
+					arity(args, 3);
+					params = new Object[]{ integer(args.get(0)), date(args.get(1)), date(args.get(2)) };
+					break;
+				case "list-available":
+					arity(args, 2);
+					params = new Object[]{ args.get(0), date(args.get(1)) };
+					break;
+				case "status-per-doctor":
+					arity(args, 0);
+					params = new Object[0];
+					break;
+				case "patients-per-doctor":
+					arity(args, 1);
+					if(!RecordValidator.isValidStatus(args.get(0))) throw new IllegalArgumentException("Appointment Status must be : PA(Past), AC(Active), AV(Available) and WL(Waitlisted).");
+					params = new Object[]{ args.get(0) };
+					break;
+				case "capacity":
+					arity(args, 2);
+					params = new Object[]{ date(args.get(0)), date(args.get(1)) };
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown operation " + op);
+			}
+		}catch(IllegalArgumentException e){
+			flush();
+			fail(op, lineNumber, e.getMessage());
+			return;
+		}
+
+		if(insert != null){
+			if(!op.equals(this._batchOp) || this._batch.size() >= BATCH_SIZE) flush();
+			this._batchOp = op;
+			this._batchSql = insert;
+			this._batch.add(new Pending(lineNumber, params));
+			return;
+		}
+
+		flush();
+		long start = System.nanoTime();
+		try{
+			long rows;
+			switch(op){
+				case "book":
+					AppointmentStatus status = new BookingEngine(this._esql).book((Integer) params[0], (Integer) params[1], (Integer) params[2]);
+					if(this._echo) System.out.println("book\t" + params[2] + "\t" + status);
+					rows = 1;
+					break;
+				case "cancel":
+					AppointmentStatus was = this._esql.getWaitlistScheduler().cancel((Integer) params[0], (Integer) params[1]);
+					if(this._echo) System.out.println("cancel\t" + params[1] + "\t" + was);
+					rows = 1;
+					break;
+				case "list-doctor-appointments":
+					rows = query(DBproject.LIST_DOCTOR_APPOINTMENTS, params);
+					break;
+				case "list-available":
+					rows = query(DBproject.LIST_AVAILABLE_APPOINTMENTS, params);
+					break;
+				case "status-per-doctor":
+					rows = query(DBproject.COUNT_STATUS_PER_DOCTOR, params);
+					break;
+				case "capacity":
+					rows = capacity((LocalDate) params[0], (LocalDate) params[1]);
+					break;
+				default:
+					rows = query(DBproject.COUNT_PATIENTS_PER_DOCTOR, params);
+					break;
+			}
+			OpStats st = stats(op);
+			st.record(System.nanoTime() - start);
+			st.rows += rows;
+		}catch(SQLException e){
+			fail(op, lineNumber, e.getMessage());
+		}
+	}//end execute
+
+	private long query(String sql, Object[] params) throws SQLException {
+		return this._esql.executeQueryStreaming(sql, row -> {
+			if(this._echo){
+				StringBuilder sb = new StringBuilder();
+				for(int i = 1; i <= row.getColumnCount(); i++){
+					if(i > 1) sb.append('\t');
+					sb.append(row.getString(i));
+				}
+				System.out.println(sb);
+			}
+		}, params);
+	}
+
+	private long capacity(LocalDate from, LocalDate to) throws SQLException {
+		List<CapacityAnalyzer.Slot> slots = new CapacityAnalyzer(this._esql).analyze(from, to);
+		if(this._echo){
+			for(CapacityAnalyzer.Slot s : slots){
+				System.out.println(s.deptId + "\t" + s.staffId + "\t" + s.slot + "\t" + s.getBooked() + "\t" + s.getCapacity());
+			}
+		}
+		return slots.size();
+	}
+
+	/*
+	 * Sends the queued add-* commands as one batch.  Every command of the
+	 * batch is charged an equal share of the round trip.
+	 */
+	private void flush() {
+		if(this._batch.isEmpty()) return;
+		String op = this._batchOp;
+		OpStats st = stats(op);
+		long start = System.nanoTime();
+		Connection conn = null;
+		try{
+			conn = this._esql.getConnection();
+			conn.setAutoCommit(false);
+			PreparedStatement stmt = this._esql.prepareStatement(conn, this._batchSql);
+			try{
+				for(Pending p : this._batch){
+					DBproject.bindParameters(stmt, p.params);
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				conn.commit();
+				for(Pending p : this._batch) committed(op, p.params);
+				long share = (System.nanoTime() - start) / this._batch.size();
+				for(int i = 0; i < this._batch.size(); i++) st.record(share);
+				st.rows += this._batch.size();
+			}catch(SQLException e){
+				conn.rollback();
+				stmt.clearBatch();
+				conn.setAutoCommit(true);
+				for(Pending p : this._batch){
+					long one = System.nanoTime();
+					try{
+						DBproject.bindParameters(stmt, p.params);
+						stmt.executeUpdate();
+						committed(op, p.params);
+						st.record(System.nanoTime() - one);
+						st.rows++;
+					}catch(SQLException rowError){
+						fail(op, p.lineNumber, rowError.getMessage());
+					}
+				}
+			}
+		}catch(SQLException e){
+			for(Pending p : this._batch) fail(op, p.lineNumber, e.getMessage());
+		}finally{
+			this._esql.releaseConnection(conn);
+			this._batch.clear();
+			this._batchOp = null;
+		}
+	}//end flush
+
+	/*
+	 * Records the status of an added appointment in the event log.
+	 */
+	private void committed(String op, Object[] params) {
+		if(op.equals("add-appointment")){
+			this._esql.getEventLog().statusChanged((Integer) params[0], AppointmentStatus.fromCode((String) params[3]));
+		}
+	}
+
+	private void fail(String op, int lineNumber, String message) {
+		stats(op).errors++;
+		System.err.println("line " + lineNumber + ": " + op + ": " + message);
+	}
+
+	private OpStats stats(String op) {
+		OpStats st = this._stats.get(op);
+		if(st == null){
+			st = new OpStats();
+			this._stats.put(op, st);
+		}
+		return st;
+	}
+
+	private void report(long elapsedNanos) {
+		long total = 0;
+		System.out.printf("%n%-26s %8s %6s %10s %10s %10s %10s %10s %10s%n",
+			"operation", "count", "errors", "rows", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms");
+		for(Map.Entry<String, OpStats> e : this._stats.entrySet()){
+			OpStats st = e.getValue();
+			LatencyHistogram h = st.latency;
+			total += h.getCount();
+			System.out.printf("%-26s %8d %6d %10d %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+				e.getKey(), h.getCount(), st.errors, st.rows, h.getMean() / 1e6,
+				h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(95) / 1e6,
+				h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6);
+		}
+		double secs = elapsedNanos / 1e9;
+		System.out.printf("%nTotal: %d operations in %.3f s, %.1f ops/s%n", total, secs, total / Math.max(secs, 1e-9));
+	}//end report
+
+	private static void arity(List<String> args, int n) {
+		if(args.size() != n){
+			throw new IllegalArgumentException("expected " + n + " arguments but found " + args.size());
+		}
+	}
+
+	/*
+	 * An ID argument; - takes the next ID of the allocator.
+	 */
+	private static Integer id(String text, IdAllocator ids) {
+		if(!text.equals("-")) return integer(text);
+		try{
+			return ids.next();
+		}catch(SQLException e){
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}
+
+	private static Integer integer(String text) {
+		Integer value = RecordValidator.parseInteger(text);
+		if(value == null) throw new IllegalArgumentException(text + " is not an integer");
+		return value;
+	}
+
+	private static LocalDate date(String text) {
+		LocalDate date = RecordValidator.parseDate(text);
+		if(date == null) throw new IllegalArgumentException("Invalid date " + text + "! Try the format(mm/dd/yyyy)");
+		return date;
+	}
+
+	/**
+	 * Method to split a command line on blanks, keeping double quoted
+	 * arguments together.
+	 *
+	 * @param line the command line
+	 * @return the operation followed by its arguments
+	 */
+	static List<String> tokenize(String line) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder cur = new StringBuilder();
+		boolean quoted = false, inToken = false;
+		for(int i = 0; i < line.length(); i++){
+			char c = line.charAt(i);
+			if(c == '"'){
+				quoted = !quoted;
+				inToken = true;
+			}else if(Character.isWhitespace(c) && !quoted){
+				if(inToken){
+					tokens.add(cur.toString());
+					cur.setLength(0);
+					inToken = false;
+				}
+			}else{
+				cur.append(c);
+				inToken = true;
+			}
+		}
+		if(inToken) tokens.add(cur.toString());
+		return tokens;
+	}//end tokenize
+}
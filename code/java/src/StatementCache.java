@@ -0,0 +1,94 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a least-recently-used cache of PreparedStatements for
+ * a single physical connection, keyed by SQL text.  Reusing the same
+ * PreparedStatement lets the PostgreSQL driver keep the server-side
+ * prepared plan instead of re-parsing and re-planning every call.
+ *
+ * A cache belongs to exactly one connection and is only used by the thread
+ * that currently holds that connection, so it needs no locking of its own.
+ * The hit and miss counters are shared by every cache of a pool.
+ */
+public class StatementCache{
+	private final Connection _connection;
+	private final AtomicLong _hits;
+	private final AtomicLong _misses;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection, final int maxSize, AtomicLong hits, AtomicLong misses) {
+		this._connection = connection;
+		this._hits = hits;
+		this._misses = misses;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() > maxSize){
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to obtain a PreparedStatement for the given SQL text, preparing
+	 * it on a cache miss.  The statement stays owned by the cache: callers
+	 * close their ResultSets but must not close the statement itself.
+	 *
+	 * @param sql the SQL text with ? placeholders
+	 * @return a prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement can not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this._statements.get(sql);
+		if(ps != null && !ps.isClosed()){
+			this._hits.incrementAndGet();
+			ps.clearParameters();
+			return ps;
+		}
+		this._misses.incrementAndGet();
+		ps = this._connection.prepareStatement(sql);
+		this._statements.put(sql, ps);
+		return ps;
+	}//end prepare
+
+	/**
+	 * Method to drop a statement from the cache, e.g. after it failed in a
+	 * way that leaves it unusable.
+	 *
+	 * @param sql the SQL text the statement was prepared with
+	 */
+	public void evict(String sql) {
+		PreparedStatement ps = this._statements.remove(sql);
+		if(ps != null) closeQuietly(ps);
+	}
+
+	public int size() {
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public void clear() {
+		for(PreparedStatement ps : this._statements.values()){
+			closeQuietly(ps);
+		}
+		this._statements.clear();
+	}//end clear
+
+	private static void closeQuietly(PreparedStatement ps) {
+		try{
+			ps.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,236 @@
+import java.io.File;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class checks that InMemoryStore returns the same reports as the
+ * Postgres backend.  The database must hold the data of the CSV files the
+ * in-memory store loads (db.store.dataDir), e.g. straight after
+ * createPostgreDB.sh.
+ *
+ * Every report of options 5-8 is run on both stores and written as CSV;
+ * the outputs must be equal, sorted first for options 5 and 6 whose row
+ * order is not defined.  Options 7 and 8 are checked whole, for every
+ * status; options 5 and 6 for a sample of doctors, departments, dates and
+ * time windows drawn with a fixed seed.
+ *
+ * Before the reports, options 4 and 9 are run on both stores in round
+ * trips on one AV appointment and two patients: a booking that holds the
+ * appointment, a waitlisted booking, and a waitlisted booking promoted
+ * when the holder cancels.  The outcome of every step (status or error)
+ * must be equal, and each trip cancels what it booked, so the data is
+ * left as it was and the check can be repeated.
+ *
+ * Prints the failing checks and the mean time per report of each store;
+ * exits with 1 when any check fails.
+ */
+public class StoreConformance{
+
+	/**
+	 * One report, run against either store.
+	 */
+	interface Report{
+		long write(HospitalStore store, ResultWriter out) throws SQLException;
+	}
+
+	/**
+	 * One booking or cancellation, run against either store.
+	 */
+	interface Step{
+		AppointmentStatus run(HospitalStore store) throws SQLException;
+	}
+
+	private final HospitalStore _postgres;
+	//promotes on the Postgres side, on a worker thread
+	private final WaitlistScheduler _waitlist;
+	private final InMemoryStore _memory;
+	private long _postgresNanos = 0;
+	private long _memoryNanos = 0;
+	private int _checks = 0;
+	private int _failures = 0;
+
+	public StoreConformance(HospitalStore postgres, WaitlistScheduler waitlist, InMemoryStore memory) {
+		this._postgres = postgres;
+		this._waitlist = waitlist;
+		this._memory = memory;
+	}
+
+	/**
+	 * Method to run every check.
+	 *
+	 * @param samples doctors, and dates per department, checked for
+	 *        options 5 and 6
+	 * @return the number of failed checks
+	 */
+	public int run(int samples) throws SQLException {
+		Random random = new Random(166);
+		roundTrips();
+		check("option 7", true, (s, out) -> s.countStatusPerDoctor(out));
+		for(final AppointmentStatus status : AppointmentStatus.values()){
+			check("option 8 " + status, true, (s, out) -> s.countPatientsPerDoctor(status, out));
+		}
+
+		int[] doctors = this._memory.doctorIds();
+		List<LocalDate> dates = this._memory.appointmentDates();
+		if(dates.isEmpty()) return this._failures;
+		for(int i = 0; i < samples && doctors.length > 0; i++){
+			final int doctor = doctors[random.nextInt(doctors.length)];
+			LocalDate a = dates.get(random.nextInt(dates.size()));
+			LocalDate b = dates.get(random.nextInt(dates.size()));
+			final LocalDate from = a.isBefore(b) ? a : b;
+			final LocalDate to = a.isBefore(b) ? b : a;
+			check("option 5 " + doctor + " " + from + " " + to, false, (s, out) -> s.listDoctorAppointments(doctor, from, to, out));
+		}
+		final LocalDate first = dates.get(0);
+		final LocalDate last = dates.get(dates.size() - 1);
+		check("option 5 unknown doctor", false, (s, out) -> s.listDoctorAppointments(-1, first, last, out));
+		final int[] several = Arrays.copyOf(doctors, Math.min(doctors.length, 8));
+		check("option 5 several doctors", false, (s, out) -> s.listDoctorsAppointments(several, first, last, out));
+
+		for(final String dept : this._memory.departmentNames()){
+			for(int i = 0; i < samples; i++){
+				final LocalDate date = dates.get(random.nextInt(dates.size()));
+				int start = 6 * 60 + random.nextInt(12) * 30;
+				final TimeSlot window = i % 2 == 0 ? null : TimeSlot.parse(String.format("%d:%02d-%d:%02d", start / 60, start % 60, start / 60 + 2, start % 60));
+				check("option 6 " + dept + " " + date + (window == null ? "" : " " + window), false,
+					(s, out) -> s.listAvailableAppointments(dept, date, window, out));
+			}
+		}
+		return this._failures;
+	}//end run
+
+	/*
+	 * Books and cancels on both stores; every trip ends where it started.
+	 */
+	private void roundTrips() {
+		int[] target = this._memory.bookableAppointment();
+		int[] patients = this._memory.patientIds();
+		if(target == null || patients.length < 2) return;
+		final int appt = target[0];
+		final int doctor = target[1];
+		final int p1 = patients[0];
+		final int p2 = patients[1];
+
+		step("book " + p1 + " " + appt, s -> s.book(p1, doctor, appt));
+		step("cancel " + p1 + " " + appt, s -> s.cancel(p1, appt));
+		step("cancel missing " + p1 + " " + appt, s -> s.cancel(p1, appt));
+
+		step("book " + p1 + " " + appt, s -> s.book(p1, doctor, appt));
+		step("waitlist " + p2 + " " + appt, s -> s.book(p2, doctor, appt));
+		step("cancel waitlisted " + p2 + " " + appt, s -> s.cancel(p2, appt));
+		step("cancel " + p1 + " " + appt, s -> s.cancel(p1, appt));
+
+		step("book " + p1 + " " + appt, s -> s.book(p1, doctor, appt));
+		step("waitlist " + p2 + " " + appt, s -> s.book(p2, doctor, appt));
+		int promoted = this._waitlist.getPromoted();
+		step("cancel and promote " + p1 + " " + appt, s -> s.cancel(p1, appt));
+		awaitPromotion(promoted);
+		step("cancel promoted " + p2 + " " + appt, s -> s.cancel(p2, appt));
+	}//end roundTrips
+
+	/*
+	 * Runs one step on both stores and compares the outcomes.
+	 */
+	private void step(String name, Step step) {
+		this._checks++;
+		long start = System.nanoTime();
+		String expected = outcome(this._postgres, step);
+		long middle = System.nanoTime();
+		String actual = outcome(this._memory, step);
+		this._postgresNanos += middle - start;
+		this._memoryNanos += System.nanoTime() - middle;
+		if(expected.equals(actual)) return;
+		this._failures++;
+		System.out.println("FAIL " + name);
+		System.out.println("  postgres: " + expected);
+		System.out.println("  memory  : " + actual);
+	}
+
+	private static String outcome(HospitalStore store, Step step) {
+		try{
+			return String.valueOf(step.run(store));
+		}catch(SQLException e){
+			return "error: " + e.getMessage();
+		}
+	}
+
+	/*
+	 * Waits up to five seconds for the scheduler to promote past a count.
+	 */
+	private void awaitPromotion(int promoted) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(this._waitlist.getPromoted() <= promoted && System.currentTimeMillis() < deadline){
+			try{
+				Thread.sleep(10);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Runs one report on both stores and compares the CSV outputs.
+	 */
+	private void check(String name, boolean ordered, Report report) throws SQLException {
+		this._checks++;
+		long start = System.nanoTime();
+		String expected = render(this._postgres, report, ordered);
+		long middle = System.nanoTime();
+		String actual = render(this._memory, report, ordered);
+		this._postgresNanos += middle - start;
+		this._memoryNanos += System.nanoTime() - middle;
+		if(expected.equals(actual)) return;
+		this._failures++;
+		String[] e = expected.split("\n", -1);
+		String[] a = actual.split("\n", -1);
+		int line = 0;
+		while(line < e.length && line < a.length && e[line].equals(a[line])) line++;
+		System.out.println("FAIL " + name + " at line " + (line + 1));
+		System.out.println("  postgres: " + (line < e.length ? e[line] : "<end>"));
+		System.out.println("  memory  : " + (line < a.length ? a[line] : "<end>"));
+	}//end check
+
+	private static String render(HospitalStore store, Report report, boolean ordered) throws SQLException {
+		StringWriter text = new StringWriter();
+		report.write(store, new CsvResultWriter(text, true));
+		if(ordered) return text.toString();
+		String[] lines = text.toString().split("\n");
+		// the header stays first
+		Arrays.sort(lines, 1, lines.length);
+		return String.join("\n", lines);
+	}
+
+	public void printSummary() {
+		System.out.println((this._checks - this._failures) + " of " + this._checks + " checks passed");
+		if(this._checks == 0) return;
+		System.out.printf("mean time per report: postgres %.1f us, memory %.1f us%n",
+			this._postgresNanos / 1e3 / this._checks, this._memoryNanos / 1e3 / this._checks);
+	}
+
+	public static void main(String[] args) {
+		if(args.length != 3 && args.length != 4){
+			System.err.println("Usage: java [-Ddb.store.dataDir=<dir>] StoreConformance <dbname> <port> <user> [samples]");
+			return;
+		}
+		int samples = args.length == 4 ? Integer.parseInt(args[3]) : 50;
+		DBproject esql = null;
+		int failures = 1;
+		try{
+			InMemoryStore memory = InMemoryStore.load(new File(System.getProperty("db.store.dataDir", "../data")));
+			esql = new DBproject(args[0], args[1], args[2], "");
+			StoreConformance conformance = new StoreConformance(esql.getStore(), esql.getWaitlistScheduler(), memory);
+			failures = conformance.run(samples);
+			conformance.printSummary();
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}//end main
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class writes results as an aligned text table:
+ *
+ *    doctor_id | name
+ *   -----------+------------
+ *          17 | Jane Doe
+ *
+ * Column widths are taken from the header and the first SAMPLE_ROWS rows,
+ * which are held back until the widths are known; later rows are written
+ * at once, and a value wider than its column widens only its own row.
+ * Numeric columns are right-aligned and NULL is written as an empty cell.
+ */
+public class TableResultWriter extends ResultWriter{
+	static final int SAMPLE_ROWS = Integer.getInteger("db.output.sampleRows", 1000);
+
+	private int[] _widths = null;
+	//rows held back until the widths are known, null once released
+	private List<String[]> _sample = new ArrayList<String[]>();
+
+	public TableResultWriter(Writer out, boolean closeOut) {
+		super(out, closeOut);
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		this._widths = new int[this._columns.length];
+		for(int i = 0; i < this._columns.length; i++) this._widths[i] = this._columns[i].length();
+	}
+
+	@Override
+	protected void writeRow(String[] values) throws IOException {
+		if(this._sample == null){
+			line(values, false);
+			return;
+		}
+		for(int i = 0; i < values.length; i++){
+			if(values[i] != null) this._widths[i] = Math.max(this._widths[i], values[i].length());
+		}
+		this._sample.add(values);
+		if(this._sample.size() >= SAMPLE_ROWS) release();
+	}
+
+	@Override
+	protected void writeFooter() throws IOException {
+		if(this._columns != null) release();
+	}
+
+	/*
+	 * Writes the header and the held-back rows; later rows go straight out.
+	 */
+	private void release() throws IOException {
+		if(this._sample == null) return;
+		line(this._columns, true);
+		for(int i = 0; i < this._widths.length; i++){
+			if(i > 0) this._out.write('+');
+			for(int j = 0; j < this._widths[i] + 2; j++) this._out.write('-');
+		}
+		this._out.write('\n');
+		for(String[] values : this._sample) line(values, false);
+		this._sample.clear();
+		this._sample = null;
+	}
+
+	private void line(String[] values, boolean header) throws IOException {
+		for(int i = 0; i < values.length; i++){
+			if(i > 0) this._out.write(" |");
+			String v = values[i] == null ? "" : values[i];
+			int pad = Math.max(0, this._widths[i] - v.length());
+			this._out.write(' ');
+			if(!header && this._numeric[i]) spaces(pad);
+			this._out.write(v);
+			// no trailing blanks after the last column
+			if((header || !this._numeric[i]) && i < values.length - 1) spaces(pad);
+		}
+		this._out.write('\n');
+	}
+
+	private void spaces(int n) throws IOException {
+		for(int i = 0; i < n; i++) this._out.write(' ');
+	}
+}
@@ -0,0 +1,101 @@
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * This class is a time slot of a day, such as 8:00-10:30, kept as the
+ * half-open range [start, end) of minutes since midnight.  It parses and
+ * prints the H:m-H:m text stored in Appointment.time_slot and
+ * request_maintenance.time_slot, and follows the same rules as the
+ * time_slot_range function of sql/timeslots.sql: hours 0-23, minutes 0-59
+ * and an end after the start.
+ */
+public final class TimeSlot implements Comparable<TimeSlot>{
+	static final DateTimeFormatter TIME_FORMAT =
+		DateTimeFormatter.ofPattern("H:m").withResolverStyle(ResolverStyle.STRICT);
+
+	private final int _start;
+	private final int _end;
+
+	public TimeSlot(int startMinute, int endMinute) {
+		if(startMinute < 0 || endMinute > 24 * 60 || endMinute <= startMinute){
+			throw new IllegalArgumentException("Invalid time slot " + startMinute + "-" + endMinute);
+		}
+		this._start = startMinute;
+		this._end = endMinute;
+	}
+
+	/**
+	 * Method to parse a slot written as H:m-H:m, e.g. 8:30-22:00.
+	 *
+	 * @param text the slot text
+	 * @return the slot, or null when text is not a valid slot
+	 */
+	public static TimeSlot parse(String text) {
+		if(text == null) return null;
+		int dash = text.indexOf('-');
+		if(dash <= 0) return null;
+		try{
+			LocalTime start = LocalTime.parse(text.substring(0, dash).trim(), TIME_FORMAT);
+			LocalTime end = LocalTime.parse(text.substring(dash + 1).trim(), TIME_FORMAT);
+			int s = start.getHour() * 60 + start.getMinute();
+			int e = end.getHour() * 60 + end.getMinute();
+			return e > s ? new TimeSlot(s, e) : null;
+		}catch(DateTimeParseException e){
+			return null;
+		}
+	}//end parse
+
+	public int getStartMinute() {
+		return this._start;
+	}
+
+	public int getEndMinute() {
+		return this._end;
+	}
+
+	public int getLengthMinutes() {
+		return this._end - this._start;
+	}
+
+	/**
+	 * @return true when the two slots share at least one minute
+	 */
+	public boolean overlaps(TimeSlot other) {
+		return this._start < other._end && other._start < this._end;
+	}
+
+	/**
+	 * @return true when other lies entirely within this slot
+	 */
+	public boolean contains(TimeSlot other) {
+		return this._start <= other._start && other._end <= this._end;
+	}
+
+	@Override
+	public int compareTo(TimeSlot other) {
+		int c = Integer.compare(this._start, other._start);
+		return c != 0 ? c : Integer.compare(this._end, other._end);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof TimeSlot)) return false;
+		TimeSlot t = (TimeSlot) o;
+		return this._start == t._start && this._end == t._end;
+	}
+
+	@Override
+	public int hashCode() {
+		return this._start * 1441 + this._end;
+	}
+
+	/**
+	 * @return the slot as H:mm-H:mm, the format of the seed data
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d:%02d-%d:%02d", this._start / 60, this._start % 60, this._end / 60, this._end % 60);
+	}
+}
@@ -0,0 +1,12 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Unit of work run by DBproject.executeInTransaction on a borrowed
+ * connection with autocommit switched off.  It may be invoked more than
+ * once when the transaction is retried, so it must not keep state between
+ * calls.
+ */
+public interface TransactionCallback<T>{
+	T execute(Connection conn) throws SQLException;
+}
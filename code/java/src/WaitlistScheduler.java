@@ -0,0 +1,467 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class promotes waitlisted patients when a booked appointment is
+ * cancelled.
+ *
+ * Every waitlisted booking is a row of the waitlist table (sql/waitlist.sql)
+ * and a request in an in-memory priority queue of its doctor and day,
+ * oldest request first.  Each doctor and day has a queue of its own, locked
+ * on its own, so cancellations of different doctors never contend.  When a
+ * booked appointment is cancelled it becomes AV and the promotion of the
+ * head of its queue is handed to a worker thread, which in one transaction
+ *   - locks the freed appointment and checks that it is still AV,
+ *   - removes the request from the waitlist and sets the freed appointment AC,
+ *   - moves the patient's searches row to the freed appointment, and
+ *   - leaves the appointment the patient waited for WL while others still
+ *     wait for it, AC otherwise.
+ *
+ * The queues are rebuilt from the table by start(), which then promotes
+ * into any AV appointment that already has requests waiting, so nothing is
+ * lost across a restart.  The same sweep runs every db.waitlist.sweepMs,
+ * which retries promotions that failed on a conflict (serialization
+ * failure, deadlock) or a lost connection that outlasted the retries of
+ * executeInTransaction; their requests stay queued.  Any other failure is
+ * permanent: the waitlisted booking is cancelled, its request kept in
+ * waitlist_failed with the error, and the next request is promoted.
+ * Without the table the scheduler is disabled and bookings are waitlisted
+ * as before, with no one to promote them.
+ *
+ *   db.waitlist            set to false to disable the scheduler (default true)
+ *   db.waitlist.threads    promotion worker threads (default 2)
+ *   db.waitlist.sweepMs    interval of the sweep for AV appointments with
+ *                          requests waiting (default 60000, 0 for none)
+ */
+public class WaitlistScheduler{
+	//requested_at as microseconds since the epoch, the order of a queue
+	static final String SELECT_WAITLIST =
+		"SELECT appt_id, patient_id, doctor_id, adate, (extract(epoch FROM requested_at) * 1000000)::bigint\n" +
+		"FROM waitlist;";
+	//appointments freed while the process was down
+	static final String SELECT_FREED =
+		"SELECT H.doctor_id, A.adate, A.appnt_ID\n" +
+		"FROM Appointment A, has_appointment H\n" +
+		"WHERE A.appnt_ID = H.appt_id AND A.status = 'AV'\n" +
+		"AND EXISTS (SELECT 1 FROM waitlist W WHERE W.doctor_id = H.doctor_id AND W.adate = A.adate);";
+	static final String INSERT_WAITLIST =
+		"INSERT INTO waitlist (appt_id, patient_id, doctor_id, adate)\n" +
+		"SELECT appnt_ID, ?, ?, adate FROM Appointment WHERE appnt_ID = ?\n" +
+		"RETURNING adate, (extract(epoch FROM requested_at) * 1000000)::bigint;";
+	static final String LOCK_APPOINTMENT =
+		"SELECT status FROM Appointment WHERE appnt_ID = ? FOR UPDATE;";
+	//the appointment with its doctor and day, locked before anything else as in BookingEngine
+	static final String LOCK_BOOKED_APPOINTMENT =
+		"SELECT A.status, H.doctor_id, A.adate FROM Appointment A, has_appointment H\n" +
+		"WHERE A.appnt_ID = H.appt_id AND A.appnt_ID = ? FOR UPDATE OF A;";
+	static final String DELETE_REQUEST =
+		"DELETE FROM waitlist WHERE appt_id = ? AND patient_id = ?;";
+	static final String SET_STATUS =
+		"UPDATE Appointment SET status = ? WHERE appnt_ID = ?;";
+	static final String DELETE_SEARCH =
+		"DELETE FROM searches WHERE pid = ? AND aid = ? RETURNING hid;";
+	//a request that can not be promoted, kept with the error
+	static final String DEAD_LETTER =
+		"WITH R AS (DELETE FROM waitlist WHERE appt_id = ? AND patient_id = ? RETURNING *)\n" +
+		"INSERT INTO waitlist_failed (appt_id, patient_id, doctor_id, adate, requested_at, error)\n" +
+		"SELECT appt_id, patient_id, doctor_id, adate, requested_at, ? FROM R;";
+	static final String UNCOUNT_PATIENT_APPOINTMENT =
+		"UPDATE Patient SET number_of_appts = GREATEST(COALESCE(number_of_appts, 0) - 1, 0) WHERE patient_ID = ?;";
+	//WL while anyone still waits for the appointment, AC once no one does
+	static final String SETTLE_STATUS =
+		"UPDATE Appointment SET status = CASE WHEN EXISTS (SELECT 1 FROM waitlist W WHERE W.appt_id = appnt_ID) THEN 'WL' ELSE 'AC' END\n" +
+		"WHERE appnt_ID = ? AND status IN ('AC', 'WL') RETURNING status;";
+
+	/**
+	 * One waitlisted booking: the patient waits for any appointment of the
+	 * doctor on the day, and holds apptId until then.
+	 */
+	public static class Request implements Comparable<Request>{
+		public final int apptId;
+		public final int patientId;
+		public final int doctorId;
+		public final LocalDate date;
+		//microseconds since the epoch
+		public final long requestedAt;
+
+		public Request(int apptId, int patientId, int doctorId, LocalDate date, long requestedAt){
+			this.apptId = apptId;
+			this.patientId = patientId;
+			this.doctorId = doctorId;
+			this.date = date;
+			this.requestedAt = requestedAt;
+		}
+
+		@Override
+		public int compareTo(Request o) {
+			int c = Long.compare(this.requestedAt, o.requestedAt);
+			if(c == 0) c = Integer.compare(this.patientId, o.patientId);
+			if(c == 0) c = Integer.compare(this.apptId, o.apptId);
+			return c;
+		}
+	}//end Request
+
+	//outcome of one promotion attempt
+	private enum Outcome{ PROMOTED, TAKEN, STALE }
+
+	private final DBproject _esql;
+	private final boolean _wanted;
+	private final int _threads;
+	private final long _sweepMs;
+	private final ConcurrentHashMap<Long, PriorityQueue<Request>> _queues = new ConcurrentHashMap<Long, PriorityQueue<Request>>();
+	private final AtomicInteger _promoted = new AtomicInteger();
+	private volatile boolean _enabled = false;
+	private ScheduledThreadPoolExecutor _workers = null;
+
+	public WaitlistScheduler(DBproject esql) {
+		this._esql = esql;
+		this._wanted = Boolean.parseBoolean(System.getProperty("db.waitlist", "true"));
+		this._threads = Math.max(1, Integer.getInteger("db.waitlist.threads", 2));
+		this._sweepMs = Long.getLong("db.waitlist.sweepMs", 60000L);
+	}
+
+	/**
+	 * @return true when the waitlist table exists and requests are promoted
+	 */
+	public boolean isEnabled() {
+		return this._enabled;
+	}
+
+	/**
+	 * @return the number of requests promoted since start
+	 */
+	public int getPromoted() {
+		return this._promoted.get();
+	}
+
+	/**
+	 * Method to load the waitlist and start the worker threads.  Leaves the
+	 * scheduler disabled when the waitlist table does not exist.
+	 *
+	 * @throws java.sql.SQLException when the waitlist can not be read
+	 */
+	public void start() throws SQLException {
+		if(!this._wanted) return;
+		try{
+			rebuild();
+		}catch(SQLException e){
+			// undefined_table: sql/waitlist.sql was not run
+			if("42P01".equals(e.getSQLState())) return;
+			throw e;
+		}
+		final AtomicInteger n = new AtomicInteger();
+		this._workers = new ScheduledThreadPoolExecutor(this._threads, r -> {
+			Thread t = new Thread(r, "db-waitlist-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this._enabled = true;
+		sweep();
+		if(this._sweepMs > 0){
+			this._workers.scheduleWithFixedDelay(() -> {
+				try{
+					sweep();
+				}catch(SQLException e){
+					System.err.println("Waitlist: sweep failed: " + e.getMessage());
+				}
+			}, this._sweepMs, this._sweepMs, TimeUnit.MILLISECONDS);
+		}
+	}//end start
+
+	/**
+	 * Method to replace the queues with the rows of the waitlist table.
+	 *
+	 * @throws java.sql.SQLException when the waitlist can not be read
+	 */
+	public void rebuild() throws SQLException {
+		final List<Request> requests = new ArrayList<Request>();
+		this._esql.executeQueryStreamingOnPrimary(SELECT_WAITLIST, row -> requests.add(
+			new Request(row.getInt(1), row.getInt(2), row.getInt(3), row.getDate(4), row.getLong(5))));
+		this._queues.clear();
+		for(Request r : requests) offer(r);
+	}
+
+	/*
+	 * Hands every AV appointment that has requests waiting for its doctor
+	 * and day to the workers.
+	 */
+	private void sweep() throws SQLException {
+		final List<Object[]> freed = new ArrayList<Object[]>();
+		this._esql.executeQueryStreamingOnPrimary(SELECT_FREED, row -> freed.add(
+			new Object[]{ row.getInt(1), row.getDate(2), row.getInt(3) }));
+		for(Object[] f : freed) freed((Integer) f[0], (LocalDate) f[1], (Integer) f[2]);
+	}
+
+	/**
+	 * Method to write the waitlist row of a booking that was just
+	 * waitlisted, inside the booking's transaction.  The request joins its
+	 * queue with enqueue once the transaction has committed.
+	 *
+	 * @return the request, or null when the scheduler is disabled
+	 * @throws java.sql.SQLException when the row can not be written
+	 */
+	Request insert(Connection conn, int patientId, int doctorId, int apptId) throws SQLException {
+		if(!this._enabled) return null;
+		PreparedStatement stmt = this._esql.prepareStatement(conn, INSERT_WAITLIST);
+		DBproject.bindParameters(stmt, patientId, doctorId, apptId);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			if(!rs.next()) return null;
+			return new Request(apptId, patientId, doctorId, rs.getDate(1).toLocalDate(), rs.getLong(2));
+		}finally{
+			rs.close();
+		}
+	}//end insert
+
+	/**
+	 * Method to queue a committed waitlist request.
+	 */
+	public void enqueue(Request r) {
+		if(r != null && this._enabled) offer(r);
+	}
+
+	/**
+	 * Method to have the oldest request of a doctor and day promoted to an
+	 * appointment that has just become AV.  Returns at once; the promotion
+	 * runs on a worker thread.
+	 */
+	public void freed(final int doctorId, final LocalDate date, final int apptId) {
+		if(!this._enabled || !this._queues.containsKey(key(doctorId, date))) return;
+		this._workers.execute(() -> promote(doctorId, date, apptId));
+	}
+
+	/**
+	 * Method to cancel a patient's booking of an appointment.  A waitlisted
+	 * booking just leaves the queue; a booking that held the appointment
+	 * frees it, and the oldest request of the doctor and day is promoted.
+	 *
+	 * @return the status the booking had, AC or WL
+	 * @throws java.sql.SQLException when the booking does not exist or the
+	 *         cancellation fails
+	 */
+	public AppointmentStatus cancel(final int patientId, final int apptId) throws SQLException {
+		if(!this._enabled){
+			throw new SQLException("The waitlist is not installed, run sql/waitlist.sql");
+		}
+		//doctor, day, settled status and hospital of the searches row
+		final Object[] booked = new Object[4];
+		AppointmentStatus was = this._esql.executeInTransaction(conn -> {
+			PreparedStatement stmt = this._esql.prepareStatement(conn, LOCK_BOOKED_APPOINTMENT);
+			stmt.setInt(1, apptId);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				if(!rs.next()){
+					throw new SQLException("Appointment " + apptId + " is not booked with any doctor");
+				}
+				booked[0] = rs.getInt(2);
+				booked[1] = rs.getDate(3).toLocalDate();
+			}finally{
+				rs.close();
+			}
+			boolean waitlisted = update(conn, DELETE_REQUEST, apptId, patientId) > 0;
+			String hid = selectString(conn, DELETE_SEARCH, patientId, apptId);
+			if(hid == null){
+				throw new SQLException("Patient " + patientId + " has no booking of appointment " + apptId);
+			}
+			booked[3] = Integer.valueOf(hid);
+			update(conn, UNCOUNT_PATIENT_APPOINTMENT, patientId);
+			if(waitlisted){
+				booked[2] = AppointmentStatus.fromCode(selectString(conn, SETTLE_STATUS, apptId));
+				return AppointmentStatus.WL;
+			}
+			update(conn, SET_STATUS, AppointmentStatus.AV.name(), apptId);
+			return AppointmentStatus.AC;
+		});
+		int doctorId = (Integer) booked[0];
+		LocalDate date = (LocalDate) booked[1];
+		this._esql.getEventLog().patientUnlinked((Integer) booked[3], patientId, apptId);
+		if(was == AppointmentStatus.WL){
+			remove(doctorId, date, apptId, patientId);
+			AppointmentStatus settled = (AppointmentStatus) booked[2];
+			if(settled != null){
+				this._esql.getAvailabilityIndex().update(apptId, settled);
+				this._esql.getEventLog().statusChanged(apptId, settled);
+			}
+		}else{
+			this._esql.getAvailabilityIndex().update(apptId, AppointmentStatus.AV);
+			this._esql.getEventLog().statusChanged(apptId, AppointmentStatus.AV);
+			freed(doctorId, date, apptId);
+		}
+		return was;
+	}//end cancel
+
+	/*
+	 * Gives a freed appointment to the oldest request of its doctor and
+	 * day.  A request whose row is gone (cancelled meanwhile) is dropped and
+	 * the next one tried; when the appointment was booked meanwhile the
+	 * request goes back to its queue.  So does a request whose promotion
+	 * failed on a transient error; the appointment is still AV then, and
+	 * the next sweep or cancellation of the doctor and day tries again.  A
+	 * request that failed for good is dead-lettered and the next one tried.
+	 */
+	private void promote(int doctorId, LocalDate date, int freedId) {
+		while(true){
+			Request head = poll(doctorId, date);
+			if(head == null) return;
+			Outcome outcome;
+			try{
+				outcome = promote(head, freedId);
+			}catch(SQLException e){
+				if(isTransient(e)){
+					System.err.println("Waitlist: promoting patient " + head.patientId + " to appointment " + freedId + " failed, will retry: " + e.getMessage());
+					offer(head);
+					return;
+				}
+				System.err.println("Waitlist: promoting patient " + head.patientId + " to appointment " + freedId + " failed, request dropped: " + e.getMessage());
+				deadLetter(head, e);
+				continue;
+			}
+			if(outcome == Outcome.TAKEN){
+				offer(head);
+				return;
+			}
+			if(outcome == Outcome.PROMOTED) return;
+		}
+	}//end promote
+
+	private Outcome promote(final Request r, final int freedId) throws SQLException {
+		final int[] hid = { -1 };
+		//settled statuses of the freed and the held appointment
+		final AppointmentStatus[] settled = new AppointmentStatus[2];
+		Outcome outcome = this._esql.executeInTransaction(conn -> {
+			String status = selectString(conn, LOCK_APPOINTMENT, freedId);
+			if(!AppointmentStatus.AV.name().equals(status)) return Outcome.TAKEN;
+			if(update(conn, DELETE_REQUEST, r.apptId, r.patientId) == 0) return Outcome.STALE;
+			update(conn, SET_STATUS, AppointmentStatus.AC.name(), freedId);
+			//delete and insert, so a row the patient already has for freedId is kept
+			String moved = selectString(conn, DELETE_SEARCH, r.patientId, r.apptId);
+			hid[0] = moved == null ? -1 : Integer.parseInt(moved);
+			if(moved != null) update(conn, BookingEngine.LINK_PATIENT, hid[0], r.patientId, freedId);
+			settled[0] = AppointmentStatus.fromCode(selectString(conn, SETTLE_STATUS, freedId));
+			settled[1] = r.apptId == freedId ? null : AppointmentStatus.fromCode(selectString(conn, SETTLE_STATUS, r.apptId));
+			return Outcome.PROMOTED;
+		});
+		if(outcome != Outcome.PROMOTED) return outcome;
+		this._promoted.incrementAndGet();
+		EventLog events = this._esql.getEventLog();
+		this._esql.getAvailabilityIndex().update(freedId, settled[0]);
+		events.statusChanged(freedId, settled[0]);
+		if(hid[0] >= 0 && r.apptId != freedId){
+			events.patientUnlinked(hid[0], r.patientId, r.apptId);
+			events.patientLinked(hid[0], r.patientId, freedId);
+		}
+		if(settled[1] != null){
+			this._esql.getAvailabilityIndex().update(r.apptId, settled[1]);
+			events.statusChanged(r.apptId, settled[1]);
+		}
+		return outcome;
+	}//end promote
+
+	/*
+	 * Cancels the waitlisted booking of a request that can not be promoted
+	 * and keeps the request in waitlist_failed.  When even that fails the
+	 * request is only dropped from memory; the next start queues it again.
+	 */
+	private void deadLetter(final Request r, final SQLException cause) {
+		final int[] hid = { -1 };
+		AppointmentStatus settled;
+		try{
+			settled = this._esql.executeInTransaction(conn -> {
+				update(conn, DEAD_LETTER, r.apptId, r.patientId, cause.getMessage());
+				String removed = selectString(conn, DELETE_SEARCH, r.patientId, r.apptId);
+				if(removed != null){
+					hid[0] = Integer.parseInt(removed);
+					update(conn, UNCOUNT_PATIENT_APPOINTMENT, r.patientId);
+				}
+				return AppointmentStatus.fromCode(selectString(conn, SETTLE_STATUS, r.apptId));
+			});
+		}catch(SQLException e){
+			System.err.println("Waitlist: could not move the request of patient " + r.patientId + " to waitlist_failed: " + e.getMessage());
+			return;
+		}
+		EventLog events = this._esql.getEventLog();
+		if(hid[0] >= 0) events.patientUnlinked(hid[0], r.patientId, r.apptId);
+		if(settled != null){
+			this._esql.getAvailabilityIndex().update(r.apptId, settled);
+			events.statusChanged(r.apptId, settled);
+		}
+	}//end deadLetter
+
+	/*
+	 * Conflicts and lost connections may pass; anything else, e.g. a
+	 * constraint violation, fails the same way every time.
+	 */
+	private static boolean isTransient(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && (state.equals("40001") || state.equals("40P01") || state.startsWith("08"));
+	}
+
+	private void offer(Request r) {
+		PriorityQueue<Request> q = this._queues.computeIfAbsent(key(r.doctorId, r.date), k -> new PriorityQueue<Request>());
+		synchronized(q){
+			q.add(r);
+		}
+	}
+
+	private Request poll(int doctorId, LocalDate date) {
+		PriorityQueue<Request> q = this._queues.get(key(doctorId, date));
+		if(q == null) return null;
+		synchronized(q){
+			return q.poll();
+		}
+	}
+
+	private void remove(int doctorId, LocalDate date, int apptId, int patientId) {
+		PriorityQueue<Request> q = this._queues.get(key(doctorId, date));
+		if(q == null) return;
+		synchronized(q){
+			q.removeIf(r -> r.apptId == apptId && r.patientId == patientId);
+		}
+	}
+
+	private int update(Connection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._esql.prepareStatement(conn, sql);
+		DBproject.bindParameters(stmt, params);
+		return stmt.executeUpdate();
+	}
+
+	private String selectString(Connection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._esql.prepareStatement(conn, sql);
+		DBproject.bindParameters(stmt, params);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			return rs.next() ? rs.getString(1) : null;
+		}finally{
+			rs.close();
+		}
+	}
+
+	private static long key(int doctorId, LocalDate date) {
+		return ((long) doctorId << 32) | (date.toEpochDay() & 0xffffffffL);
+	}
+
+	/**
+	 * Method to stop the worker threads, letting queued promotions finish
+	 * briefly.  Requests left in memory are still in the table.
+	 */
+	public void close() {
+		this._enabled = false;
+		if(this._workers == null) return;
+		this._workers.shutdown();
+		try{
+			this._workers.awaitTermination(5, TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}//end close
+}
@@ -0,0 +1,5 @@
+#! /bin/bash
+# Prints the appointment change events DBproject records when it runs with
+# JAVA_OPTS="-Ddb.events.dir=<dir>", from an offset, optionally following.
+# Example: source ./tailevents.sh /tmp/$USER/events 0 --follow
+java $JAVA_OPTS -cp lib/*:bin/ EventLog "$@"
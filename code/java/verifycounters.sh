@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Compares the per doctor status counters read by option 7 with a full
+# recompute and exits 1 on any mismatch; --repair rebuilds them.
+# Example: source ./verifycounters.sh --repair
+java $JAVA_OPTS -cp lib/*:bin/ CounterVerifier $DBNAME $PORT $USER "$@"
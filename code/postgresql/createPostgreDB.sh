@@ -9,4 +9,9 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/load.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/notify.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/counters.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/sequences.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/waitlist.sql
@@ -0,0 +1,28 @@
+#! /bin/bash
+# Starts a streaming replica of the database started by startPostgreSQL.sh
+# on port PGPORT+1, to try the read/write splitting of DBproject locally.
+# Run after startPostgreSQL.sh and createPostgreDB.sh, from this folder:
+#   source ./startReplica.sh
+#   cd ../java && JAVA_OPTS="-Ddb.replicas=localhost:$REPLICA_PORT -Ddb.replicas.readYourWrites=true" source ./run.sh
+# Stop it with:
+#   pg_ctl -D $REPLICA_DATA stop
+folder=/tmp/$USER
+export REPLICA_DATA=$folder/myReplica/data
+export REPLICA_SOCKETS=$folder/myReplica/sockets
+export REPLICA_PORT=$((PGPORT + 1))
+
+#Clear folder
+rm -rf $folder/myReplica
+
+#Initialize folders
+mkdir -p $REPLICA_DATA
+mkdir -p $REPLICA_SOCKETS
+chmod 700 $REPLICA_DATA
+
+#Copy the primary; -R configures the copy to follow it (PostgreSQL 12 or later)
+#The pg_hba.conf written by initdb trusts local replication connections
+pg_basebackup -h localhost -p $PGPORT -D $REPLICA_DATA -R -X stream -c fast
+
+sleep 1
+#Start replica
+pg_ctl -o "-c unix_socket_directories=$REPLICA_SOCKETS -p $REPLICA_PORT" -D $REPLICA_DATA -l $folder/replica_logfile start
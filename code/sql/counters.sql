@@ -0,0 +1,111 @@
+---------------------------
+---STATUS COUNTERS---------
+---------------------------
+-- Number of appointments of every doctor in every status, kept current by
+-- triggers on has_appointment and Appointment so that option 7 of DBproject
+-- reads one row per doctor and status instead of aggregating the whole
+-- appointment history.  Run after loading data; the last statement fills
+-- the table from the current data:
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/counters.sql
+-- java/verifycounters.sh compares the counters with a full recompute.
+
+CREATE TABLE IF NOT EXISTS doctor_status_counts
+(
+	doctor_id INTEGER NOT NULL,
+	status _STATUS NOT NULL,
+	cnt BIGINT NOT NULL,
+	PRIMARY KEY (doctor_id, status)
+);
+
+-- adds delta to one counter; appointments without a status are not counted
+CREATE OR REPLACE FUNCTION bump_doctor_status(d INTEGER, s VARCHAR, delta INTEGER) RETURNS void AS $$
+BEGIN
+	IF s IS NULL OR delta = 0 THEN
+		RETURN;
+	END IF;
+	INSERT INTO doctor_status_counts AS C (doctor_id, status, cnt) VALUES (d, s, delta)
+	ON CONFLICT (doctor_id, status) DO UPDATE SET cnt = C.cnt + EXCLUDED.cnt;
+END;
+$$ LANGUAGE plpgsql;
+
+-- moves one appointment of a doctor from one status to another.  The two
+-- counter rows are always locked in status order, so concurrent moves in
+-- opposite directions can not deadlock each other.
+CREATE OR REPLACE FUNCTION move_doctor_status(d INTEGER, old_status VARCHAR, new_status VARCHAR) RETURNS void AS $$
+BEGIN
+	IF old_status IS NOT DISTINCT FROM new_status THEN
+		RETURN;
+	END IF;
+	IF new_status IS NULL OR old_status < new_status THEN
+		PERFORM bump_doctor_status(d, old_status, -1);
+		PERFORM bump_doctor_status(d, new_status, 1);
+	ELSE
+		PERFORM bump_doctor_status(d, new_status, 1);
+		PERFORM bump_doctor_status(d, old_status, -1);
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- an appointment is linked to or unlinked from a doctor.  The status is
+-- read FOR SHARE: a concurrent status change then either finished first
+-- (and its row is read) or waits for this link and counts it itself, so
+-- the change can never fall between the two triggers.
+CREATE OR REPLACE FUNCTION has_appointment_counts() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'TRUNCATE' THEN
+		DELETE FROM doctor_status_counts;
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		PERFORM bump_doctor_status(OLD.doctor_id, (SELECT status FROM Appointment WHERE appnt_ID = OLD.appt_id FOR SHARE), -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM bump_doctor_status(NEW.doctor_id, (SELECT status FROM Appointment WHERE appnt_ID = NEW.appt_id FOR SHARE), 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- an appointment changes status, e.g. AV to AC when it is booked
+CREATE OR REPLACE FUNCTION appointment_counts() RETURNS trigger AS $$
+BEGIN
+	PERFORM move_doctor_status(H.doctor_id, OLD.status, NEW.status)
+	FROM has_appointment H
+	WHERE H.appt_id = NEW.appnt_ID
+	ORDER BY H.doctor_id;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS has_appointment_counts ON has_appointment;
+CREATE TRIGGER has_appointment_counts
+AFTER INSERT OR UPDATE OR DELETE ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE has_appointment_counts();
+
+DROP TRIGGER IF EXISTS has_appointment_truncate_counts ON has_appointment;
+CREATE TRIGGER has_appointment_truncate_counts
+AFTER TRUNCATE ON has_appointment
+FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_counts();
+
+DROP TRIGGER IF EXISTS appointment_counts ON Appointment;
+CREATE TRIGGER appointment_counts
+AFTER UPDATE OF status ON Appointment
+FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status)
+EXECUTE PROCEDURE appointment_counts();
+
+-- recomputes every counter from scratch.  Writers of the two tables are
+-- blocked meanwhile so that no change is counted twice or missed.
+CREATE OR REPLACE FUNCTION refresh_doctor_status_counts() RETURNS void AS $$
+BEGIN
+	LOCK TABLE has_appointment, Appointment IN SHARE MODE;
+	DELETE FROM doctor_status_counts;
+	INSERT INTO doctor_status_counts (doctor_id, status, cnt)
+	SELECT H.doctor_id, A.status, count(*)
+	FROM has_appointment H, Appointment A
+	WHERE H.appt_id = A.appnt_ID AND A.status IS NOT NULL
+	GROUP BY H.doctor_id, A.status;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT refresh_doctor_status_counts();
+ANALYZE doctor_status_counts;
@@ -0,0 +1,31 @@
+-------------
+---INDEXES---
+-------------
+-- Supporting indexes for the DBproject menu queries.  create.sql only
+-- defines primary keys; run this after loading data:
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/indexes.sql
+-- java/plancheck.sh verifies that the queries actually use them.
+
+-- option 5, 7, 8: appointments of a doctor (the primary key leads with appt_id)
+CREATE INDEX IF NOT EXISTS has_appointment_doctor_idx ON has_appointment (doctor_id, appt_id);
+
+-- option 5, 6: appointments on a date or in a date range, filtered by status
+CREATE INDEX IF NOT EXISTS appointment_adate_status_idx ON Appointment (adate, status);
+
+-- option 8: appointments of a status, index-only
+CREATE INDEX IF NOT EXISTS appointment_status_idx ON Appointment (status, appnt_ID);
+
+-- option 8 and booking: patients of an appointment (index-only for option 8),
+-- appointments of a patient
+CREATE INDEX IF NOT EXISTS searches_aid_idx ON searches (aid, pid);
+CREATE INDEX IF NOT EXISTS searches_pid_idx ON searches (pid);
+
+-- option 6: department by name, doctors of a department
+CREATE INDEX IF NOT EXISTS department_name_idx ON Department (name);
+CREATE INDEX IF NOT EXISTS doctor_did_idx ON Doctor (did);
+
+ANALYZE Appointment;
+ANALYZE has_appointment;
+ANALYZE searches;
+ANALYZE Department;
+ANALYZE Doctor;
@@ -0,0 +1,101 @@
+-- Server-side load of the seed data.  The CSV files must first be copied
+-- into the server's data directory (see postgresql/createPostgreDB.sh).
+-- To load from the client instead, use java/load.sh.
+
+----------------------------
+-- INSERT DATA STATEMENTS --
+----------------------------
+
+COPY Patient (
+	patient_ID ,
+	name ,	
+	gtype ,
+	age ,
+	address ,
+	number_of_appts
+)
+FROM 'patient.csv'
+WITH DELIMITER ',';
+
+
+COPY Hospital (
+	hospital_ID,
+	name
+)
+FROM 'hospital.csv'
+WITH DELIMITER ',';
+
+
+COPY Department (
+	dept_ID,
+	name,
+	hid
+)
+FROM 'department.csv'
+WITH DELIMITER ',';
+
+
+COPY Staff (
+	staff_ID,
+	name,
+	hid
+)
+FROM 'staff.csv'
+WITH DELIMITER ',';
+
+
+COPY Doctor (
+	doctor_ID,
+	name,
+	specialty,
+	did
+)
+FROM 'doctor.csv'
+WITH DELIMITER ',';
+
+
+COPY Appointment (
+	appnt_ID,
+	adate,
+	time_slot,
+	status
+)
+FROM 'appointment.csv'
+WITH DELIMITER ',';
+
+
+COPY request_maintenance (
+	patient_per_hour,
+	dept_name,
+	time_slot,
+	did,
+	sid
+)
+FROM 'request_maintenance.csv'
+WITH DELIMITER ',';
+
+
+COPY searches (
+	hid,
+	pid,
+	aid
+)
+FROM 'searches.csv'
+WITH DELIMITER ',';
+
+
+COPY schedules (
+	appt_id,
+	staff_id
+)
+FROM 'schedules.csv'
+WITH DELIMITER ',';
+
+
+COPY has_appointment (
+	appt_id,
+	doctor_id
+)
+FROM 'has_appointment.csv'
+WITH DELIMITER ',';
+
@@ -0,0 +1,31 @@
+----------------------------
+---CHANGE NOTIFICATIONS-----
+----------------------------
+-- Announces changes of the reference tables to the in-process cache of
+-- DBproject (java/src/ReferenceCache.java), which LISTENs on the channel
+-- reference_changed.  The payload is the name of the changed table.
+-- Statement-level triggers send one notification per statement, and
+-- PostgreSQL folds identical notifications of a transaction into one.
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/notify.sql
+
+CREATE OR REPLACE FUNCTION notify_reference_change() RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('reference_changed', lower(TG_TABLE_NAME));
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS hospital_notify ON Hospital;
+CREATE TRIGGER hospital_notify
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Hospital
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_change();
+
+DROP TRIGGER IF EXISTS department_notify ON Department;
+CREATE TRIGGER department_notify
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Department
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_change();
+
+DROP TRIGGER IF EXISTS doctor_notify ON Doctor;
+CREATE TRIGGER doctor_notify
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Doctor
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_change();
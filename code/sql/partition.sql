@@ -0,0 +1,260 @@
+--------------------------------
+---APPOINTMENT PARTITIONING-----
+--------------------------------
+-- Turns Appointment into a table range-partitioned by month of adate, so
+-- that the date range of option 5 and the single day of option 6 only
+-- touch the partitions of those months, and old months of past (PA)
+-- appointments can be detached and archived in one step.  Needs
+-- PostgreSQL 11 or later.  Run once, after loading data and after
+-- counters.sql and sequences.sql if those are used (createPostgreDB.sh
+-- runs both), since this script re-creates their trigger, sequence
+-- ownership and column default on the new table:
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/partition.sql
+--
+-- The primary key of a partitioned table must contain the partition key,
+-- so it becomes (appnt_ID, adate).  That key alone would let the same
+-- appnt_ID appear on two dates, while every statement that changes an
+-- appointment by appnt_ID expects one row; the side table appointment_ids
+-- keeps appnt_ID unique across all partitions, filled by the trigger
+-- below.  IDs of archived months stay in it, so they are not reused;
+-- TRUNCATE Appointment empties it too.
+--
+-- An UPDATE of adate that leaves its month would move the row to another
+-- partition, which Postgres runs as a DELETE and an INSERT: the status and
+-- schedule triggers of the UPDATE would not fire, and the references would
+-- seem to dangle.  Such an update is refused; delete the appointment and
+-- add it again instead.  Changes of adate inside a month are plain updates.
+--
+-- appnt_ID can no longer be the target of a foreign key either.  The
+-- foreign keys of searches, schedules and has_appointment are replaced
+-- by the triggers below, which check that a referenced appointment
+-- exists and refuse to delete one that is still referenced.  Look-ups by
+-- appnt_ID alone (booking) probe the appnt_ID index of every partition.
+
+BEGIN;
+
+ALTER TABLE searches DROP CONSTRAINT IF EXISTS searches_aid_fkey;
+ALTER TABLE schedules DROP CONSTRAINT IF EXISTS schedules_appt_id_fkey;
+ALTER TABLE has_appointment DROP CONSTRAINT IF EXISTS has_appointment_appt_id_fkey;
+
+ALTER TABLE Appointment RENAME TO appointment_unpartitioned;
+ALTER TABLE appointment_unpartitioned RENAME CONSTRAINT appointment_pkey TO appointment_unpartitioned_pkey;
+
+CREATE TABLE Appointment
+(
+	appnt_ID INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	status _STATUS,
+	PRIMARY KEY (appnt_ID, adate)
+) PARTITION BY RANGE (adate);
+
+-- catches dates no monthly partition was created for
+CREATE TABLE appointment_default PARTITION OF Appointment DEFAULT;
+
+-- creates the missing monthly partitions appointment_YYYY_MM covering
+-- first_day to last_day and returns how many were created.  Create months
+-- before rows for them arrive: a month can not be added while the default
+-- partition holds rows of it.
+CREATE OR REPLACE FUNCTION create_appointment_partitions(first_day DATE, last_day DATE) RETURNS INTEGER AS $$
+DECLARE
+	month_start DATE := date_trunc('month', first_day)::date;
+	part TEXT;
+	created INTEGER := 0;
+BEGIN
+	WHILE month_start <= last_day LOOP
+		part := 'appointment_' || to_char(month_start, 'YYYY_MM');
+		IF to_regclass(part) IS NULL THEN
+			EXECUTE format('CREATE TABLE %I PARTITION OF Appointment FOR VALUES FROM (%L) TO (%L)',
+				part, month_start, (month_start + interval '1 month')::date);
+			created := created + 1;
+		END IF;
+		month_start := (month_start + interval '1 month')::date;
+	END LOOP;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- detaches every monthly partition that ends on or before before_date and
+-- holds only past (PA) appointments, and moves it to the archive schema,
+-- where it stays queryable as a plain table.  Returns how many were
+-- archived.  Rows of searches, schedules and has_appointment that point
+-- into an archived month are kept.
+CREATE SCHEMA IF NOT EXISTS archive;
+
+CREATE OR REPLACE FUNCTION archive_appointment_partitions(before_date DATE) RETURNS INTEGER AS $$
+DECLARE
+	part RECORD;
+	month_end DATE;
+	not_past BOOLEAN;
+	archived INTEGER := 0;
+BEGIN
+	FOR part IN
+		SELECT c.relname FROM pg_inherits i, pg_class c
+		WHERE i.inhrelid = c.oid AND i.inhparent = 'appointment'::regclass
+		AND c.relname ~ '^appointment_[0-9]{4}_[0-9]{2}$'
+		ORDER BY c.relname
+	LOOP
+		month_end := (to_date(substr(part.relname, 13), 'YYYY_MM') + interval '1 month')::date;
+		CONTINUE WHEN month_end > before_date;
+		EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE status IS DISTINCT FROM %L)', part.relname, 'PA')
+			INTO not_past;
+		IF not_past THEN
+			RAISE NOTICE 'keeping %: it holds appointments that are not past', part.relname;
+			CONTINUE;
+		END IF;
+		EXECUTE format('ALTER TABLE Appointment DETACH PARTITION %I', part.relname);
+		EXECUTE format('ALTER TABLE %I SET SCHEMA archive', part.relname);
+		archived := archived + 1;
+	END LOOP;
+	-- archived appointments no longer count for option 7
+	IF archived > 0 AND to_regproc('refresh_doctor_status_counts') IS NOT NULL THEN
+		PERFORM refresh_doctor_status_counts();
+	END IF;
+	RETURN archived;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_appointment_partitions(min(adate), greatest(max(adate), current_date + 365))
+FROM appointment_unpartitioned;
+
+INSERT INTO Appointment (appnt_ID, adate, time_slot, status)
+SELECT appnt_ID, adate, time_slot, status FROM appointment_unpartitioned;
+
+-- appointment_id_seq of sequences.sql is owned by the old column and
+-- would be dropped with it
+DO $$
+BEGIN
+	IF to_regclass('appointment_id_seq') IS NOT NULL THEN
+		ALTER SEQUENCE appointment_id_seq OWNED BY NONE;
+	END IF;
+END;
+$$;
+
+DROP TABLE appointment_unpartitioned;
+
+-- one row per appointment ID of any partition, archived ones included
+CREATE TABLE appointment_ids
+(
+	appnt_ID INTEGER NOT NULL,
+	PRIMARY KEY (appnt_ID)
+);
+
+INSERT INTO appointment_ids (appnt_ID) SELECT appnt_ID FROM Appointment;
+
+-- a second row with an appnt_ID in use fails on the primary key above
+CREATE OR REPLACE FUNCTION appointment_ids_track() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'TRUNCATE' THEN
+		DELETE FROM appointment_ids;
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		DELETE FROM appointment_ids WHERE appnt_ID = OLD.appnt_ID;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO appointment_ids (appnt_ID) VALUES (NEW.appnt_ID);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_ids_track
+AFTER INSERT OR DELETE OR UPDATE OF appnt_ID ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE appointment_ids_track();
+
+CREATE TRIGGER appointment_ids_truncate
+AFTER TRUNCATE ON Appointment
+FOR EACH STATEMENT EXECUTE PROCEDURE appointment_ids_track();
+
+DO $$
+BEGIN
+	IF to_regclass('appointment_id_seq') IS NOT NULL THEN
+		ALTER SEQUENCE appointment_id_seq OWNED BY Appointment.appnt_ID;
+		ALTER TABLE Appointment ALTER COLUMN appnt_ID SET DEFAULT nextval('appointment_id_seq');
+	END IF;
+END;
+$$;
+
+-- look-ups by appointment ID alone, and the indexes of indexes.sql
+CREATE INDEX IF NOT EXISTS appointment_id_idx ON Appointment (appnt_ID);
+CREATE INDEX IF NOT EXISTS appointment_adate_status_idx ON Appointment (adate, status);
+CREATE INDEX IF NOT EXISTS appointment_status_idx ON Appointment (status, appnt_ID);
+
+-- referential integrity in place of the dropped foreign keys; the
+-- referencing column is passed as the trigger argument
+CREATE OR REPLACE FUNCTION check_appointment_exists() RETURNS trigger AS $$
+DECLARE
+	appt INTEGER := (to_jsonb(NEW) ->> TG_ARGV[0])::integer;
+BEGIN
+	PERFORM 1 FROM Appointment WHERE appnt_ID = appt FOR KEY SHARE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'appointment % referenced by % does not exist', appt, TG_TABLE_NAME
+			USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION check_appointment_unreferenced() RETURNS trigger AS $$
+BEGIN
+	IF EXISTS (SELECT 1 FROM has_appointment WHERE appt_id = OLD.appnt_ID)
+	OR EXISTS (SELECT 1 FROM searches WHERE aid = OLD.appnt_ID)
+	OR EXISTS (SELECT 1 FROM schedules WHERE appt_id = OLD.appnt_ID) THEN
+		RAISE EXCEPTION 'appointment % is still referenced', OLD.appnt_ID
+			USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- a row deleted from one partition whose appnt_ID is back by the end of
+-- the statement was moved to another month by an UPDATE of adate
+CREATE OR REPLACE FUNCTION check_appointment_stays() RETURNS trigger AS $$
+BEGIN
+	IF EXISTS (SELECT 1 FROM Appointment WHERE appnt_ID = OLD.appnt_ID) THEN
+		RAISE EXCEPTION 'appointment % can not move from % to another month', OLD.appnt_ID, OLD.adate
+			USING ERRCODE = 'check_violation',
+			HINT = 'Delete the appointment and add it again with the new date.';
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER searches_appointment_ref
+BEFORE INSERT OR UPDATE OF aid ON searches
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_exists('aid');
+
+CREATE TRIGGER schedules_appointment_ref
+BEFORE INSERT OR UPDATE OF appt_id ON schedules
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_exists('appt_id');
+
+CREATE TRIGGER has_appointment_appointment_ref
+BEFORE INSERT OR UPDATE OF appt_id ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_exists('appt_id');
+
+-- fires before appointment_unreferenced (triggers run in name order), so a
+-- move is reported as such rather than as a dangling reference
+CREATE TRIGGER appointment_stays_in_month
+AFTER DELETE ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_stays();
+
+CREATE TRIGGER appointment_unreferenced
+AFTER DELETE ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_unreferenced();
+
+-- the status counter trigger of counters.sql went with the old table
+DO $$
+BEGIN
+	IF to_regproc('appointment_counts') IS NOT NULL THEN
+		CREATE TRIGGER appointment_counts
+		AFTER UPDATE OF status ON Appointment
+		FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status)
+		EXECUTE PROCEDURE appointment_counts();
+	END IF;
+END;
+$$;
+
+COMMIT;
+
+ANALYZE Appointment;
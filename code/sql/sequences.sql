@@ -0,0 +1,59 @@
+---------------------------
+---ID SEQUENCES------------
+---------------------------
+-- Server generated IDs for Doctor, Patient and Appointment.  Each sequence
+-- hands out blocks of IDs: nextval returns the first ID of a block as wide
+-- as its INCREMENT, and whoever called it owns the whole block.  The Java
+-- client keeps a block per thread (java/src/IdAllocator.java), so only one
+-- insert in 50 makes a round trip for its ID, single inserts included.
+-- The column defaults are only for other clients such as psql: each row
+-- inserted without an ID takes a whole block of 50, so that it can never
+-- collide with a block of the Java client.  Run after loading data and
+-- before partition.sql, which moves the Appointment sequence and default
+-- to the partitioned table (createPostgreDB.sh runs this one for you):
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/sequences.sql
+--
+-- IDs may still be given explicitly.  Such an ID can later collide with a
+-- block handed out already; sync_id_sequences() moves every sequence past
+-- the largest ID in use, and java/BulkLoader.java calls it after a load.
+-- Concurrent syncs of a sequence are serialized, and a sync never moves a
+-- sequence back, but a block reserved while the sync runs may still meet
+-- the loaded IDs, so sync when no client is adding rows.
+
+CREATE SEQUENCE IF NOT EXISTS doctor_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Doctor.doctor_ID;
+CREATE SEQUENCE IF NOT EXISTS patient_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Patient.patient_ID;
+CREATE SEQUENCE IF NOT EXISTS appointment_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0 OWNED BY Appointment.appnt_ID;
+
+ALTER TABLE Doctor ALTER COLUMN doctor_ID SET DEFAULT nextval('doctor_id_seq');
+ALTER TABLE Patient ALTER COLUMN patient_ID SET DEFAULT nextval('patient_id_seq');
+ALTER TABLE Appointment ALTER COLUMN appnt_ID SET DEFAULT nextval('appointment_id_seq');
+
+-- moves a sequence so that its next block starts after max_id.  The
+-- sequence never goes back, so blocks already handed out stay unique, and
+-- the advisory lock, held until commit, keeps two syncs of one sequence
+-- from interleaving.  No block is used up to read the position.
+CREATE OR REPLACE FUNCTION sync_id_sequence(seq regclass, max_id BIGINT) RETURNS void AS $$
+DECLARE
+	next_id BIGINT;
+BEGIN
+	IF max_id IS NULL THEN
+		RETURN;
+	END IF;
+	PERFORM pg_advisory_xact_lock(seq::oid::bigint);
+	EXECUTE format('SELECT CASE WHEN is_called THEN last_value + %s ELSE last_value END FROM %s',
+		(SELECT seqincrement FROM pg_sequence WHERE seqrelid = seq), seq) INTO next_id;
+	IF next_id <= max_id THEN
+		PERFORM setval(seq, max_id + 1, false);
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION sync_id_sequences() RETURNS void AS $$
+BEGIN
+	PERFORM sync_id_sequence('doctor_id_seq', (SELECT max(doctor_ID) FROM Doctor));
+	PERFORM sync_id_sequence('patient_id_seq', (SELECT max(patient_ID) FROM Patient));
+	PERFORM sync_id_sequence('appointment_id_seq', (SELECT max(appnt_ID) FROM Appointment));
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT sync_id_sequences();
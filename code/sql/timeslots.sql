@@ -0,0 +1,178 @@
+---------------------------
+---TIME SLOT RANGES--------
+---------------------------
+-- Time slots are stored as H:m-H:m text.  This script checks that every
+-- slot parses, and keeps doctor_schedule, a copy of every doctor's
+-- appointments with the slot as a range of minutes since midnight, current
+-- through triggers on has_appointment and Appointment.  An exclusion
+-- constraint on doctor_schedule refuses a second active (AC) appointment
+-- of a doctor that overlaps one already booked on the same day, and its
+-- GiST index answers overlap queries such as the one at the end.  Needs
+-- the btree_gist extension.  Run after loading data, and after
+-- partition.sql if that is used:
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/timeslots.sql
+--
+-- The doctor of an appointment is recorded in has_appointment rather
+-- than in Appointment, which is why the constraint lives on a derived
+-- table instead of on Appointment itself.  Overlapping AC appointments
+-- already in the data are moved to the waitlist (WL) before the
+-- constraint is added, keeping the one with the lowest ID.
+
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+-- the slot as the half-open range [start, end) of minutes since midnight,
+-- or NULL when it is not a valid H:m-H:m slot; the same rules as
+-- TimeSlot.parse of the Java client
+CREATE OR REPLACE FUNCTION time_slot_range(slot TEXT) RETURNS int4range AS $$
+DECLARE
+	f TEXT[] := regexp_match(slot, '^\s*(\d{1,2}):(\d{1,2})\s*-\s*(\d{1,2}):(\d{1,2})\s*$');
+	lo INTEGER;
+	hi INTEGER;
+BEGIN
+	IF f IS NULL OR f[1]::int > 23 OR f[2]::int > 59 OR f[3]::int > 23 OR f[4]::int > 59 THEN
+		RETURN NULL;
+	END IF;
+	lo := f[1]::int * 60 + f[2]::int;
+	hi := f[3]::int * 60 + f[4]::int;
+	IF hi <= lo THEN
+		RETURN NULL;
+	END IF;
+	RETURN int4range(lo, hi);
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+ALTER TABLE Appointment DROP CONSTRAINT IF EXISTS appointment_time_slot_check;
+ALTER TABLE Appointment ADD CONSTRAINT appointment_time_slot_check
+	CHECK (time_slot IS NULL OR time_slot_range(time_slot) IS NOT NULL);
+
+ALTER TABLE request_maintenance DROP CONSTRAINT IF EXISTS request_maintenance_time_slot_check;
+ALTER TABLE request_maintenance ADD CONSTRAINT request_maintenance_time_slot_check
+	CHECK (time_slot_range(time_slot) IS NOT NULL);
+
+BEGIN;
+
+-- writers wait until the schedule is built and the constraint is in place
+LOCK TABLE has_appointment, Appointment IN SHARE ROW EXCLUSIVE MODE;
+
+DROP TABLE IF EXISTS doctor_schedule;
+CREATE TABLE doctor_schedule
+(
+	doctor_id INTEGER NOT NULL,
+	appt_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	slot int4range,
+	status _STATUS,
+	PRIMARY KEY (appt_id, doctor_id)
+);
+
+INSERT INTO doctor_schedule (doctor_id, appt_id, adate, slot, status)
+SELECT H.doctor_id, A.appnt_ID, A.adate, time_slot_range(A.time_slot), A.status
+FROM has_appointment H, Appointment A
+WHERE H.appt_id = A.appnt_ID;
+
+-- waitlists every active appointment that overlaps an active appointment
+-- with a lower ID of the same doctor on the same day
+DO $$
+DECLARE
+	moved INTEGER;
+BEGIN
+	WITH conflicts AS (
+		SELECT DISTINCT a.appt_id
+		FROM doctor_schedule a, doctor_schedule b
+		WHERE a.status = 'AC' AND b.status = 'AC'
+		AND a.doctor_id = b.doctor_id AND a.adate = b.adate
+		AND a.slot && b.slot AND b.appt_id < a.appt_id
+	), waitlisted AS (
+		UPDATE Appointment SET status = 'WL'
+		WHERE appnt_ID IN (SELECT appt_id FROM conflicts)
+		RETURNING appnt_ID
+	)
+	SELECT count(*) INTO moved FROM waitlisted;
+	IF moved > 0 THEN
+		UPDATE doctor_schedule S SET status = 'WL'
+		FROM Appointment A
+		WHERE S.appt_id = A.appnt_ID AND A.status = 'WL' AND S.status = 'AC';
+		RAISE NOTICE 'moved % overlapping active appointments to the waitlist', moved;
+	END IF;
+END;
+$$;
+
+ALTER TABLE doctor_schedule ADD CONSTRAINT doctor_schedule_no_overlap
+	EXCLUDE USING gist (doctor_id WITH =, adate WITH =, slot WITH &&) WHERE (status = 'AC');
+
+-- overlap look-ups whatever the status
+CREATE INDEX doctor_schedule_slot_idx ON doctor_schedule USING gist (doctor_id, adate, slot);
+
+-- an appointment is linked to or unlinked from a doctor
+CREATE OR REPLACE FUNCTION has_appointment_schedule() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'TRUNCATE' THEN
+		DELETE FROM doctor_schedule;
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		DELETE FROM doctor_schedule WHERE appt_id = OLD.appt_id AND doctor_id = OLD.doctor_id;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO doctor_schedule (doctor_id, appt_id, adate, slot, status)
+		SELECT NEW.doctor_id, A.appnt_ID, A.adate, time_slot_range(A.time_slot), A.status
+		FROM Appointment A
+		WHERE A.appnt_ID = NEW.appt_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- an appointment is moved or changes status, e.g. AV to AC when it is
+-- booked; a booking that overlaps another of the doctor fails here
+CREATE OR REPLACE FUNCTION appointment_schedule() RETURNS trigger AS $$
+BEGIN
+	UPDATE doctor_schedule
+	SET adate = NEW.adate, slot = time_slot_range(NEW.time_slot), status = NEW.status
+	WHERE appt_id = NEW.appnt_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS has_appointment_schedule ON has_appointment;
+CREATE TRIGGER has_appointment_schedule
+AFTER INSERT OR UPDATE OR DELETE ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE has_appointment_schedule();
+
+DROP TRIGGER IF EXISTS has_appointment_truncate_schedule ON has_appointment;
+CREATE TRIGGER has_appointment_truncate_schedule
+AFTER TRUNCATE ON has_appointment
+FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_schedule();
+
+DROP TRIGGER IF EXISTS appointment_schedule ON Appointment;
+CREATE TRIGGER appointment_schedule
+AFTER UPDATE OF adate, time_slot, status ON Appointment
+FOR EACH ROW WHEN (OLD.adate IS DISTINCT FROM NEW.adate
+	OR OLD.time_slot IS DISTINCT FROM NEW.time_slot
+	OR OLD.status IS DISTINCT FROM NEW.status)
+EXECUTE PROCEDURE appointment_schedule();
+
+COMMIT;
+
+-- rebuilds the schedule from scratch, e.g. after a bulk load with the
+-- triggers disabled.  Fails on overlapping active appointments.
+CREATE OR REPLACE FUNCTION refresh_doctor_schedule() RETURNS void AS $$
+BEGIN
+	LOCK TABLE has_appointment, Appointment IN SHARE MODE;
+	DELETE FROM doctor_schedule;
+	INSERT INTO doctor_schedule (doctor_id, appt_id, adate, slot, status)
+	SELECT H.doctor_id, A.appnt_ID, A.adate, time_slot_range(A.time_slot), A.status
+	FROM has_appointment H, Appointment A
+	WHERE H.appt_id = A.appnt_ID;
+END;
+$$ LANGUAGE plpgsql;
+
+ANALYZE doctor_schedule;
+
+-- example: available appointments of the Cardiology departments on
+-- 6/1/2022 that overlap 9:00-11:00, found through the GiST index
+--   SELECT S.appt_id, S.adate, S.slot, S.doctor_id
+--   FROM doctor_schedule S, Doctor Dr, Department D
+--   WHERE S.doctor_id = Dr.doctor_ID AND Dr.did = D.dept_ID AND D.name = 'Cardiology'
+--   AND S.adate = '2022-06-01' AND S.slot && int4range(9 * 60, 11 * 60) AND S.status = 'AV'
+--   ORDER BY lower(S.slot), S.doctor_id;
@@ -0,0 +1,47 @@
+---------------------------
+---WAITLIST----------------
+---------------------------
+-- One row per waitlisted booking: a patient who asked for an appointment
+-- that was taken (status WL after option 4).  Requests queue per doctor
+-- and day in order of requested_at; when a booked appointment of that
+-- doctor and day is cancelled, java/src/WaitlistScheduler.java gives it
+-- to the oldest request and sets it to AC.  An appointment stays WL while
+-- requests for it are queued.  Run after loading data:
+--   psql -h localhost -p $PGPORT $USER"_DB" < ../sql/waitlist.sql
+--
+-- Bookings waitlisted before this table existed are not in it, since
+-- searches does not say which of an appointment's patients holds it.
+-- There is no foreign key to Appointment, so reloading the data with
+-- java/load.sh (BulkLoader --truncate) empties these tables too.
+
+CREATE TABLE IF NOT EXISTS waitlist
+(
+	appt_id INTEGER NOT NULL,
+	patient_id INTEGER NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	requested_at TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(),
+	PRIMARY KEY (appt_id, patient_id),
+	-- no foreign key to Appointment, whose key includes adate once partition.sql ran
+	FOREIGN KEY (patient_id) REFERENCES Patient(patient_ID),
+	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
+);
+
+-- requests WaitlistScheduler could not promote for a reason other than a
+-- conflict, e.g. a constraint violation, with the error; their bookings
+-- were cancelled
+CREATE TABLE IF NOT EXISTS waitlist_failed
+(
+	appt_id INTEGER NOT NULL,
+	patient_id INTEGER NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	requested_at TIMESTAMPTZ NOT NULL,
+	failed_at TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(),
+	error TEXT,
+	FOREIGN KEY (patient_id) REFERENCES Patient(patient_ID),
+	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
+);
+
+-- the queue of a doctor and day, oldest first
+CREATE INDEX IF NOT EXISTS waitlist_queue_idx ON waitlist (doctor_id, adate, requested_at);